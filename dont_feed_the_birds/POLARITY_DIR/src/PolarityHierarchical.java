@@ -1,31 +1,27 @@
 import com.aliasi.classify.BaseClassifierEvaluator;
 import com.aliasi.classify.Classification;
 import com.aliasi.classify.Classified;
-import com.aliasi.classify.JointClassifier;
-import com.aliasi.classify.ConditionalClassification;
 import com.aliasi.classify.DynamicLMClassifier;
-import com.aliasi.classify.JointClassification;
 
 import com.aliasi.lm.NGramProcessLM;
 
-import com.aliasi.util.BoundedPriorityQueue;
 import com.aliasi.util.Files;
-import com.aliasi.util.Scored;
-import com.aliasi.util.ScoredObject;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
 
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.List;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class PolarityHierarchical {
 
     File mPolarityDir;
     String[] mCategories;
     DynamicLMClassifier<NGramProcessLM> mClassifier;
-    JointClassifier<CharSequence> mSubjectivityClassifier;
+    SubjectivityFilter mSubjectivityFilter;
 
     PolarityHierarchical(String[] args) 
         throws ClassNotFoundException, IOException {
@@ -38,18 +34,12 @@ public class PolarityHierarchical {
         mClassifier 
             = DynamicLMClassifier
               .createNGramProcess(mCategories,nGram);
-        File modelFile = new File("subjectivity.model");
-        System.out.println("\nReading Compiled Model from file=" + modelFile);
-        FileInputStream fileIn = new FileInputStream(modelFile);
-        ObjectInputStream objIn = new ObjectInputStream(fileIn);
-        @SuppressWarnings("unchecked")
-        JointClassifier<CharSequence> subjectivityClassifier
-            = (JointClassifier<CharSequence>) objIn.readObject();
-        mSubjectivityClassifier = subjectivityClassifier;
-        objIn.close();
+        mSubjectivityFilter 
+            = SubjectivityFilter.load(new File(args[0]),
+                                      new File(SubjectivityBasic.MODEL_FILE));
     }
 
-    void run() throws ClassNotFoundException, IOException {
+    void run() throws ClassNotFoundException, IOException, InterruptedException {
         train();
         evaluate();
     }
@@ -87,10 +77,12 @@ public class PolarityHierarchical {
         // com.aliasi.util.AbstractExternalizable.compileTo(mClassifier,new File("polarity.model"));
     }
 
-    void evaluate() throws IOException {
+    void evaluate() throws IOException, InterruptedException {
         boolean storeInstances = false;
         BaseClassifierEvaluator<CharSequence> evaluator
             = new BaseClassifierEvaluator<CharSequence>(null,mCategories,storeInstances);
+        List<String> reviews = new ArrayList<String>();
+        List<String> categories = new ArrayList<String>();
         for (int i = 0; i < mCategories.length; ++i) {
             String category = mCategories[i];
             File file = new File(mPolarityDir,mCategories[i]);
@@ -98,50 +90,37 @@ public class PolarityHierarchical {
             for (int j = 0; j < trainFiles.length; ++j) {
                 File trainFile = trainFiles[j];
                 if (!isTrainingFile(trainFile)) {
-                    String review = Files.readFromFile(trainFile,"ISO-8859-1");
-                    String subjReview = subjectiveSentences(review);
-                    Classification classification
-                        = mClassifier.classify(subjReview);
-                    evaluator.addClassification(category,classification,null);
+                    reviews.add(Files.readFromFile(trainFile,"ISO-8859-1"));
+                    categories.add(category);
                 }
             }
         }
+        // subjectivity filtering is the expensive step, so it runs
+        // in parallel; the dynamic polarity classifier is not thread
+        // safe, so classification stays on this thread
+        ExecutorService executor 
+            = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        List<String> subjReviews;
+        try {
+            subjReviews = mSubjectivityFilter.filter(reviews,executor);
+        } finally {
+            executor.shutdown();
+        }
+        for (int i = 0; i < subjReviews.size(); ++i) {
+            Classification classification
+                = mClassifier.classify(subjReviews.get(i));
+            evaluator.addClassification(categories.get(i),classification,null);
+        }
         System.out.println();
+        System.out.println("  # Memoized Sentences=" + mSubjectivityFilter.memoSize());
         System.out.println(evaluator.toString());
     }
 
 
     String subjectiveSentences(String review) {
-        String[] sentences = review.split("\n");
-        BoundedPriorityQueue<ScoredObject<String>> pQueue 
-            = new BoundedPriorityQueue<ScoredObject<String>>(ScoredObject.comparator(),
-                                                             MAX_SENTS);
-        for (int i = 0; i < sentences.length; ++i) {
-            String sentence = sentences[i];
-            ConditionalClassification subjClassification
-                = (ConditionalClassification) 
-                mSubjectivityClassifier.classify(sentences[i]);
-            double subjProb;
-            if (subjClassification.category(0).equals("quote"))
-                subjProb = subjClassification.conditionalProbability(0);
-            else
-                subjProb = subjClassification.conditionalProbability(1);
-            pQueue.offer(new ScoredObject<String>(sentence,subjProb));
-        }
-        StringBuilder reviewBuf = new StringBuilder();
-        Iterator<ScoredObject<String>> it = pQueue.iterator();
-        for (int i = 0; it.hasNext(); ++i) {
-            ScoredObject<String> so = it.next();
-            if (so.score() < .5 && i >= MIN_SENTS) break;
-            reviewBuf.append(so.getObject() + "\n");
-        }
-        String result = reviewBuf.toString().trim();
-        return result;
+        return mSubjectivityFilter.filter(review);
     }
 
-    static int MIN_SENTS = 5;
-    static int MAX_SENTS = 25;
-
     public static void main(String[] args) {
         try {
             new PolarityHierarchical(args).run();
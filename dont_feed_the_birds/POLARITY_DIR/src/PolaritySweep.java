@@ -0,0 +1,133 @@
+import com.aliasi.classify.JointClassifier;
+
+import com.aliasi.tokenizer.IndoEuropeanTokenizerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Cross-validates a grid of classifier factories over the same
+// fold data, read once by PolarityWhole.readData(), and reports
+// accuracy against training time, model size and classify latency,
+// timed on a single thread after every fold has finished.
+// Usage: PolaritySweep <txt_sentoken dir> [accuracy floor]
+public class PolaritySweep {
+
+    PolarityWhole mWhole;
+    double mAccuracyFloor;
+
+    PolaritySweep(String[] args) {
+        mWhole = new PolarityWhole(args);
+        mAccuracyFloor = args.length > 1 ? Double.parseDouble(args[1]) : 0.80;
+    }
+
+    List<PolarityWhole.DynamicLMClassifierFactory<?>> grid() {
+        List<PolarityWhole.DynamicLMClassifierFactory<?>> factories
+            = new ArrayList<PolarityWhole.DynamicLMClassifierFactory<?>>();
+        for (int nGram = 4; nGram <= 8; ++nGram)
+            factories.add(mWhole.new NGramFactory(nGram));
+        for (int nGram = 3; nGram <= 5; nGram += 2) {
+            factories.add(mWhole.new NaiveBayesFactory(nGram));
+            factories.add(mWhole.new NaiveBayesFactory(nGram,
+                                                       IndoEuropeanTokenizerFactory.INSTANCE,
+                                                       "Indo-European"));
+        }
+        return factories;
+    }
+
+    void run() throws ClassNotFoundException, IOException, InterruptedException {
+        System.out.println("POLARITY SWEEP");
+        mWhole.readData();
+        List<PolarityWhole.DynamicLMClassifierFactory<?>> factories = grid();
+        List<List<PolarityWhole.FoldResult>> results
+            = new ArrayList<List<PolarityWhole.FoldResult>>();
+        ExecutorService executor 
+            = Executors.newFixedThreadPool(PolarityWhole.NUM_THREADS);
+        try {
+            List<List<Future<PolarityWhole.FoldResult>>> futures
+                = new ArrayList<List<Future<PolarityWhole.FoldResult>>>();
+            for (int i = 0; i < factories.size(); ++i)
+                futures.add(mWhole.submitFolds(factories.get(i),executor));
+            for (int i = 0; i < factories.size(); ++i) {
+                List<PolarityWhole.FoldResult> folds
+                    = new ArrayList<PolarityWhole.FoldResult>();
+                for (int j = 0; j < futures.get(i).size(); ++j)
+                    folds.add(PolarityWhole.get(futures.get(i).get(j)));
+                results.add(folds);
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // classification is timed in a pass of its own, after every
+        // fold has finished, so it does not share the cores with training
+        double[] classifyMicros = new double[factories.size()];
+        for (int i = 0; i < factories.size(); ++i)
+            classifyMicros[i] = classifyMicros(results.get(i).get(PolarityWhole.TIMED_FOLD));
+
+        System.out.println();
+        System.out.println("Accuracy  Train ms/fold  Model bytes  Classify us/doc  Classifier");
+        String cheapest = null;
+        double cheapestMicros = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < factories.size(); ++i) {
+            long numTests = 0;
+            long numCorrect = 0;
+            long trainMillis = 0;
+            long modelBytes = 0;
+            List<PolarityWhole.FoldResult> folds = results.get(i);
+            for (int j = 0; j < folds.size(); ++j) {
+                PolarityWhole.FoldResult fold = folds.get(j);
+                numTests += fold.numTests();
+                numCorrect += fold.numCorrect();
+                trainMillis += fold.mTrainMillis;
+                modelBytes += fold.mModelBytes;
+            }
+            double accuracy = ((double) numCorrect) / numTests;
+            System.out.printf("%8.4f  %13d  %11d  %15.1f  %s%n",
+                              accuracy,
+                              trainMillis / folds.size(),
+                              modelBytes / folds.size(),
+                              classifyMicros[i],
+                              factories.get(i));
+            if (accuracy >= mAccuracyFloor && classifyMicros[i] < cheapestMicros) {
+                cheapest = factories.get(i).toString();
+                cheapestMicros = classifyMicros[i];
+            }
+        }
+        System.out.println();
+        System.out.println("Fastest classifier with accuracy >= " + mAccuracyFloor
+                           + ": " + (cheapest == null ? "none" : cheapest));
+    }
+
+    // classifies the fold's test reviews with its compiled model on
+    // this thread alone, once to warm up and once timed
+    double classifyMicros(PolarityWhole.FoldResult fold)
+        throws ClassNotFoundException, IOException {
+        ObjectInputStream objIn
+            = new ObjectInputStream(new ByteArrayInputStream(fold.mCompiledModel));
+        @SuppressWarnings("unchecked")
+        JointClassifier<CharSequence> classifier
+            = (JointClassifier<CharSequence>) objIn.readObject();
+        objIn.close();
+        List<String> reviews = new ArrayList<String>(mWhole.mPosReviewLists.get(fold.mFold));
+        reviews.addAll(mWhole.mNegReviewLists.get(fold.mFold));
+        for (int i = 0; i < reviews.size(); ++i)
+            classifier.classify(reviews.get(i));
+        long start = System.nanoTime();
+        for (int i = 0; i < reviews.size(); ++i)
+            classifier.classify(reviews.get(i));
+        return (System.nanoTime() - start) / 1000.0 / reviews.size();
+    }
+
+    public static void main(String[] args) throws Exception {
+        new PolaritySweep(args).run();
+    }
+
+}
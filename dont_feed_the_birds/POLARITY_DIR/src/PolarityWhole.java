@@ -16,17 +16,26 @@ import com.aliasi.lm.TokenizedLM;
 import com.aliasi.tokenizer.RegExTokenizerFactory;
 import com.aliasi.tokenizer.TokenizerFactory;
 
-import com.aliasi.util.AbstractExternalizable;
 import com.aliasi.util.ObjectToCounterMap;
 
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 
 public class PolarityWhole {
 
@@ -39,60 +48,104 @@ public class PolarityWhole {
         mPolarityDir = new File(args[0]);
     }
 
-    void run() throws ClassNotFoundException, IOException {
+    void run() throws ClassNotFoundException, IOException, InterruptedException {
         System.out.println("POLARITY DEMO");
         System.out.println("  Data Directory=" + mPolarityDir);
         readData();
-        evaluate(new NGramFactory(8));
-        evaluate(new NaiveBayesFactory(5));
+        ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
+        try {
+            NGramFactory nGramFactory = new NGramFactory(8);
+            NaiveBayesFactory naiveBayesFactory = new NaiveBayesFactory(5);
+            List<Future<FoldResult>> nGramFolds = submitFolds(nGramFactory,executor);
+            List<Future<FoldResult>> naiveBayesFolds = submitFolds(naiveBayesFactory,executor);
+            evaluate(nGramFactory,nGramFolds);
+            evaluate(naiveBayesFactory,naiveBayesFolds);
+        } finally {
+            executor.shutdown();
+        }
     }
 
     <L extends LanguageModel.Dynamic>
-    void evaluate(DynamicLMClassifierFactory<L> factory)
-        throws ClassNotFoundException, IOException {
+    List<Future<FoldResult>> submitFolds(final DynamicLMClassifierFactory<L> factory,
+                                         ExecutorService executor) {
+        List<Future<FoldResult>> folds = new ArrayList<Future<FoldResult>>();
+        for (int i = 0; i < NUM_FOLDS; ++i) {
+            final int fold = i;
+            folds.add(executor.submit(new Callable<FoldResult>() {
+                public FoldResult call() throws ClassNotFoundException, IOException {
+                    return evaluate(fold,factory);
+                }
+            }));
+        }
+        return folds;
+    }
+
+    // folds run concurrently, but results are added to the evaluator
+    // on this thread, in fold order, so the evaluator is never shared
+    JointClassifierEvaluator<CharSequence> 
+        evaluate(DynamicLMClassifierFactory<?> factory,
+                 List<Future<FoldResult>> folds)
+        throws ClassNotFoundException, IOException, InterruptedException {
 
         JointClassifierEvaluator<CharSequence> evaluator
             = new JointClassifierEvaluator<CharSequence>(null,CATEGORIES,false);
-        for (int i = 0; i < NUM_FOLDS; ++i)
-            evaluate(i,factory,evaluator);
+        System.out.println("CLASSIFIER=" + factory.toString());
+        for (int i = 0; i < folds.size(); ++i) {
+            FoldResult result = get(folds.get(i));
+            result.addTo(evaluator);
+            System.out.println("  " + result);
+        }
+
+        System.out.println("EVALUATION");
+
+        System.out.println("CLASSIFIER=" + factory.toString());
+        System.out.println(evaluator.toString());
+        return evaluator;
     }
 
     <L extends LanguageModel.Dynamic> 
-    void evaluate(int fold,
-                  DynamicLMClassifierFactory<L> factory,
-                  JointClassifierEvaluator<CharSequence> evaluator)
+    FoldResult evaluate(int fold,
+                        DynamicLMClassifierFactory<L> factory)
         throws ClassNotFoundException, IOException {
 
-        System.out.println("  Evaluating fold=" + fold);
+        FoldResult result = new FoldResult(fold);
+        long start = System.currentTimeMillis();
 
         DynamicLMClassifier<L> classifier 
             = factory.create();
 
-        System.out.print("    Training. Fold=");
         for (int i = 0; i < NUM_FOLDS; ++i) {
             if (i != fold) {
-                System.out.print(" " + i);
                 train(i,classifier);
             }
         }
-        System.out.println();
-
-        System.out.println("    Compiling.");
 
         factory.tweak(classifier);
 
+        // compiled through a byte array rather than with
+        // AbstractExternalizable.compile() to measure the model size
+        ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+        ObjectOutputStream objOut = new ObjectOutputStream(bytesOut);
+        classifier.compileTo(objOut);
+        objOut.close();
+        result.mModelBytes = bytesOut.size();
+        byte[] compiledBytes = bytesOut.toByteArray();
+        // kept for one fold only, which PolaritySweep times again
+        // on its own once every fold has finished
+        if (fold == TIMED_FOLD)
+            result.mCompiledModel = compiledBytes;
+        ObjectInputStream objIn 
+            = new ObjectInputStream(new ByteArrayInputStream(compiledBytes));
         @SuppressWarnings("unchecked")
         JointClassifier<CharSequence> compiledClassifier
-            = (JointClassifier<CharSequence>) 
-            AbstractExternalizable.compile(classifier);
-
-        System.out.println("    Testing.");
-        test(fold,compiledClassifier,evaluator);
-
-        System.out.println("EVALUATION");
-
-        System.out.println("CLASSIFIER=" + factory.toString());
-        System.out.println(evaluator.toString());
+            = (JointClassifier<CharSequence>) objIn.readObject();
+        objIn.close();
+        long trained = System.currentTimeMillis();
+        result.mTrainMillis = trained - start;
+
+        test(fold,compiledClassifier,result);
+        result.mTestMillis = System.currentTimeMillis() - trained;
+        return result;
     }
 
     <L extends LanguageModel.Dynamic> 
@@ -117,20 +170,33 @@ public class PolarityWhole {
     }
 
     void test(int fold, JointClassifier<CharSequence> classifier,
-              JointClassifierEvaluator<CharSequence> evaluator) {
-        test(mPosReviewLists.get(fold),POSITIVE,classifier,evaluator);
-        test(mNegReviewLists.get(fold),NEGATIVE,classifier,evaluator);
+              FoldResult result) {
+        test(mPosReviewLists.get(fold),POSITIVE,classifier,result);
+        test(mNegReviewLists.get(fold),NEGATIVE,classifier,result);
     }
 
     void test(List<String> reviewList, String category,
               JointClassifier<CharSequence> classifier, 
-              JointClassifierEvaluator<CharSequence> evaluator) {
+              FoldResult result) {
         Iterator<String> it = reviewList.iterator();
         while (it.hasNext()) {
             String review = it.next().toString();
             JointClassification classification
                 = classifier.classify(review);
-            evaluator.addClassification(category,classification,null);
+            result.add(category,classification);
+        }
+    }
+
+    static FoldResult get(Future<FoldResult> fold)
+        throws ClassNotFoundException, IOException, InterruptedException {
+        try {
+            return fold.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof ClassNotFoundException) throw (ClassNotFoundException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IllegalStateException(cause);
         }
     }
 
@@ -174,6 +240,13 @@ public class PolarityWhole {
 
     static final int NUM_FOLDS = 10;
 
+    static final int TIMED_FOLD = 0;
+
+    // each concurrent fold holds its own models in memory;
+    // lower with -Dthreads=N if the heap is too small
+    static final int NUM_THREADS
+        = Integer.getInteger("threads",Runtime.getRuntime().availableProcessors());
+
     static final String POSITIVE = BinaryLMClassifier.DEFAULT_ACCEPT_CATEGORY;
     static final String NEGATIVE = BinaryLMClassifier.DEFAULT_REJECT_CATEGORY;
     static final String[] CATEGORIES = new String[] {
@@ -217,16 +290,67 @@ public class PolarityWhole {
 
     class NaiveBayesFactory extends DynamicLMClassifierFactory<TokenizedLM> {
         int mMaxNGram;
+        TokenizerFactory mTokenizerFactory;
+        String mTokenizerName;
         public NaiveBayesFactory(int nGram) {
+            this(nGram,SPACE_TOKENIZER_FACTORY,"Whitespace");
+        }
+        public NaiveBayesFactory(int nGram, 
+                                 TokenizerFactory tokenizerFactory,
+                                 String tokenizerName) {
             mMaxNGram = nGram;
+            mTokenizerFactory = tokenizerFactory;
+            mTokenizerName = tokenizerName;
         }
         public DynamicLMClassifier<TokenizedLM> create() {
             return new NaiveBayesClassifier(CATEGORIES,
-                                            SPACE_TOKENIZER_FACTORY,
+                                            mTokenizerFactory,
                                             mMaxNGram);
         }
         public String toString() {
-            return "Naive Bayes with " + mMaxNGram + "-gram Char Smoothing";
+            return "Naive Bayes with " + mMaxNGram + "-gram Char Smoothing, "
+                + mTokenizerName + " Tokens";
+        }
+    }
+    
+    static class FoldResult {
+        final int mFold;
+        final List<String> mCategories = new ArrayList<String>();
+        final List<JointClassification> mClassifications 
+            = new ArrayList<JointClassification>();
+        long mTrainMillis;
+        long mTestMillis;
+        long mModelBytes;
+        byte[] mCompiledModel;
+        FoldResult(int fold) {
+            mFold = fold;
+        }
+        void add(String category, JointClassification classification) {
+            mCategories.add(category);
+            mClassifications.add(classification);
+        }
+        void addTo(JointClassifierEvaluator<CharSequence> evaluator) {
+            for (int i = 0; i < mCategories.size(); ++i)
+                evaluator.addClassification(mCategories.get(i),
+                                            mClassifications.get(i),
+                                            null);
+        }
+        int numTests() {
+            return mCategories.size();
+        }
+        int numCorrect() {
+            int numCorrect = 0;
+            for (int i = 0; i < mCategories.size(); ++i)
+                if (mClassifications.get(i).bestCategory().equals(mCategories.get(i)))
+                    ++numCorrect;
+            return numCorrect;
+        }
+        public String toString() {
+            return "Fold=" + mFold
+                + " #Tests=" + mCategories.size()
+                + " Train+Compile ms=" + mTrainMillis
+                + " Test ms=" + mTestMillis
+                + " Model bytes=" + mModelBytes;
         }
     }
     
@@ -60,8 +60,8 @@ public class SubjectivityBasic {
             }
         }
         
-        System.out.println("\nCompiling.\n  Model file=subjectivity.model");
-        FileOutputStream fileOut = new FileOutputStream("subjectivity.model");
+        System.out.println("\nCompiling.\n  Model file=" + MODEL_FILE);
+        FileOutputStream fileOut = new FileOutputStream(MODEL_FILE);
         ObjectOutputStream objOut = new ObjectOutputStream(fileOut);
         mClassifier.compileTo(objOut);
         objOut.close();
@@ -95,6 +95,8 @@ public class SubjectivityBasic {
         System.out.println(evaluator.toString());
     }
 
+    static final String MODEL_FILE = "subjectivity.model";
+
     public static void main(String[] args) {
         try {
             new SubjectivityBasic(args).run();
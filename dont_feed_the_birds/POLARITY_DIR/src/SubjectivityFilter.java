@@ -0,0 +1,128 @@
+import com.aliasi.classify.ConditionalClassification;
+import com.aliasi.classify.JointClassifier;
+
+import com.aliasi.util.AbstractExternalizable;
+import com.aliasi.util.BoundedPriorityQueue;
+import com.aliasi.util.ScoredObject;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+// Keeps the most subjective sentences of a review, using the
+// compiled subjectivity model.  The model is loaded once, and
+// built with SubjectivityBasic first if the model file is missing.
+// Sentence scores are memoized, so repeated sentences (such as
+// retweets) are only classified once.  The compiled classifier
+// and the memo are thread safe, so reviews can be filtered in
+// parallel.
+public class SubjectivityFilter {
+
+    JointClassifier<CharSequence> mClassifier;
+    ConcurrentHashMap<String,Double> mScores 
+        = new ConcurrentHashMap<String,Double>();
+
+    SubjectivityFilter(JointClassifier<CharSequence> classifier) {
+        mClassifier = classifier;
+    }
+
+    static SubjectivityFilter load(File polarityDir, File modelFile)
+        throws ClassNotFoundException, IOException {
+
+        if (!modelFile.isFile()) {
+            System.out.println("\nNo subjectivity model at " + modelFile 
+                               + ", building it.");
+            new SubjectivityBasic(new String[] { polarityDir.getPath() }).train();
+            File builtFile = new File(SubjectivityBasic.MODEL_FILE);
+            if (!builtFile.getAbsoluteFile().equals(modelFile.getAbsoluteFile())
+                && !builtFile.renameTo(modelFile))
+                throw new IOException("Could not move " + builtFile + " to " + modelFile);
+        }
+        System.out.println("\nReading Compiled Model from file=" + modelFile);
+        @SuppressWarnings("unchecked")
+        JointClassifier<CharSequence> classifier
+            = (JointClassifier<CharSequence>) 
+            AbstractExternalizable.readObject(modelFile);
+        return new SubjectivityFilter(classifier);
+    }
+
+    double subjectivity(String sentence) {
+        Double cached = mScores.get(sentence);
+        if (cached != null) return cached;
+        ConditionalClassification subjClassification
+            = (ConditionalClassification) 
+            mClassifier.classify(sentence);
+        double subjProb;
+        if (subjClassification.category(0).equals("quote"))
+            subjProb = subjClassification.conditionalProbability(0);
+        else
+            subjProb = subjClassification.conditionalProbability(1);
+        // crude bound on memory: start over when the memo is full
+        if (mScores.size() >= MAX_MEMO) mScores.clear();
+        mScores.put(sentence,subjProb);
+        return subjProb;
+    }
+
+    String filter(String review) {
+        String[] sentences = review.split("\n");
+        BoundedPriorityQueue<ScoredObject<String>> pQueue 
+            = new BoundedPriorityQueue<ScoredObject<String>>(ScoredObject.comparator(),
+                                                             MAX_SENTS);
+        for (int i = 0; i < sentences.length; ++i) {
+            String sentence = sentences[i];
+            pQueue.offer(new ScoredObject<String>(sentence,subjectivity(sentence)));
+        }
+        StringBuilder reviewBuf = new StringBuilder();
+        Iterator<ScoredObject<String>> it = pQueue.iterator();
+        for (int i = 0; it.hasNext(); ++i) {
+            ScoredObject<String> so = it.next();
+            if (so.score() < .5 && i >= MIN_SENTS) break;
+            reviewBuf.append(so.getObject() + "\n");
+        }
+        String result = reviewBuf.toString().trim();
+        return result;
+    }
+
+    // filters each review as its own task; results in input order
+    List<String> filter(List<String> reviews, ExecutorService executor) 
+        throws InterruptedException {
+
+        List<Callable<String>> tasks = new ArrayList<Callable<String>>();
+        for (int i = 0; i < reviews.size(); ++i) {
+            final String review = reviews.get(i);
+            tasks.add(new Callable<String>() {
+                public String call() {
+                    return filter(review);
+                }
+            });
+        }
+        List<Future<String>> futures = executor.invokeAll(tasks);
+        List<String> filtered = new ArrayList<String>();
+        for (int i = 0; i < futures.size(); ++i) {
+            try {
+                filtered.add(futures.get(i).get());
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        return filtered;
+    }
+
+    int memoSize() {
+        return mScores.size();
+    }
+
+    static int MIN_SENTS = 5;
+    static int MAX_SENTS = 25;
+    static int MAX_MEMO = 1000000;
+
+}
@@ -0,0 +1,245 @@
+package com.company;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Class used for replaying the experiment over a stored price history, one trading day at a time, instead
+ * of waiting for the days to pass in real time.
+ *
+ * Both strategies start with 100 shares of the stock, bought at the first day's close, as in
+ * DataOps#initializeExperiment. The control strategy holds them throughout. The experiment strategy sells
+ * its shares when the net sentiment of a day's tweets is not above the threshold, and buys back in when it
+ * is, at the next open or the next close with the costs of its @ExecutionModel (see @Portfolio, which
+ * simulates both). A day's tweets are collected until midnight, after the close, so the decision is never
+ * filled before the last of them was posted, and the replay does not look ahead.
+ *
+ * A day's net sentiment is computed once from the tweets archived for it (see TweetArchive and
+ * SentimentSeriesStore#dailySentiment), and can then be replayed with any number of thresholds. A replay
+ * writes into a @Result whose arrays can be reused by the next replay, so it allocates nothing per day.
+ */
+public class Backtest {
+
+    public static final String TWEET_ARCHIVE_DIR = "tweetArchive";
+    static final String TWEETS_SUFFIX = ".txt";
+    static final int INITIAL_SHARES = 100;
+
+    final PriceSeries mPrices;
+    final double[] mSentiment;
+    final ExecutionModel mExecution;
+
+    /**
+     * Creates a backtest trading under the readme's ideal conditions, see ExecutionModel#IDEAL.
+     * @param prices - Daily prices of the traded symbol
+     * @param sentiment - Net sentiment of each day in the series, or NaN for days without tweets
+     */
+    public Backtest(PriceSeries prices, double[] sentiment) {
+        this(prices, sentiment, ExecutionModel.IDEAL);
+    }
+
+    /**
+     * @param prices - Daily prices of the traded symbol
+     * @param sentiment - Net sentiment of each day in the series, or NaN for days without tweets
+     * @param execution - How the experiment's orders are filled
+     */
+    public Backtest(PriceSeries prices, double[] sentiment, ExecutionModel execution) {
+        if (sentiment.length < prices.size()) {
+            throw new IllegalArgumentException("Need a sentiment score for each of the " + prices.size()
+                    + " days, got " + sentiment.length);
+        }
+        mPrices = prices;
+        mSentiment = sentiment;
+        mExecution = execution;
+    }
+
+    /**
+     * Method used for replaying the whole price series.
+     * @param threshold - Net sentiment, between -1 and 1, above which the experiment invests
+     * @return - the equity of both strategies on each day
+     */
+    public Result run(double threshold) {
+        return run(threshold, 0, mPrices.size(), null);
+    }
+
+    /**
+     * Method used for replaying part of the price series.
+     * @param threshold - Net sentiment, between -1 and 1, above which the experiment invests
+     * @param fromBar - Position in the series of the first day, on which the shares are bought
+     * @param toBar - Position in the series after the last day
+     * @param reuse - A result from an earlier replay whose arrays can be overwritten, or null
+     * @return - the equity of both strategies on each day; the same object as reuse, if it was large enough
+     */
+    public Result run(double threshold, int fromBar, int toBar, Result reuse) {
+        if (fromBar < 0 || toBar > mPrices.size() || toBar - fromBar < 1) {
+            throw new IllegalArgumentException("No days to replay between " + fromBar + " and " + toBar);
+        }
+        int numDays = toBar - fromBar;
+        final Result result = reuse != null && reuse.capacity() >= numDays ? reuse : new Result(numDays);
+        result.reset(mPrices, fromBar, numDays, threshold);
+
+        final Portfolio portfolio = new Portfolio(mExecution);
+        final int experiment = portfolio.addSentimentGated(TradingStore.EXPERIMENT, threshold, 1);
+        final int control = portfolio.addPassive(TradingStore.CONTROL);
+        final int first = fromBar;
+        portfolio.run(mPrices, mSentiment, fromBar, toBar, new Portfolio.BarHandler() {
+            public void handle(int bar, double[] equity) {
+                int i = bar - first;
+                result.mExperiment[i] = equity[experiment];
+                result.mControl[i] = equity[control];
+                result.mInvested[i] = i > 0 && portfolio.shares(experiment) > 0;
+            }
+        });
+        result.mDaysInvested = portfolio.daysInvested(experiment);
+        result.mTrades = portfolio.trades(experiment);
+        result.mCosts = portfolio.costs(experiment);
+        return result;
+    }
+
+    /**
+     * Class holding the equity of the experiment and control strategies on each day of a replay.
+     */
+    public static class Result {
+
+        PriceSeries mPrices;
+        int mFromBar;
+        int mSize;
+        double mThreshold;
+        int mDaysInvested;
+        int mTrades;
+        double mCosts;
+        final double[] mExperiment;
+        final double[] mControl;
+        final boolean[] mInvested;
+
+        /**
+         * @param capacity - Largest number of days this result can hold
+         */
+        public Result(int capacity) {
+            mExperiment = new double[capacity];
+            mControl = new double[capacity];
+            mInvested = new boolean[capacity];
+        }
+
+        void reset(PriceSeries prices, int fromBar, int size, double threshold) {
+            mPrices = prices;
+            mFromBar = fromBar;
+            mSize = size;
+            mThreshold = threshold;
+            mDaysInvested = 0;
+            mTrades = 0;
+            mCosts = 0.0;
+        }
+
+        public int capacity() {
+            return mExperiment.length;
+        }
+
+        /**
+         * @return - the number of days replayed
+         */
+        public int size() {
+            return mSize;
+        }
+
+        /**
+         * @param day - Day of the replay, from 0 to @size - 1
+         * @return - the date of the day, in epoch days
+         */
+        public int date(int day) {
+            return mPrices.date(mFromBar + day);
+        }
+
+        /**
+         * @param day - Day of the replay, from 0 to @size - 1
+         * @return - the total assets of the experiment strategy at the day's close
+         */
+        public double experimentEquity(int day) {
+            return mExperiment[day];
+        }
+
+        /**
+         * @param day - Day of the replay, from 0 to @size - 1
+         * @return - the total assets of the control strategy at the day's close
+         */
+        public double controlEquity(int day) {
+            return mControl[day];
+        }
+
+        /**
+         * @param day - Day of the replay, from 0 to @size - 1
+         * @return - true if the experiment held shares at the day's close
+         */
+        public boolean invested(int day) {
+            return mInvested[day];
+        }
+
+        public double experimentTotal() {
+            return mExperiment[mSize - 1];
+        }
+
+        public double controlTotal() {
+            return mControl[mSize - 1];
+        }
+
+        public int daysInvested() {
+            return mDaysInvested;
+        }
+
+        /**
+         * @return - the number of times the experiment sold or bought back its shares
+         */
+        public int trades() {
+            return mTrades;
+        }
+
+        /**
+         * @return - the commission and slippage the experiment paid, in dollars
+         */
+        public double costs() {
+            return mCosts;
+        }
+
+        public double threshold() {
+            return mThreshold;
+        }
+
+        /**
+         * Method used for writing the equity curves to a CSV file, one line per day.
+         * @param file - File to write
+         * @throws IOException - When the file cannot be written
+         */
+        public void writeCsv(File file) throws IOException {
+            PrintWriter writer = new PrintWriter(new FileWriter(file));
+            try {
+                writer.print("Date,Experiment,Control,Invested\n");
+                for (int i = 0; i < mSize; ++i) {
+                    writer.print(EpochDays.toString(date(i)) + "," + mExperiment[i] + "," + mControl[i] + ","
+                            + mInvested[i] + "\n");
+                }
+            } finally {
+                writer.close();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return EpochDays.toString(date(0)) + " to " + EpochDays.toString(date(mSize - 1))
+                    + ", threshold " + mThreshold
+                    + ": experiment " + String.format("%.2f", experimentTotal())
+                    + ", control " + String.format("%.2f", controlTotal())
+                    + ", invested on " + mDaysInvested + " of " + (mSize - 1) + " days"
+                    + ", " + mTrades + " trades costing " + String.format("%.2f", mCosts);
+        }
+    }
+
+    /**
+     * @return - the daily text file, one tweet per line, in which tweets were archived before they were kept
+     * whole in a TweetArchive; still read for the days it covers (see SentimentSeriesStore#update)
+     */
+    static File archiveFile(File archiveDir, int epochDay) {
+        return new File(archiveDir, EpochDays.toString(epochDay) + TWEETS_SUFFIX);
+    }
+
+}
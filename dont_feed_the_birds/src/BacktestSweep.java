@@ -0,0 +1,212 @@
+package com.company;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Class used for backtesting the experiment over a grid of parameters on every core: net sentiment thresholds,
+ * sentiment windows and traded symbols.
+ *
+ * A window is the number of trading days whose net sentiment is averaged before it is compared with the
+ * threshold, so 1, 5 and 21 decide on a day's, a week's or a month's sentiment. Each symbol's (window,
+ * threshold) pairs are split into one share per thread, and each share is a @Portfolio that replays all of
+ * its pairs, and the passive control, in a single pass over the prices. The price series and daily
+ * sentiment are only read, so all tasks share them.
+ *
+ * Results are kept in flat arrays, one entry per (symbol, window, threshold), in that order.
+ */
+public class BacktestSweep {
+
+    // A day's, a week's and a month's worth of trading days
+    public static final int[] DEFAULT_WINDOWS = {1, 5, 21};
+
+    final PriceSeries[] mPrices;
+    final double[][] mSentiment;
+    final double[] mThresholds;
+    final int[] mWindows;
+    final ExecutionModel mExecution;
+
+    final double[] mExperimentTotals;
+    final double[] mControlTotals;
+    final int[] mDaysInvested;
+
+    /**
+     * Creates a sweep trading under the readme's ideal conditions, see ExecutionModel#IDEAL.
+     * @param prices - Daily prices of each symbol
+     * @param sentiment - Net sentiment of each day, for each symbol's series
+     * @param thresholds - Net sentiment thresholds to replay
+     * @param windows - Sentiment windows to replay, in trading days
+     */
+    public BacktestSweep(PriceSeries[] prices, double[][] sentiment, double[] thresholds, int[] windows) {
+        this(prices, sentiment, thresholds, windows, ExecutionModel.IDEAL);
+    }
+
+    /**
+     * @param prices - Daily prices of each symbol
+     * @param sentiment - Net sentiment of each day, for each symbol's series
+     * @param thresholds - Net sentiment thresholds to replay
+     * @param windows - Sentiment windows to replay, in trading days
+     * @param execution - How the orders of every replayed experiment are filled
+     */
+    public BacktestSweep(PriceSeries[] prices, double[][] sentiment, double[] thresholds, int[] windows,
+                         ExecutionModel execution) {
+        mPrices = prices;
+        mSentiment = sentiment;
+        mThresholds = thresholds;
+        mWindows = windows;
+        mExecution = execution;
+        int size = prices.length * windows.length * thresholds.length;
+        mExperimentTotals = new double[size];
+        mControlTotals = new double[size];
+        mDaysInvested = new int[size];
+    }
+
+    /**
+     * Method used for running every backtest in the grid.
+     * @param numThreads - Number of threads to run backtests on
+     * @throws InterruptedException - When interrupted while waiting for the backtests
+     * @throws ExecutionException - When a backtest fails
+     */
+    public void run(int numThreads) throws InterruptedException, ExecutionException {
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            int perSymbol = mWindows.length * mThresholds.length;
+            int shares = Math.max(1, Math.min(numThreads, perSymbol));
+            for (int s = 0; s < mPrices.length; ++s) {
+                for (int share = 0; share < shares; ++share) {
+                    final int symbol = s;
+                    final int from = (int) ((long) perSymbol * share / shares);
+                    final int to = (int) ((long) perSymbol * (share + 1) / shares);
+                    futures.add(executor.submit(new Callable<Void>() {
+                        public Void call() {
+                            runTask(symbol, from, to);
+                            return null;
+                        }
+                    }));
+                }
+            }
+            for (int i = 0; i < futures.size(); ++i) {
+                futures.get(i).get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Method used for replaying part of a symbol's grid.
+     * @param symbol - Index of the symbol
+     * @param from - First (window, threshold) pair to replay, counting thresholds fastest
+     * @param to - Pair after the last one to replay
+     */
+    void runTask(int symbol, int from, int to) {
+        PriceSeries prices = mPrices[symbol];
+        if (prices.size() == 0 || from == to) {
+            return;
+        }
+        Portfolio portfolio = new Portfolio(mExecution);
+        for (int pair = from; pair < to; ++pair) {
+            int window = mWindows[pair / mThresholds.length];
+            double threshold = mThresholds[pair % mThresholds.length];
+            portfolio.addSentimentGated(window + "d>" + threshold, threshold, window);
+        }
+        int control = portfolio.addPassive(TradingStore.CONTROL);
+        portfolio.run(prices, mSentiment[symbol], 0, prices.size(), null);
+
+        int offset = symbol * mWindows.length * mThresholds.length;
+        for (int pair = from; pair < to; ++pair) {
+            int strategy = pair - from;
+            mExperimentTotals[offset + pair] = portfolio.equity(strategy);
+            mControlTotals[offset + pair] = portfolio.equity(control);
+            mDaysInvested[offset + pair] = portfolio.daysInvested(strategy);
+        }
+    }
+
+    int index(int symbol, int window, int threshold) {
+        return (symbol * mWindows.length + window) * mThresholds.length + threshold;
+    }
+
+    /**
+     * @return - the number of backtests in the grid
+     */
+    public int size() {
+        return mExperimentTotals.length;
+    }
+
+    /**
+     * Method used for writing every result to a CSV file, one line per backtest.
+     * @param file - File to write
+     * @throws IOException - When the file cannot be written
+     */
+    public void writeCsv(File file) throws IOException {
+        PrintWriter writer = new PrintWriter(new FileWriter(file));
+        try {
+            writer.print("Symbol,Window,Threshold,Experiment,Control,DaysInvested\n");
+            for (int s = 0; s < mPrices.length; ++s) {
+                for (int w = 0; w < mWindows.length; ++w) {
+                    for (int t = 0; t < mThresholds.length; ++t) {
+                        int i = index(s, w, t);
+                        writer.print(mPrices[s].symbol() + "," + mWindows[w] + "," + mThresholds[t] + ","
+                                + mExperimentTotals[i] + "," + mControlTotals[i] + "," + mDaysInvested[i] + "\n");
+                    }
+                }
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Method used for printing the best threshold and window of each symbol, by final experiment assets.
+     */
+    public void printBest() {
+        for (int s = 0; s < mPrices.length; ++s) {
+            int best = -1;
+            for (int w = 0; w < mWindows.length; ++w) {
+                for (int t = 0; t < mThresholds.length; ++t) {
+                    int i = index(s, w, t);
+                    if (best < 0 || mExperimentTotals[i] > mExperimentTotals[best]) {
+                        best = i;
+                    }
+                }
+            }
+            if (best < 0 || mPrices[s].size() == 0) {
+                continue;
+            }
+            int w = best / mThresholds.length % mWindows.length;
+            int t = best % mThresholds.length;
+            System.out.println(mPrices[s].symbol() + ": best window " + mWindows[w] + " days, threshold "
+                    + mThresholds[t] + ", experiment " + String.format("%.2f", mExperimentTotals[best])
+                    + " vs control " + String.format("%.2f", mControlTotals[best])
+                    + ", invested on " + mDaysInvested[best] + " days");
+        }
+    }
+
+    /**
+     * Utility method for listing thresholds evenly spaced between two values, inclusive.
+     * @param from - Lowest threshold
+     * @param to - Highest threshold
+     * @param step - Spacing between thresholds
+     * @return - the thresholds, in increasing order
+     */
+    public static double[] thresholds(double from, double to, double step) {
+        int count = (int) Math.floor((to - from) / step + 1e-9) + 1;
+        double[] thresholds = new double[Math.max(0, count)];
+        for (int i = 0; i < thresholds.length; ++i) {
+            // Rounded, so thresholds print as 0.1 rather than 0.09999999999999998
+            thresholds[i] = Math.round((from + i * step) * 1e9) / 1e9;
+        }
+        return thresholds;
+    }
+
+}
@@ -0,0 +1,174 @@
+package com.company;
+
+import com.aliasi.classify.JointClassification;
+import com.aliasi.classify.JointClassifier;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Class used for classifying large numbers of texts on all available cores.
+ *
+ * Texts are split into chunks, and the chunks are classified on a thread pool, either the caller's or one
+ * of its own. Results are returned in the same order as the input texts, together with timing information
+ * for the whole batch. With a single thread, texts are classified on the calling thread, without a pool.
+ *
+ * Only a compiled LingPipe classifier may be used with more than one thread: the dynamic classifier
+ * built by PolarityBasic#train is not safe to use from several threads at once.
+ * Call @shutdown once the BatchClassifier is no longer needed, to stop any threads it started.
+ */
+public class BatchClassifier {
+
+    // Number of chunks per thread, so that threads finishing early can pick up more work
+    static final int CHUNKS_PER_THREAD = 4;
+
+    JointClassifier<CharSequence> mClassifier;
+    int mNumThreads;
+    ExecutorService mExecutor;
+    boolean mOwnsExecutor;
+
+    /**
+     * @param classifier - A compiled classifier, or any classifier if numThreads is 1
+     * @param numThreads - Number of threads to classify on
+     */
+    public BatchClassifier(JointClassifier<CharSequence> classifier, int numThreads) {
+        this(classifier, numThreads, numThreads > 1 ? Executors.newFixedThreadPool(numThreads) : null);
+        mOwnsExecutor = true;
+    }
+
+    /**
+     * @param classifier - A compiled classifier, or any classifier if numThreads is 1
+     * @param numThreads - Number of chunks to classify at once
+     * @param executor - Pool to classify on, with at least numThreads threads, which the caller shuts down;
+     * unused, and may be null, if numThreads is 1
+     */
+    public BatchClassifier(JointClassifier<CharSequence> classifier, int numThreads, ExecutorService executor) {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("Number of threads must be at least 1, was: " + numThreads);
+        }
+        if (numThreads > 1 && executor == null) {
+            throw new IllegalArgumentException("An executor is needed to classify on " + numThreads + " threads");
+        }
+        mClassifier = classifier;
+        mNumThreads = numThreads;
+        mExecutor = executor;
+    }
+
+    /**
+     * Method used for classifying a batch of texts.
+     * @param texts - Texts to classify
+     * @return - a Result holding one classification per text, in the same order as the texts
+     * @throws InterruptedException - When interrupted while waiting for the classifier threads
+     */
+    public Result classify(final List<? extends CharSequence> texts) throws InterruptedException {
+        long start = System.nanoTime();
+        final JointClassification[] classifications = new JointClassification[texts.size()];
+        if (mNumThreads == 1) {
+            long numChars = 0;
+            for (int i = 0; i < texts.size(); ++i) {
+                CharSequence text = texts.get(i);
+                numChars += text.length();
+                classifications[i] = mClassifier.classify(text);
+            }
+            return new Result(classifications, numChars, System.nanoTime() - start, 1);
+        }
+
+        int chunkSize = Math.max(1, (texts.size() + mNumThreads * CHUNKS_PER_THREAD - 1)
+                / (mNumThreads * CHUNKS_PER_THREAD));
+
+        List<Callable<Long>> chunks = new ArrayList<Callable<Long>>();
+        for (int chunkStart = 0; chunkStart < texts.size(); chunkStart += chunkSize) {
+            final int from = chunkStart;
+            final int to = Math.min(texts.size(), chunkStart + chunkSize);
+            chunks.add(new Callable<Long>() {
+                public Long call() {
+                    long numChars = 0;
+                    for (int i = from; i < to; ++i) {
+                        CharSequence text = texts.get(i);
+                        numChars += text.length();
+                        classifications[i] = mClassifier.classify(text);
+                    }
+                    return numChars;
+                }
+            });
+        }
+
+        long numChars = 0;
+        List<Future<Long>> futures = mExecutor.invokeAll(chunks);
+        for (int i = 0; i < futures.size(); ++i) {
+            try {
+                numChars += futures.get(i).get();
+            } catch (ExecutionException ee) {
+                throw new IllegalStateException("Classification failed", ee.getCause());
+            }
+        }
+        return new Result(classifications, numChars, System.nanoTime() - start, mNumThreads);
+    }
+
+    /**
+     * Method used for stopping the classifier threads, if this BatchClassifier started them.
+     */
+    public void shutdown() {
+        if (mOwnsExecutor && mExecutor != null) {
+            mExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Classifications for a batch of texts, in input order, with throughput statistics.
+     */
+    public static class Result {
+
+        final JointClassification[] classifications;
+        final long numChars;
+        final long elapsedNanos;
+        final int numThreads;
+
+        Result(JointClassification[] classifications, long numChars, long elapsedNanos, int numThreads) {
+            this.classifications = classifications;
+            this.numChars = numChars;
+            this.elapsedNanos = elapsedNanos;
+            this.numThreads = numThreads;
+        }
+
+        /**
+         * @param i - Position of the text in the input list
+         * @return - the classification of that text
+         */
+        public JointClassification classification(int i) {
+            return classifications[i];
+        }
+
+        public int size() {
+            return classifications.length;
+        }
+
+        public double elapsedSeconds() {
+            return elapsedNanos / 1e9;
+        }
+
+        public double textsPerSecond() {
+            return elapsedNanos == 0 ? 0.0 : classifications.length / elapsedSeconds();
+        }
+
+        public double charsPerSecond() {
+            return elapsedNanos == 0 ? 0.0 : numChars / elapsedSeconds();
+        }
+
+        public String toString() {
+            return "  # Texts=" + classifications.length
+                    + "  # Chars=" + numChars
+                    + "  # Threads=" + numThreads
+                    + "  Seconds=" + elapsedSeconds()
+                    + "  Texts/Second=" + textsPerSecond()
+                    + "  Chars/Second=" + charsPerSecond();
+        }
+
+    }
+
+}
@@ -0,0 +1,343 @@
+package com.company;
+
+import com.aliasi.util.Files;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class used for reading a labeled training corpus from a single packed file, instead of opening and
+ * decoding one file per document.
+ *
+ * The corpus directory (such as /POLARITY_DIR/txt_sentoken) contains one sub-directory per category, and
+ * one ISO-8859-1 text file per document. Calling @open packs the corpus into a single file the first time,
+ * or whenever the documents or their fold assignment (see @FoldManifest) have changed since it was packed,
+ * which the assignment's fingerprint tells without listing the corpus again, and then memory-maps the
+ * packed file. Documents are read straight out of the mapped file by @text, without copying them into
+ * Strings. Documents are packed in fold order, so the documents of a fold can be read
+ * directly, from @foldStart to @foldEnd.
+ *
+ * Packed file layout (all numbers big-endian):
+ *   int magic, int version, String corpus fingerprint (see FoldManifest#fingerprint),
+ *   int number of categories, String per category,
+ *   int number of folds, int first document per fold, followed by the total number of documents,
+ *   then per document: long offset, int length, byte category, byte fold,
+ *   followed by the document text, one byte per character.
+ * Strings are written as a short length followed by ISO-8859-1 bytes.
+ */
+public class CorpusPack {
+
+    static final int MAGIC = 0x43505031; // "CPP1"
+    static final int VERSION = 2;
+    static final int INDEX_ENTRY_BYTES = 8 + 4 + 1 + 1;
+
+    final String mFingerprint;
+    final String[] mCategories;
+    final int[] mFoldStarts;
+    final int mNumDocs;
+    final int mIndexStart;
+    final int mDataStart;
+    final MappedByteBuffer mBuffer;
+
+    CorpusPack(String fingerprint, String[] categories, int[] foldStarts, int indexStart, int dataStart,
+               MappedByteBuffer buffer) {
+        mFingerprint = fingerprint;
+        mCategories = categories;
+        mFoldStarts = foldStarts;
+        mNumDocs = foldStarts[foldStarts.length - 1];
+        mIndexStart = indexStart;
+        mDataStart = dataStart;
+        mBuffer = buffer;
+    }
+
+    /**
+     * Method used for opening the packed corpus, packing it first if the packed file is missing or was
+     * packed from other documents or a different fold assignment.
+     * @param corpusDir - Corpus directory, containing one sub-directory per category
+     * @param packFile - Packed corpus file
+     * @param manifest - Fold assignment of the corpus
+     * @return - the memory-mapped corpus
+     * @throws IOException - When the corpus cannot be read, or the packed file cannot be written or read
+     */
+    public static CorpusPack open(File corpusDir, File packFile, FoldManifest manifest) throws IOException {
+        String fingerprint = "folds=" + manifest.fingerprint();
+        if (packFile.isFile()) {
+            CorpusPack pack = map(packFile);
+            if (fingerprint.equals(pack.mFingerprint)) {
+                return pack;
+            }
+            System.out.println("Packed corpus at " + packFile + " is out of date, repacking.");
+        }
+        pack(corpusDir, packFile, manifest, fingerprint);
+        return map(packFile);
+    }
+
+    /**
+     * Method used for packing a corpus directory into a single file. The file is written to a temporary
+     * name first and then renamed, so a crash never leaves a half-written pack behind.
+     * @param corpusDir - Corpus directory, containing one sub-directory per category
+     * @param packFile - Packed corpus file to create
+     * @param manifest - Fold assignment of the corpus
+     * @param fingerprint - Fingerprint of the corpus, recorded in the packed file
+     * @throws IOException - When the corpus cannot be read or the packed file cannot be written
+     */
+    static void pack(File corpusDir, File packFile, FoldManifest manifest, String fingerprint)
+            throws IOException {
+        long start = System.currentTimeMillis();
+        String[] categories = manifest.categories();
+
+        // List the documents in fold order first, so the index can be sized before any text is written
+        int numFolds = manifest.numFolds();
+        int[] foldStarts = new int[numFolds + 1];
+        List<List<List<String>>> foldDocuments = new ArrayList<List<List<String>>>();
+        for (int fold = 0; fold < numFolds; ++fold) {
+            foldStarts[fold] = foldStarts[numFolds];
+            List<List<String>> categoryDocuments = new ArrayList<List<String>>();
+            for (int i = 0; i < categories.length; ++i) {
+                List<String> names = manifest.documents(categories[i], fold);
+                categoryDocuments.add(names);
+                foldStarts[numFolds] += names.size();
+            }
+            foldDocuments.add(categoryDocuments);
+        }
+        int numDocs = foldStarts[numFolds];
+
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(headerBytes);
+        header.writeInt(MAGIC);
+        header.writeInt(VERSION);
+        writeString(header, fingerprint);
+        header.writeInt(categories.length);
+        for (int i = 0; i < categories.length; ++i) {
+            writeString(header, categories[i]);
+        }
+        header.writeInt(numFolds);
+        for (int fold = 0; fold <= numFolds; ++fold) {
+            header.writeInt(foldStarts[fold]);
+        }
+        header.close();
+
+        // The text is streamed out one document at a time after a gap for the index,
+        // and the index, which is small, is kept in memory and written into the gap last
+        ByteBuffer index = ByteBuffer.allocate(numDocs * INDEX_ENTRY_BYTES);
+        File tempFile = new File(packFile.getPath() + ".tmp");
+        RandomAccessFile out = new RandomAccessFile(tempFile, "rw");
+        try {
+            out.setLength(0);
+            FileChannel channel = out.getChannel();
+            channel.write(ByteBuffer.wrap(headerBytes.toByteArray()));
+            long indexStart = channel.position();
+            channel.position(indexStart + index.capacity());
+            long offset = 0;
+            for (int fold = 0; fold < numFolds; ++fold) {
+                for (int i = 0; i < categories.length; ++i) {
+                    List<String> names = foldDocuments.get(fold).get(i);
+                    for (int j = 0; j < names.size(); ++j) {
+                        File file = new File(new File(corpusDir, categories[i]), names.get(j));
+                        byte[] text = Files.readFromFile(file, "ISO-8859-1").getBytes("ISO-8859-1");
+                        index.putLong(offset);
+                        index.putInt(text.length);
+                        index.put((byte) i);
+                        index.put((byte) fold);
+                        writeFully(channel, ByteBuffer.wrap(text));
+                        offset += text.length;
+                    }
+                }
+            }
+            index.flip();
+            channel.position(indexStart);
+            writeFully(channel, index);
+        } finally {
+            out.close();
+        }
+        if (packFile.exists() && !packFile.delete()) {
+            throw new IOException("Could not replace packed corpus: " + packFile);
+        }
+        if (!tempFile.renameTo(packFile)) {
+            throw new IOException("Could not rename " + tempFile + " to " + packFile);
+        }
+        System.out.println("Packed " + numDocs + " documents into " + packFile
+                + " in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    static CorpusPack map(File packFile) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(packFile, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Packed corpus is larger than 2GB: " + packFile);
+            }
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Not a packed corpus, or packed by another version: " + packFile);
+            }
+            String fingerprint = readString(buffer);
+            String[] categories = new String[buffer.getInt()];
+            for (int i = 0; i < categories.length; ++i) {
+                categories[i] = readString(buffer);
+            }
+            int[] foldStarts = new int[buffer.getInt() + 1];
+            for (int fold = 0; fold < foldStarts.length; ++fold) {
+                foldStarts[fold] = buffer.getInt();
+            }
+            int indexStart = buffer.position();
+            int dataStart = indexStart + foldStarts[foldStarts.length - 1] * INDEX_ENTRY_BYTES;
+            return new CorpusPack(fingerprint, categories, foldStarts, indexStart, dataStart, buffer);
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * @return - the number of documents in the corpus
+     */
+    public int size() {
+        return mNumDocs;
+    }
+
+    /**
+     * @return - the categories of the corpus, in the order used by @categoryIndex
+     */
+    public String[] categories() {
+        return mCategories.clone();
+    }
+
+    /**
+     * @return - the number of folds
+     */
+    public int numFolds() {
+        return mFoldStarts.length - 1;
+    }
+
+    /**
+     * @param fold - Fold, from 0 to @numFolds - 1
+     * @return - the number of the first document in the fold
+     */
+    public int foldStart(int fold) {
+        return mFoldStarts[fold];
+    }
+
+    /**
+     * @param fold - Fold, from 0 to @numFolds - 1
+     * @return - one more than the number of the last document in the fold
+     */
+    public int foldEnd(int fold) {
+        return mFoldStarts[fold + 1];
+    }
+
+    /**
+     * @param doc - Document number, from 0 to @size - 1
+     * @return - the index of the document's category in @categories
+     */
+    public int categoryIndex(int doc) {
+        return mBuffer.get(entry(doc) + 12);
+    }
+
+    /**
+     * @param doc - Document number, from 0 to @size - 1
+     * @return - the document's category
+     */
+    public String category(int doc) {
+        return mCategories[categoryIndex(doc)];
+    }
+
+    /**
+     * @param doc - Document number, from 0 to @size - 1
+     * @return - the cross-validation fold of the document, from 0 to @numFolds - 1
+     */
+    public int fold(int doc) {
+        return mBuffer.get(entry(doc) + 13);
+    }
+
+    /**
+     * Method used for reading a document's text. The text is not copied: the returned CharSequence
+     * reads characters straight from the mapped file.
+     * @param doc - Document number, from 0 to @size - 1
+     * @return - the document's text
+     */
+    public CharSequence text(int doc) {
+        int entry = entry(doc);
+        long offset = mBuffer.getLong(entry);
+        int length = mBuffer.getInt(entry + 8);
+        return new Latin1Sequence(mBuffer, (int) (mDataStart + offset), length);
+    }
+
+    int entry(int doc) {
+        if (doc < 0 || doc >= mNumDocs) {
+            throw new IndexOutOfBoundsException("Document " + doc + " of " + mNumDocs);
+        }
+        return mIndexStart + doc * INDEX_ENTRY_BYTES;
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes("ISO-8859-1");
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(ByteBuffer buffer) throws IOException {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, "ISO-8859-1");
+    }
+
+    /**
+     * CharSequence reading ISO-8859-1 text (one byte per character) straight out of a ByteBuffer.
+     * Only absolute reads are used, so instances over the same buffer can be read from several threads.
+     */
+    static class Latin1Sequence implements CharSequence {
+
+        final ByteBuffer mBuffer;
+        final int mStart;
+        final int mLength;
+
+        Latin1Sequence(ByteBuffer buffer, int start, int length) {
+            mBuffer = buffer;
+            mStart = start;
+            mLength = length;
+        }
+
+        public int length() {
+            return mLength;
+        }
+
+        public char charAt(int index) {
+            if (index < 0 || index >= mLength) {
+                throw new IndexOutOfBoundsException("Index " + index + " of " + mLength);
+            }
+            return (char) (mBuffer.get(mStart + index) & 0xFF);
+        }
+
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > mLength || start > end) {
+                throw new IndexOutOfBoundsException("Range " + start + "-" + end + " of " + mLength);
+            }
+            return new Latin1Sequence(mBuffer, mStart + start, end - start);
+        }
+
+        public String toString() {
+            char[] chars = new char[mLength];
+            for (int i = 0; i < mLength; ++i) {
+                chars[i] = (char) (mBuffer.get(mStart + i) & 0xFF);
+            }
+            return new String(chars);
+        }
+
+    }
+
+}
@@ -1,6 +1,5 @@
 package com.company;
 
-import java.io.FileNotFoundException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.io.BufferedInputStream;
@@ -14,8 +13,9 @@ import java.io.File;
 /**
  * Class used for obtaining daily financial data from the Web.
  * Current source is Yahoo Finance, specifically the SPY Index fund.
- * This class contains a number of methods which are all used together in @downloadFile,
- * which is the main method of the class.
+ * The main method of the class is @downloadFile, which asks @MarketDataFetcher for the bars since the
+ * last trading session before today in a single request. The session is found with @TradingCalendar,
+ * instead of trying one day at a time back over weekends and holidays.
  */
 public class Crawler {
 
@@ -34,9 +34,9 @@ public class Crawler {
             in = new BufferedInputStream(new URL(urlString).openStream());
             fout = new FileOutputStream(filename);
 
-            final byte data[] = new byte[1024];
+            final byte data[] = new byte[64 * 1024];
             int count;
-            while ((count = in.read(data, 0, 1024)) != -1) {
+            while ((count = in.read(data, 0, data.length)) != -1) {
                 fout.write(data, 0, count);
             }
         } finally {
@@ -106,94 +106,71 @@ public class Crawler {
     public String createURLString(String day, String month, String year){
         String returnURL = "http://real-chart.finance.yahoo.com/table.csv?s=SPY&a=" +
                 month + "&b=" + day + "&c=" + year + "&d=" + month + "&e=" + day +
-                "&f=" + year + "5&g=d&ignore=.csv";
+                "&f=" + year + "&g=d&ignore=.csv";
         return returnURL;
     }
 
     /**
-     * Method used for algorithmically ensuring that a valid file can be downloaded by @saveURL.
-     * The method uses @getDay, @getMonth, @getYear, @subtractDay and @createURLString to ensure that @savURL
-     * continues attempting to download files until a valid one is found.
+     * Method used for downloading the latest SPY Index Fund data from Yahoo Finance to "finance.csv".
+     * Today and the previous trading session are requested at once, so weekends and holidays need no further
+     * requests, and failed requests are tried again a limited number of times (see @MarketDataFetcher).
      */
     public void downloadFile() {
-        Crawler crawler = new Crawler();
-
-        System.out.println("DAY OF MONTH IS: " + crawler.getDay());
-        System.out.println("MONTH OF YEAR IS: " + crawler.getMonth());
-        System.out.println("YEAR IS: " + crawler.getYear());
-
-        // Get day, month, year, as Strings
-        String day = crawler.getDay();
-        String month = crawler.getMonth();
-        String year = crawler.getYear();
-
-        // Increment day +1, will subtract below to create
-        // a loop that iterates through days until a valid file is found
-        int dayInt = Integer.parseInt(day) + 1;
-        day = String.valueOf(dayInt);
-
-        ArrayList<String> dates = new ArrayList<String>();
-
-        boolean fileUnavailable = true;
-        while (fileUnavailable) {
-
-            // Try tomorrow's day, then today, and so on until a valid file is found
-            dates = subtractDay(day, month, year);
-            day = dates.get(0);
-            month = dates.get(1);
-            year = dates.get(2);
-            String financeURL = crawler.createURLString(day, month, year);
-
-            try {
-                // Attempt to download file
-                crawler.saveUrl("finance.csv", financeURL);
-                fileUnavailable = false;
-            } catch (FileNotFoundException fnfe) {
-                System.out.println("File was not found, trying previous day.");
-                fileUnavailable = true;
-            } catch (IOException ioe) {
-                ioe.printStackTrace();
-                fileUnavailable = true;
+        downloadFile(MarketDataFetcher.YAHOO_URL, Main.SYMBOL, new File("finance.csv"));
+    }
+
+    /**
+     * Method used for downloading a symbol's bars from the previous trading session (see
+     * TradingCalendar#previousSession) to today, to a CSV file, newest first.
+     * @param baseUrl - Address answering Yahoo Finance "table.csv" requests, e.g. MarketDataFetcher#YAHOO_URL
+     * @param symbol - Ticker symbol
+     * @param csvFile - File to write, in the Yahoo Finance format
+     * @return - true if any bars were downloaded and written
+     */
+    public boolean downloadFile(String baseUrl, String symbol, File csvFile) {
+        int today = EpochDays.today();
+        int fromDay = TradingCalendar.nyse().previousSession(today);
+        try {
+            PriceSeries bars = new MarketDataFetcher(baseUrl).fetch(symbol, fromDay, today);
+            if (bars.size() == 0) {
+                System.out.println("No data found for " + symbol + " since " + EpochDays.toString(fromDay));
+                return false;
             }
+            PriceHistory.writeCsv(bars, csvFile);
+            System.out.println(csvFile);
+            return true;
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
         }
-
+        return false;
     }
 
     /**
-     * Method used within @downloadFile to algorithmically create a valid URL string, by subtracting
-     * a single day from the calendar date until a valid file is found.
-     * @param day - Day of the week, as a number in a String
-     * @param month - Month of the year, as a number in a String
+     * Method used for algorithmically creating a valid URL string, by subtracting a single day from the
+     * calendar date. Months are numbered from 0, as by @getMonth and in Yahoo Finance URLs, and each has
+     * its real number of days, including leap days. To step back to the previous day the market was open,
+     * use TradingCalendar#previousSession instead.
+     * @param day - Day of the month, as a number in a String
+     * @param month - Month of the year, from 0, as a number in a String
      * @param year - Year, as a number in a String
-     * @return - an ArrayList<String> object with data for use by the @downloadFile class
+     * @return - an ArrayList<String> object with the day, month and year of the previous date
      */
     public ArrayList<String> subtractDay(String day, String month, String year) {
         int dayAsInt = Integer.parseInt(day);
         int monthAsInt = Integer.parseInt(month);
         int yearAsInt = Integer.parseInt(year);
 
-
-        // Drop day/month/year
-        dayAsInt = dayAsInt - 1;
-        if (dayAsInt == 0) {
-            dayAsInt = 31;
-            monthAsInt = monthAsInt - 1;
-
-            if (monthAsInt == 0) {
-                monthAsInt = 12;
-                yearAsInt = yearAsInt - 1;
-            }
-        }
-        // Transform to String
-        String returnDay = Integer.toString(dayAsInt);
-        String returnMonth = Integer.toString(monthAsInt);
-        String returnYear = Integer.toString(yearAsInt);
+        // Drop day/month/year, by way of the date's number of days since 1970
+        int[] ymd = new int[3];
+        EpochDays.toYmd(EpochDays.of(yearAsInt, monthAsInt + 1, dayAsInt) - 1, ymd);
 
         // Create array list for return value
         ArrayList<String> returnList = new ArrayList<String>();
-        returnList.add(returnDay);
-        returnList.add(returnMonth);
-        returnList.add(returnYear);
+        returnList.add(Integer.toString(ymd[2]));
+        returnList.add(Integer.toString(ymd[1] - 1));
+        returnList.add(Integer.toString(ymd[0]));
 
         return returnList;
     }
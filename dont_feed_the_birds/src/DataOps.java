@@ -3,12 +3,10 @@ package com.company;
 import java.io.*;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.NoSuchElementException;
-import java.util.Scanner;
 import java.util.Date;
+import java.util.List;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
-import java.util.Arrays;
 
 
 /**
@@ -17,46 +15,34 @@ import java.util.Arrays;
  */
 public class DataOps {
 
+    // Text history files of the experiment; their entries are now kept in ledgers next to them (see @openLedger)
+    static final String EXPERIMENT_HISTORY_FILE = "experimentHistory.txt";
+    static final String CONTROL_HISTORY_FILE = "controlHistory.txt";
+    static final String LEDGER_SUFFIX = ".ledger";
+    static final String LEDGER_JOURNAL_FILE = "ledger.journal";
+    static final String STORE_URL_PROPERTY = "tradingStore.url";
+
     /**
      * Method for obtaining a HashMap of the day's stock market data
-     * Uses a file name "finance.csv", created by the Crawler#downloadFile method
-     * @return HashMap containing Market data for the day
+     * Uses a file name "finance.csv", created by the Crawler#downloadFile method, read with @PriceCsvParser
+     * @return HashMap containing Market data for the latest day in the file, keyed by the Yahoo Finance
+     * column names; empty if the file could not be read
      */
     public static HashMap getMarketData() {
-        ArrayList<String> csvRows = new ArrayList<String>();
         HashMap<String, String> csvHash = new HashMap<String, String>();
 
-        // Create scanner
         try {
-            Scanner financialCSV = new Scanner(
-                    new File("finance.csv"));
-
-            // Set the delimiter used in file
-            financialCSV.useDelimiter(",");
-
-            // Store everything in an ArrayList
-            while (financialCSV.hasNext()) {
-                if (financialCSV.hasNext()) {
-                    csvRows.add(financialCSV.next());
-                }
-            }
-            System.out.println("final CSV file is: " + csvRows);
-
-            // Convert ArrayList to HashMap, in order to access open and close data more easily
-            // Note: skips "Date" field
-            for (int i=1; i < (csvRows.size()/2); i++) {
-                csvHash.put(csvRows.get(i), csvRows.get((i+6)));
+            PriceSeries bars = PriceHistory.readCsv(Main.SYMBOL, new File("finance.csv"));
+            if (bars.size() == 0) {
+                System.out.println("Sorry, there was no market data in the file");
+                return csvHash;
             }
-
-            // Close Scanner
-            financialCSV.close();
+            csvHash = getMarketData(bars, bars.size() - 1);
+            System.out.println("final CSV file is: " + csvHash);
 
         } catch (FileNotFoundException fnfe) {
             System.out.println("Sorry, that file could not be found");
             fnfe.printStackTrace();
-        } catch (NoSuchElementException nse) {
-            System.out.println("Sorry, there was an element missing in the data file");
-            nse.printStackTrace();
         } catch (Exception e) {
             System.out.println("Sorry, there was an error.");
             e.printStackTrace();
@@ -67,7 +53,27 @@ public class DataOps {
     }
 
     /**
-     * Initialize the experiment by creating CSV files for CONTROL and EXPERIMENTAL data
+     * Method for obtaining a HashMap of a single day's market data from a stored price history, in the same
+     * form as @getMarketData.
+     * @param series - Price history of the symbol, see PriceHistory#series
+     * @param bar - Position of the day in the series, e.g. series.size() - 1 for the latest day
+     * @return HashMap containing Market data for the day, keyed by the Yahoo Finance column names
+     */
+    public static HashMap<String, String> getMarketData(PriceSeries series, int bar) {
+        HashMap<String, String> marketData = new HashMap<String, String>();
+        marketData.put("Date", EpochDays.toString(series.date(bar)));
+        marketData.put("Open", String.valueOf(series.open(bar)));
+        marketData.put("High", String.valueOf(series.high(bar)));
+        marketData.put("Low", String.valueOf(series.low(bar)));
+        marketData.put("Close", String.valueOf(series.close(bar)));
+        marketData.put("Volume", String.valueOf(series.volume(bar)));
+        marketData.put("Adj Close", String.valueOf(series.adjClose(bar)));
+        return marketData;
+    }
+
+    /**
+     * Initialize the experiment by restarting the CONTROL and EXPERIMENTAL history in the store (see @openStore)
+     * The current history is set aside first (see TradingStore#restartResults), then both are restarted together.
      * 100 Shares of market index fund (use the hashMap from get @getMarketData - for both files.
      * --> WARNING:  Calling this method will ERASE all current data from the running total.
      */
@@ -83,7 +89,7 @@ public class DataOps {
 
 
             // Multiply closing price by 100. This equals price for 100 shares of stock.
-            double purchaseTotal = stockClosingPrice * 100;
+            double purchaseTotal = stockClosingPrice * Backtest.INITIAL_SHARES;
 
 
             // Get day's date for timestamp
@@ -92,26 +98,14 @@ public class DataOps {
             System.out.println(dateFormat.format(date));
 
 
-            // Write data to control file
-            File controlFile = new File("controlHistory.txt");
-            PrintWriter controlWriter = new PrintWriter(controlFile);
-            controlWriter.print(dateFormat.format(date) + ",");
-            controlWriter.print(purchaseTotal + ",");
-            controlWriter.print("Opening price: " + stockOpeningPrice + ",");
-            controlWriter.print("Closing price: " + stockClosingPrice + ",\n");
-            // Close Writer
-            controlWriter.close();
-
-
-            // Write data to experiment file
-            File experimentFile = new File("experimentHistory.txt");
-            PrintWriter experimentWriter = new PrintWriter(experimentFile);
-            experimentWriter.print(dateFormat.format(date) + ",");
-            experimentWriter.print(purchaseTotal + ",");
-            experimentWriter.print("Opening price: " + stockOpeningPrice + ",");
-            experimentWriter.print("Closing price: " + stockClosingPrice + ",\n");
-            // Close writer
-            experimentWriter.close();
+            // Set the current history aside, then restart both strategies together (see TradingStore)
+            TradingStore store = openStore();
+            try {
+                store.restartResults(new Ledger.Entry(date.getTime(), purchaseTotal, stockOpeningPrice,
+                        stockClosingPrice, Backtest.INITIAL_SHARES, 0.0, EpochDays.ofMillis(date.getTime())));
+            } finally {
+                store.close();
+            }
 
 
         } catch (FileNotFoundException fnfe) {
@@ -125,69 +119,86 @@ public class DataOps {
     }
 
     /**
-     * Get Data from the ongoing experiment TXT or CSV file
-     * Format it for writing
+     * Method used for opening the store holding the experiment's history, prices and sentiment. The store is
+     * kept in files in the working directory (see @FileTradingStore), unless the "tradingStore.url" system
+     * property gives the JDBC URL of a database (see @JdbcTradingStore), e.g. -DtradingStore.url=jdbc:h2:./trading
+     * @return - the open store; close it with TradingStore#close
+     * @throws IOException - When the database cannot be opened
      */
-    public static double getExperimentTotal(File inputFile) {
+    public static TradingStore openStore() throws IOException {
+        String url = System.getProperty(STORE_URL_PROPERTY);
+        if (url == null || url.isEmpty()) {
+            return new FileTradingStore(new File("."));
+        }
+        return new JdbcTradingStore(url);
+    }
 
-        double experimentTotal = -1;
+    /**
+     * Get the latest total of the experiment strategy from the store (see @openStore)
+     * @return - the latest total, or -1 if there is none
+     */
+    public static double getExperimentTotal() {
+        return getLatestTotal(TradingStore.EXPERIMENT);
+    }
 
-        // Open inputFile, read last line, store its data in an ArrayList, separated by commas
-        try {
-            FileReader fr = new FileReader(inputFile);
-            BufferedReader input = new BufferedReader(fr);
-            String last = "";
-            String line = "";
+    /**
+     * Get the latest total of the control strategy from the store (see @openStore)
+     * @return - the latest total, or -1 if there is none
+     */
+    public static double getControlTotal() {
+        return getLatestTotal(TradingStore.CONTROL);
+    }
 
-            while ((line = input.readLine()) != null) {
-                last = line;
+    static double getLatestTotal(String strategy) {
+        double latestTotal = -1;
+        try {
+            TradingStore store = openStore();
+            try {
+                Ledger.Entry latest = store.latest(strategy);
+                if (latest != null) {
+                    latestTotal = latest.total();
+                }
+            } finally {
+                store.close();
             }
-            input.close();
-            fr.close();
-
-            ArrayList<String> list = new ArrayList<String>(Arrays.asList(last.split(",")));
-            experimentTotal = Double.parseDouble(list.get(1));
-
-        } catch (FileNotFoundException fnfe) {
-            System.out.println("File was not found");
-            fnfe.printStackTrace();
         } catch (IOException ioe) {
             ioe.printStackTrace();
-        } catch (Exception e) {
-            e.printStackTrace();
         }
+        return latestTotal;
+    }
 
-        return experimentTotal;
-
+    /**
+     * Get the latest total from the ongoing experiment ledger
+     * @param inputFile - The experiment's history file, "experimentHistory.txt"; its ledger is read (see @openLedger)
+     * @return - the latest total, or -1 if there is none
+     */
+    public static double getExperimentTotal(File inputFile) {
+        return getLatestTotal(inputFile);
     }
 
     /**
-     * Get data from the ongoing Control TXT or CSV file
-     * Format it for writing
+     * Get the latest total from the ongoing control ledger
+     * @param inputFile - The control's history file, "controlHistory.txt"; its ledger is read (see @openLedger)
+     * @return - the latest total, or -1 if there is none
      */
     public static double getControlTotal(File inputFile) {
-        double controlTotal = -1;
+        return getLatestTotal(inputFile);
+    }
 
-        try {
-            FileReader fr = new FileReader(inputFile);
-            BufferedReader input = new BufferedReader(fr);
-            String last = "";
-            String line = "";
+    static double getLatestTotal(File historyFile) {
+        double latestTotal = -1;
 
-            while ((line = input.readLine()) != null) {
-                last = line;
+        // Only the latest entry is read, however long the history is
+        try {
+            Ledger ledger = openLedger(historyFile);
+            try {
+                Ledger.Entry latest = ledger.latest();
+                if (latest != null) {
+                    latestTotal = latest.total();
+                }
+            } finally {
+                ledger.close();
             }
-            input.close();
-            fr.close();
-
-            //System.out.println("Last line of controlFile is: " + last);
-            ArrayList<String> list = new ArrayList<String>(Arrays.asList(last.split(",")));
-            //System.out.println("The list just created is:  " + list);
-            //System.out.println("List item #1 is the TOTAL COST, which is:  " + list.get(1));
-
-            controlTotal = Double.parseDouble(list.get(1));
-
-
         } catch (FileNotFoundException fnfe) {
             System.out.println("File was not found");
             fnfe.printStackTrace();
@@ -197,92 +208,170 @@ public class DataOps {
             e.printStackTrace();
         }
 
-        return controlTotal;
-
+        return latestTotal;
     }
 
     /**
-     * Operation for performing daily investment, based on stock price movements.
-     * Return value is the result from daily investment activity, the updated value of
-     * total assets in the market.
-     * @param marketData - HashMap containing the daily price report
-     * @param runningTotal - Current total assets, taken from running total in a file
-     * @param positiveSentiment - determination on whether market sentiment is positive for the day
-     * @return - a double for the adjusted total, only changes if sentiment was positive and an investment was made
+     * Method used for opening the ledger kept in place of a text history file, such as "experimentHistory.txt".
+     * The first time, the entries already in the text file are converted into the ledger (see Ledger#migrate).
+     * A write to both ledgers interrupted by a crash is finished first (see LedgerTransaction#recover).
+     * @param historyFile - The text history file
+     * @return - the open ledger; close it with Ledger#close
+     * @throws IOException - When the ledger cannot be created or read
      */
-    public static double investmentResult(HashMap marketData, double runningTotal, boolean positiveSentiment) {
-        String updatedStockPriceString = (String) marketData.get("Close");
-        double updatedStockPrice = Double.parseDouble(updatedStockPriceString);
-        double totalAssets = runningTotal;
-
-        if(positiveSentiment) {
-           totalAssets = runningTotal * updatedStockPrice;
-
+    public static Ledger openLedger(File historyFile) throws IOException {
+        // Finish any write of both ledgers interrupted by a crash, before reading either of them
+        LedgerTransaction.recover(journalFile(historyFile));
+        File ledgerFile = ledgerFile(historyFile);
+        if (!ledgerFile.exists() && historyFile.isFile()) {
+            Ledger.migrate(historyFile, ledgerFile);
         }
-        return totalAssets;
+        return Ledger.open(ledgerFile);
+    }
 
+    /**
+     * @param historyFile - A text history file, such as "experimentHistory.txt"
+     * @return - the journal used while writing to the ledgers in its directory
+     */
+    static File journalFile(File historyFile) {
+        return new File(historyFile.getAbsoluteFile().getParentFile(), LEDGER_JOURNAL_FILE);
     }
 
+    /**
+     * Method used for copying a ledger before it is erased, to a file named after the time of the copy,
+     * such as "experimentHistory.ledger.20150407-154411.bak".
+     * @param historyFile - A text history file, such as "experimentHistory.txt"
+     * @param date - Time of the copy
+     * @throws IOException - When the copy cannot be written
+     */
+    static void backupLedger(File historyFile, Date date) throws IOException {
+        File ledgerFile = ledgerFile(historyFile);
+        if (!ledgerFile.isFile()) {
+            return;
+        }
+        File backupFile = new File(ledgerFile.getPath() + "."
+                + new SimpleDateFormat("yyyyMMdd-HHmmss").format(date) + ".bak");
+        FileInputStream in = new FileInputStream(ledgerFile);
+        FileOutputStream out = new FileOutputStream(backupFile);
+        try {
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            out.getFD().sync();
+        } finally {
+            in.close();
+            out.close();
+        }
+        System.out.println("Copied " + ledgerFile + " to " + backupFile);
+    }
 
     /**
-     * Method used for writing experiment data to a file on an ongoing basis
-     * @param marketData - HashMap containing the daily price report
-     * @param experimentTotal - current total assets from the ExperimentFile
-     * @param controlTotal - current total assets from the ControlFile
+     * @param historyFile - A text history file, such as "experimentHistory.txt"
+     * @return - the ledger kept in its place, such as "experimentHistory.ledger"
      */
-    public static void writeMarketResults(HashMap marketData, double experimentTotal, double controlTotal)  {
-        System.out.println("\n\n");
-        System.out.println("Obtained the following market data for the day:  " + marketData);
-        System.out.println("Opening price is: " + marketData.get("Open"));
-        System.out.println("Closing price is: " + marketData.get("Close"));
+    static File ledgerFile(File historyFile) {
+        String name = historyFile.getName();
+        int dot = name.lastIndexOf('.');
+        return new File(historyFile.getParentFile(), (dot > 0 ? name.substring(0, dot) : name) + LEDGER_SUFFIX);
+    }
 
-        // Create date object for writing to file
-        DateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
-        Date date = new Date();
-        System.out.println(dateFormat.format(date));
+    /**
+     * Operation for performing the daily investment: both strategies are traded from the positions of their
+     * latest entries over every day stored after the bar they were valued at (see Ledger.Entry#barDate),
+     * exactly as Portfolio trades them in a backtest, and an entry is added for each of those days. The
+     * control holds its shares throughout. The experiment holds shares through a day only if the net sentiment
+     * of the day before (see TradingStore#dailySentiment) was above the threshold, selling or buying whole
+     * shares at the open or close, and at the cost, given by the execution model. If neither strategy has an
+     * entry yet, the experiment is started at the latest close.
+     *
+     * Entries converted from a text history file (see Ledger#migrate) are taken to hold as many whole
+     * shares as their total buys at their closing price, and the rest in cash.
+     * @param store - Store holding the history, prices and sentiment (see @openStore)
+     * @param symbol - Symbol traded, whose bars are stored, e.g. "SPY"
+     * @param threshold - Net sentiment, between -1 and 1, above which the experiment is in the market
+     * @param execution - How orders are filled, see ExecutionModel#fromSystemProperties
+     * @return - the number of days added to the history
+     * @throws IOException - When no bars of the symbol are stored, or the store cannot be read or written
+     */
+    public static int updateResults(TradingStore store, String symbol, double threshold, ExecutionModel execution)
+            throws IOException {
+        int lastDay = store.lastBarDate(symbol);
+        if (lastDay == Integer.MIN_VALUE) {
+            throw new IOException("No prices stored for " + symbol);
+        }
+        Ledger.Entry experiment = store.latest(TradingStore.EXPERIMENT);
+        Ledger.Entry control = store.latest(TradingStore.CONTROL);
+        if (experiment == null || control == null) {
+            PriceSeries latest = store.bars(symbol, lastDay, lastDay);
+            store.restartResults(new Ledger.Entry(System.currentTimeMillis(),
+                    Backtest.INITIAL_SHARES * latest.close(0), latest.open(0), latest.close(0),
+                    Backtest.INITIAL_SHARES, 0.0, lastDay));
+            System.out.println("Started the experiment with " + Backtest.INITIAL_SHARES + " shares of " + symbol
+                    + " at the close of " + EpochDays.toString(lastDay));
+            return 1;
+        }
 
-        try {
-            // Create Experiment File, append to it
-            File experimentFile = new File(
-                    "experimentHistory.txt");
-            FileWriter experimentDataFile = new FileWriter(experimentFile, true);
-            PrintWriter experimentWriter = new PrintWriter(experimentDataFile, true);
-            experimentWriter.print(dateFormat.format(date) + ",");
-            experimentWriter.print(experimentTotal + ",");
-            experimentWriter.print("Opening price: " + marketData.get("Open") + ",");
-            experimentWriter.print("Closing price: " + marketData.get("Close") + ",\n");
-            // Close PrintWriter
-            experimentWriter.close();
+        // The bar both strategies were last valued at, and the week before it, so the first decision day's
+        // sentiment includes the days since the bar before it
+        int valuedDay = Math.min(experiment.barDate(), control.barDate());
+        final PriceSeries prices = store.bars(symbol, valuedDay - 7, lastDay);
+        int fromBar = prices.floorIndex(valuedDay);
+        if (fromBar < 0 || fromBar == prices.size() - 1) {
+            System.out.println("No trading day of " + symbol + " stored since the latest update, on "
+                    + EpochDays.toString(valuedDay));
+            return 0;
+        }
 
-        } catch (IOException ioe) {
-            System.out.println("Sorry, there was an error data to the file.");
-            ioe.printStackTrace();
-        } catch (Exception e) {
-            System.out.println("Sorry, there was an error.");
-            e.printStackTrace();
+        final Portfolio portfolio = new Portfolio(execution);
+        final int experimentIndex = portfolio.addSentimentGated(TradingStore.EXPERIMENT, threshold, 1);
+        final int controlIndex = portfolio.addPassive(TradingStore.CONTROL);
+        setPosition(portfolio, experimentIndex, experiment);
+        setPosition(portfolio, controlIndex, control);
+
+        // Each day traded records its bar's date. Its timestamp is the time of the update, made one millisecond
+        // later than the entry before, so the entries of one update keep their order
+        final List<Ledger.Entry[]> entries = new ArrayList<Ledger.Entry[]>();
+        final long[] timestamp = {Math.max(experiment.timestamp(), control.timestamp())};
+        final long now = System.currentTimeMillis();
+        portfolio.advance(prices, store.dailySentiment(prices), fromBar, prices.size(), new Portfolio.BarHandler() {
+            public void handle(int bar, double[] equity) {
+                timestamp[0] = Math.max(now, timestamp[0] + 1);
+                entries.add(new Ledger.Entry[]{
+                        entry(portfolio, experimentIndex, timestamp[0], prices, bar),
+                        entry(portfolio, controlIndex, timestamp[0], prices, bar)});
+            }
+        });
+        for (int i = 0; i < entries.size(); ++i) {
+            store.appendResults(entries.get(i)[0], entries.get(i)[1]);
         }
 
-        try {
-            // Create Control File, append to it
-            File controlFile = new File(
-                    "controlHistory.txt");
-            FileWriter controlDataFile = new FileWriter(controlFile, true);
-            PrintWriter controlWriter = new PrintWriter(controlDataFile, true);
-            controlWriter.print(dateFormat.format(date) + ",");
-            controlWriter.print(controlTotal + ",");
-            controlWriter.print("Opening price: " + marketData.get("Open") + ",");
-            controlWriter.print("Closing price: " + marketData.get("Close") + ",\n");
-            //close PrintWriter
-            controlWriter.close();
+        Ledger.Entry latest = entries.get(entries.size() - 1)[0];
+        System.out.println("\n\n");
+        System.out.println("Traded " + entries.size() + " day(s) of " + symbol + " up to "
+                + EpochDays.toString(lastDay) + " (" + execution + ")");
+        System.out.println("Opening price is: " + latest.openingPrice());
+        System.out.println("Closing price is: " + latest.closingPrice());
+        System.out.println("Experiment holds " + latest.shares() + " shares and " + latest.cash() + " in cash: "
+                + latest.total());
+        System.out.println("Control holds " + portfolio.shares(controlIndex) + " shares: "
+                + portfolio.equity(controlIndex));
+        return entries.size();
+    }
 
-        } catch (IOException ioe) {
-            System.out.println("Sorry, there was an error data to the file.");
-            ioe.printStackTrace();
-        } catch (Exception e) {
-            System.out.println("Sorry, there was an error.");
-            e.printStackTrace();
+    static void setPosition(Portfolio portfolio, int strategy, Ledger.Entry entry) {
+        if (entry.hasPosition()) {
+            portfolio.setPosition(strategy, entry.shares(), entry.cash());
+        } else {
+            long shares = (long) Math.floor(entry.total() / entry.closingPrice() + 1e-9);
+            portfolio.setPosition(strategy, shares, entry.total() - shares * entry.closingPrice());
         }
+    }
 
+    static Ledger.Entry entry(Portfolio portfolio, int strategy, long timestamp, PriceSeries prices, int bar) {
+        return new Ledger.Entry(timestamp, portfolio.equity(strategy), prices.open(bar), prices.close(bar),
+                portfolio.shares(strategy), portfolio.cash(strategy), prices.date(bar));
     }
 
 }
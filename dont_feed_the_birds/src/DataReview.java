@@ -1,12 +1,14 @@
 package com.company;
 
 import java.io.*;
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
 
 /**
  * Class for checking experiment results. Calling @getExperimetnResults will print out details on the
- * experiment, from its inception to present day.
+ * experiment, from its inception to present day, including its performance against the control and,
+ * optionally, other stocks or funds (see @PerformanceStats).
  *
  */
 
@@ -17,42 +19,44 @@ public class DataReview {
      *
      */
     public static void getExperimentResults() {
-        File experimentFile = new File("experimentHistory.txt");
-        File controlFile = new File("controlHistory.txt");
+        getExperimentResults(new String[0]);
+    }
 
-        // Get details on when and how the experiment was initialized
+    /**
+     * Method used for printing out the experiment's details, and comparing its performance with other stocks.
+     * @param benchmarks - Symbols of stocks or funds to compare with, each with a price history already
+     * stored (see TradingStore#putBars)
+     */
+    public static void getExperimentResults(String[] benchmarks) {
+        // Get details on when and how the experiment was initialized, from its first stored entry
         try {
-            FileReader fr = new FileReader(experimentFile);
-            BufferedReader input = new BufferedReader(fr);
-            String line = "";
-
-            line = input.readLine();
+            TradingStore store = DataOps.openStore();
+            try {
+                Ledger.Entry first = store.first(TradingStore.EXPERIMENT);
+                if (first != null) {
+                    DateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
+                    System.out.println("\n\n");
+                    System.out.println("Experiment started on: " + dateFormat.format(new Date(first.timestamp())));
+                    System.out.println("Experiment was seeded with 100 Shares of SPY Index stock");
+                    System.out.println("Details were: " +
+                            "\t" + "Opening price: " + first.openingPrice() +
+                            "\t" + "Closing price: " + first.closingPrice() +
+                            "\t" + "Total assets invested: " + first.total());
+                    System.out.println("\n\n");
+                }
+            } finally {
+                store.close();
+            }
 
-            ArrayList<String> list = new ArrayList<String>(Arrays.asList(line.split(",")));
-            System.out.println("\n\n");
-            System.out.println("Experiment started on: " + list.get(0) );
-            System.out.println("Experiment was seeded with 100 Shares of SPY Index stock");
-            System.out.println("Details were: " +
-                    "\t" + list.get(2) +
-                    "\t" + list.get(3) +
-                    "\t" + "Total assets invested: " + list.get(1));
-            System.out.println("\n\n");
-
-            input.close();
-            fr.close();
-
-        } catch (FileNotFoundException fnfe) {
-            System.out.println("File was not found");
-            fnfe.printStackTrace();
         } catch (IOException ioe) {
             ioe.printStackTrace();
         } catch (Exception e) {
             e.printStackTrace();
         }
 
-        // Get current information from experiment files
-        double currentControlTotal = DataOps.getControlTotal(controlFile);
-        double currentExperimentToal = DataOps.getExperimentTotal(experimentFile);
+        // Get current information from the experiment's store
+        double currentControlTotal = DataOps.getControlTotal();
+        double currentExperimentToal = DataOps.getExperimentTotal();
 
         System.out.println("Two files were created at experiment start.");
         System.out.println("\n");
@@ -68,7 +72,57 @@ public class DataReview {
         System.out.println("\tUsing a passive management strategy, the same investment would today be valued at: " +
                 currentControlTotal);
 
+        printPerformance(benchmarks);
+    }
 
+    /**
+     * Method used for printing the experiment's returns, drawdown and risk-adjusted returns next to the
+     * control's, and next to any other stock or fund held over the same period. Each history is streamed
+     * from the store once.
+     * @param benchmarks - Symbols of stocks or funds to compare with, each with a price history already
+     * stored (see TradingStore#putBars)
+     */
+    public static void printPerformance(String[] benchmarks) {
+        try {
+            TradingStore store = DataOps.openStore();
+            try {
+                PerformanceStats experiment = PerformanceStats.scan(store, TradingStore.EXPERIMENT,
+                        Long.MIN_VALUE, Long.MAX_VALUE);
+                if (experiment.numReturns() == 0) {
+                    return;
+                }
+                PerformanceStats control = PerformanceStats.scan(store, TradingStore.CONTROL,
+                        Long.MIN_VALUE, Long.MAX_VALUE);
+
+                DateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd");
+                System.out.println("\n");
+                System.out.println("Performance from " + dateFormat.format(new Date(experiment.firstTimestamp()))
+                        + " to " + dateFormat.format(new Date(experiment.lastTimestamp())) + ", over "
+                        + experiment.numReturns() + " trading days:");
+                PerformanceStats.printComparison(experiment, control);
+                if (experiment.maxDrawdown() > 0) {
+                    System.out.println("The experiment's largest drawdown ran from "
+                            + dateFormat.format(new Date(experiment.maxDrawdownPeakTimestamp())) + " to "
+                            + dateFormat.format(new Date(experiment.maxDrawdownTroughTimestamp())));
+                }
+
+                int fromDay = EpochDays.ofMillis(experiment.firstTimestamp());
+                int toDay = EpochDays.ofMillis(experiment.lastTimestamp());
+                for (int i = 0; i < benchmarks.length; ++i) {
+                    PriceSeries prices = store.bars(benchmarks[i], fromDay, toDay);
+                    if (prices.size() < 2) {
+                        System.out.println("\nNo price history stored for " + benchmarks[i] + " over the same period");
+                        continue;
+                    }
+                    System.out.println("\n");
+                    PerformanceStats.printComparison(experiment, PerformanceStats.of(prices, fromDay, toDay));
+                }
+            } finally {
+                store.close();
+            }
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
     }
 
 }
@@ -0,0 +1,166 @@
+package com.company;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Utility class for working with dates as a number of days since 1970-01-01 ("epoch days").
+ *
+ * Market data is stored one bar per trading day, so dates are kept as plain ints: they sort and compare
+ * as numbers, take 4 bytes each, and converting to and from year, month and day is simple arithmetic,
+ * without creating Calendar or Date objects. Dates use the proleptic Gregorian calendar.
+ */
+public final class EpochDays {
+
+    static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    private EpochDays() { }
+
+    /**
+     * @param year - Year, e.g. 2015
+     * @param month - Month of the year, 1 to 12
+     * @param day - Day of the month, 1 to 31
+     * @return - the number of days from 1970-01-01 to the date
+     */
+    public static int of(int year, int month, int day) {
+        // Count years from March, so the leap day is the last day of the year
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * @param epochDay - Days since 1970-01-01
+     * @return - the year of the date
+     */
+    public static int year(int epochDay) {
+        int[] ymd = new int[3];
+        toYmd(epochDay, ymd);
+        return ymd[0];
+    }
+
+    /**
+     * @param epochDay - Days since 1970-01-01
+     * @return - the month of the date, 1 to 12
+     */
+    public static int month(int epochDay) {
+        int[] ymd = new int[3];
+        toYmd(epochDay, ymd);
+        return ymd[1];
+    }
+
+    /**
+     * @param epochDay - Days since 1970-01-01
+     * @return - the day of the month of the date, 1 to 31
+     */
+    public static int dayOfMonth(int epochDay) {
+        int[] ymd = new int[3];
+        toYmd(epochDay, ymd);
+        return ymd[2];
+    }
+
+    /**
+     * @param epochDay - Days since 1970-01-01
+     * @return - the day of the week, 1 (Monday) to 7 (Sunday)
+     */
+    public static int dayOfWeek(int epochDay) {
+        // 1970-01-01 was a Thursday
+        int fromMonday = (epochDay + 3) % 7;
+        if (fromMonday < 0) {
+            fromMonday += 7;
+        }
+        return fromMonday + 1;
+    }
+
+    /**
+     * Method used for converting a date to its year, month and day, without creating any objects.
+     * @param epochDay - Days since 1970-01-01
+     * @param ymd - Array of at least 3 ints, filled with the year, month (1 to 12) and day (1 to 31)
+     */
+    public static void toYmd(int epochDay, int[] ymd) {
+        int z = epochDay + 719468;
+        int era = (z >= 0 ? z : z - 146096) / 146097;
+        int dayOfEra = z - era * 146097;
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int mp = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        ymd[0] = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        ymd[1] = month;
+        ymd[2] = day;
+    }
+
+    /**
+     * Method used for parsing a date written as "yyyy-MM-dd", as in Yahoo Finance CSV files.
+     * @param date - The date
+     * @return - the number of days from 1970-01-01 to the date
+     * @throws NumberFormatException - When the date is not written as "yyyy-MM-dd"
+     */
+    public static int parse(CharSequence date) {
+        if (date.length() != 10 || date.charAt(4) != '-' || date.charAt(7) != '-') {
+            throw new NumberFormatException("Date is not yyyy-MM-dd: " + date);
+        }
+        return of(digits(date, 0, 4), digits(date, 5, 7), digits(date, 8, 10));
+    }
+
+    static int digits(CharSequence text, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; ++i) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new NumberFormatException("Not a digit in: " + text);
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * @param epochDay - Days since 1970-01-01
+     * @return - the date written as "yyyy-MM-dd"
+     */
+    public static String toString(int epochDay) {
+        int[] ymd = new int[3];
+        toYmd(epochDay, ymd);
+        StringBuilder date = new StringBuilder(10);
+        date.append(ymd[0]).append('-');
+        if (ymd[1] < 10) {
+            date.append('0');
+        }
+        date.append(ymd[1]).append('-');
+        if (ymd[2] < 10) {
+            date.append('0');
+        }
+        date.append(ymd[2]);
+        return date.toString();
+    }
+
+    /**
+     * @param epochDay - Days since 1970-01-01
+     * @return - midnight UTC at the start of the date, in milliseconds since 1970
+     */
+    public static long toMillis(int epochDay) {
+        return epochDay * MILLIS_PER_DAY;
+    }
+
+    /**
+     * @param millis - Time in milliseconds since 1970, such as a ledger timestamp
+     * @return - the date at that time, in the local time zone
+     */
+    public static int ofMillis(long millis) {
+        return (int) Math.floorDiv(millis + TimeZone.getDefault().getOffset(millis), MILLIS_PER_DAY);
+    }
+
+    /**
+     * @return - today's date, in the local time zone
+     */
+    public static int today() {
+        Calendar cal = Calendar.getInstance();
+        return of(cal.get(Calendar.YEAR), cal.get(Calendar.MONTH) + 1, cal.get(Calendar.DAY_OF_MONTH));
+    }
+
+}
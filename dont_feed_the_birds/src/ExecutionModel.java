@@ -0,0 +1,84 @@
+package com.company;
+
+/**
+ * Class describing how a simulated strategy's orders are filled: at which price of the day, and at what cost.
+ *
+ * A strategy decides whether to be in the market from the tweets of a day, which are collected until
+ * midnight, after the market has closed. It then trades either at the next day's open, as described in the
+ * readme, or at the next day's close: the decision day's own close comes before some of its tweets, so
+ * trading at it would look ahead.
+ * Each trade pays a fixed commission plus a commission per share, and is filled slippage worse than the
+ * quoted price: buys above it, sells below it.
+ */
+public class ExecutionModel {
+
+    // The readme's ideal conditions: orders are filled at the open, and there are no trading fees
+    public static final ExecutionModel IDEAL = new ExecutionModel(true, 0.0, 0.0, 0.0);
+
+    static final String AT_PROPERTY = "execution.at";
+    static final String COMMISSION_PROPERTY = "execution.commission";
+    static final String COMMISSION_PER_SHARE_PROPERTY = "execution.commissionPerShare";
+    static final String SLIPPAGE_PROPERTY = "execution.slippage";
+
+    final boolean mAtOpen;
+    final double mCommission;
+    final double mCommissionPerShare;
+    final double mSlippage;
+
+    /**
+     * @param atOpen - true to trade at the open after the decision day, false to trade at the close after it
+     * @param commission - Fixed fee paid on each trade, in dollars
+     * @param commissionPerShare - Fee paid on each share traded, in dollars
+     * @param slippage - Fraction of the price lost on each fill, e.g. 0.0005 for 5 basis points
+     */
+    public ExecutionModel(boolean atOpen, double commission, double commissionPerShare, double slippage) {
+        if (commission < 0 || commissionPerShare < 0 || slippage < 0 || slippage >= 1) {
+            throw new IllegalArgumentException("Invalid trading costs: commission " + commission + ", per share "
+                    + commissionPerShare + ", slippage " + slippage);
+        }
+        mAtOpen = atOpen;
+        mCommission = commission;
+        mCommissionPerShare = commissionPerShare;
+        mSlippage = slippage;
+    }
+
+    /**
+     * Method used for reading the execution model from system properties, so costs can be set on the
+     * command line, e.g. "-Dexecution.at=close -Dexecution.commission=4.95 -Dexecution.slippage=0.0005".
+     * Properties that are not set keep their @IDEAL values.
+     * @return - the execution model
+     */
+    public static ExecutionModel fromSystemProperties() {
+        String at = System.getProperty(AT_PROPERTY, "open");
+        if (!at.equals("open") && !at.equals("close")) {
+            throw new IllegalArgumentException(AT_PROPERTY + " must be open or close, was: " + at);
+        }
+        return new ExecutionModel(at.equals("open"),
+                Double.parseDouble(System.getProperty(COMMISSION_PROPERTY, "0")),
+                Double.parseDouble(System.getProperty(COMMISSION_PER_SHARE_PROPERTY, "0")),
+                Double.parseDouble(System.getProperty(SLIPPAGE_PROPERTY, "0")));
+    }
+
+    public boolean atOpen() {
+        return mAtOpen;
+    }
+
+    public double commission() {
+        return mCommission;
+    }
+
+    public double commissionPerShare() {
+        return mCommissionPerShare;
+    }
+
+    public double slippage() {
+        return mSlippage;
+    }
+
+    @Override
+    public String toString() {
+        return "at " + (mAtOpen ? "open" : "close") + ", commission " + mCommission + " + " + mCommissionPerShare
+                + " per share, slippage " + mSlippage;
+    }
+
+}
@@ -0,0 +1,167 @@
+package com.company;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * Class keeping the experiment's data in files in a single directory, the default @TradingStore.
+ *
+ * Totals are kept in one @Ledger per strategy ("experimentHistory.ledger" and "controlHistory.ledger", see
+ * DataOps#openLedger), written together with a @LedgerTransaction. Daily bars are kept by @PriceHistory in
+ * "priceHistory", and daily sentiment by @SentimentSeriesStore in "sentimentSeries.csv".
+ */
+public class FileTradingStore implements TradingStore {
+
+    final File mDirectory;
+    final PriceHistory mPrices;
+
+    /**
+     * @param directory - Directory holding the files, usually the working directory
+     */
+    public FileTradingStore(File directory) {
+        mDirectory = directory;
+        mPrices = new PriceHistory(new File(directory, PriceHistory.DEFAULT_DIR));
+    }
+
+    File historyFile(String strategy) {
+        if (strategy.equals(EXPERIMENT)) {
+            return new File(mDirectory, DataOps.EXPERIMENT_HISTORY_FILE);
+        }
+        if (strategy.equals(CONTROL)) {
+            return new File(mDirectory, DataOps.CONTROL_HISTORY_FILE);
+        }
+        throw new IllegalArgumentException("Unknown strategy: " + strategy);
+    }
+
+    public void appendResults(Ledger.Entry experiment, Ledger.Entry control) throws IOException {
+        File experimentHistory = historyFile(EXPERIMENT);
+        Ledger experimentLedger = DataOps.openLedger(experimentHistory);
+        Ledger controlLedger = DataOps.openLedger(historyFile(CONTROL));
+        try {
+            LedgerTransaction transaction = new LedgerTransaction(DataOps.journalFile(experimentHistory));
+            transaction.append(experimentLedger, experiment);
+            transaction.append(controlLedger, control);
+            transaction.commit();
+        } finally {
+            experimentLedger.close();
+            controlLedger.close();
+        }
+    }
+
+    /**
+     * Both ledgers are copied to backup files first (see DataOps#backupLedger), then restarted together.
+     */
+    public void restartResults(Ledger.Entry start) throws IOException {
+        File experimentHistory = historyFile(EXPERIMENT);
+        File controlHistory = historyFile(CONTROL);
+        Date date = new Date(start.timestamp());
+        DataOps.backupLedger(experimentHistory, date);
+        DataOps.backupLedger(controlHistory, date);
+        Ledger experimentLedger = DataOps.openLedger(experimentHistory);
+        Ledger controlLedger = DataOps.openLedger(controlHistory);
+        try {
+            LedgerTransaction transaction = new LedgerTransaction(DataOps.journalFile(experimentHistory));
+            transaction.restart(experimentLedger, start);
+            transaction.restart(controlLedger, start);
+            transaction.commit();
+        } finally {
+            experimentLedger.close();
+            controlLedger.close();
+        }
+    }
+
+    public Ledger.Entry first(String strategy) throws IOException {
+        Ledger ledger = DataOps.openLedger(historyFile(strategy));
+        try {
+            return ledger.size() == 0 ? null : ledger.get(0);
+        } finally {
+            ledger.close();
+        }
+    }
+
+    public Ledger.Entry latest(String strategy) throws IOException {
+        Ledger ledger = DataOps.openLedger(historyFile(strategy));
+        try {
+            return ledger.latest();
+        } finally {
+            ledger.close();
+        }
+    }
+
+    public void scanHistory(String strategy, long fromTimestamp, long toTimestamp, HistoryHandler handler)
+            throws IOException {
+        Ledger ledger = DataOps.openLedger(historyFile(strategy));
+        try {
+            Ledger.View view = ledger.map();
+            // Entries are appended in time order, so the first one in range is found by binary search
+            int low = 0;
+            int high = view.size();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (view.timestamp(mid) < fromTimestamp) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            for (int i = low; i < view.size() && view.timestamp(i) <= toTimestamp; ++i) {
+                handler.handle(view.timestamp(i), view.total(i), view.openingPrice(i), view.closingPrice(i));
+            }
+        } finally {
+            ledger.close();
+        }
+    }
+
+    public void putBars(PriceSeries bars) throws IOException {
+        mPrices.series(bars.symbol()).merge(bars);
+        mPrices.save(bars.symbol());
+    }
+
+    public PriceSeries bars(String symbol, int fromDay, int toDay) throws IOException {
+        PriceSeries series = mPrices.series(symbol);
+        int from = series.ceilingIndex(fromDay);
+        int to = series.floorIndex(toDay);
+        PriceSeries range = new PriceSeries(symbol, Math.max(16, to - from + 1));
+        for (int i = from; i <= to; ++i) {
+            range.add(series.date(i), series.open(i), series.high(i), series.low(i), series.close(i),
+                    series.volume(i), series.adjClose(i));
+        }
+        return range;
+    }
+
+    public int lastBarDate(String symbol) throws IOException {
+        return mPrices.series(symbol).lastDate();
+    }
+
+    public void recordSentiment(int epochDay, SentimentAggregate aggregate, String model) throws IOException {
+        SentimentSeriesStore store = sentimentStore();
+        store.record(epochDay, aggregate, model);
+        store.save();
+    }
+
+    public void recordSentiment(SentimentSeriesStore days) throws IOException {
+        SentimentSeriesStore store = sentimentStore();
+        store.putAll(days);
+        store.save();
+    }
+
+    public SentimentSeriesStore sentimentSeries() throws IOException {
+        SentimentSeriesStore days = new SentimentSeriesStore(null);
+        days.putAll(sentimentStore());
+        return days;
+    }
+
+    public double[] dailySentiment(PriceSeries prices) throws IOException {
+        return sentimentStore().dailySentiment(prices);
+    }
+
+    SentimentSeriesStore sentimentStore() throws IOException {
+        return SentimentSeriesStore.open(new File(mDirectory, SentimentSeriesStore.DEFAULT_FILE));
+    }
+
+    public void close() {
+        // Files are opened and closed by each call
+    }
+
+}
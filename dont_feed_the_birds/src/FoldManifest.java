@@ -0,0 +1,275 @@
+package com.company;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Class used for assigning the documents of a labeled corpus to cross-validation folds.
+ *
+ * Folds are assigned once, stratified by category: the documents of each category are shuffled with a
+ * fixed seed and dealt out to the folds in turn, so every fold holds the same share of each category.
+ * The assignment is written to a manifest file and reused on later runs, so it does not depend on file
+ * names and does not change when the program runs again. Documents added to the corpus later are dealt to
+ * the smallest fold of their category; documents removed from the corpus are dropped from the manifest.
+ *
+ * The corpus directory is listed once, by @open (see @listCorpus). Anything derived from the corpus, such as
+ * the packed corpus or the compiled model, is checked against @fingerprint rather than the directory, so
+ * documents are known by their names: a document edited in place is only picked up once it is renamed.
+ *
+ * Manifest file layout: a "# folds=N seed=S" line, then one "fold&lt;TAB&gt;category/file name" line per document.
+ */
+public class FoldManifest {
+
+    final int mNumFolds;
+    final long mSeed;
+    final String[] mCategories;
+    // Per category, the file name of each document and its fold
+    final Map<String, Map<String, Integer>> mFolds;
+    String mFingerprint;
+
+    FoldManifest(int numFolds, long seed, String[] categories, Map<String, Map<String, Integer>> folds) {
+        mNumFolds = numFolds;
+        mSeed = seed;
+        mCategories = categories;
+        mFolds = folds;
+    }
+
+    /**
+     * Method used for getting the fold assignment of a corpus. The manifest file is read if it exists and
+     * was written with the same number of folds and seed; otherwise folds are assigned from scratch. The
+     * manifest file is rewritten whenever documents were added or removed. This is the only time the corpus
+     * directory is listed.
+     * @param corpusDir - Corpus directory, containing one sub-directory per category
+     * @param manifestFile - File in which the assignment is kept
+     * @param numFolds - Number of folds
+     * @param seed - Seed for shuffling documents before they are dealt to folds
+     * @return - the fold assignment of every document currently in the corpus
+     * @throws IOException - When the corpus cannot be listed, or the manifest cannot be read or written
+     */
+    public static FoldManifest open(File corpusDir, File manifestFile, int numFolds, long seed)
+            throws IOException {
+        Map<String, String[]> corpus = listCorpus(corpusDir);
+        String[] categories = corpus.keySet().toArray(new String[corpus.size()]);
+        Arrays.sort(categories);
+
+        Map<String, Map<String, Integer>> stored = read(manifestFile, numFolds, seed);
+        boolean changed = stored.isEmpty();
+        Map<String, Map<String, Integer>> folds = new HashMap<String, Map<String, Integer>>();
+        Random random = new Random(seed);
+        for (int i = 0; i < categories.length; ++i) {
+            String[] names = corpus.get(categories[i]);
+            Map<String, Integer> storedFolds = stored.get(categories[i]);
+            if (storedFolds == null) {
+                storedFolds = new HashMap<String, Integer>();
+            }
+
+            Map<String, Integer> categoryFolds = new HashMap<String, Integer>();
+            int[] foldSizes = new int[numFolds];
+            List<String> unassigned = new ArrayList<String>();
+            for (int j = 0; j < names.length; ++j) {
+                Integer fold = storedFolds.get(names[j]);
+                if (fold == null) {
+                    unassigned.add(names[j]);
+                } else {
+                    categoryFolds.put(names[j], fold);
+                    ++foldSizes[fold];
+                }
+            }
+            changed |= !unassigned.isEmpty() || categoryFolds.size() != storedFolds.size();
+
+            Collections.shuffle(unassigned, random);
+            for (int j = 0; j < unassigned.size(); ++j) {
+                int smallest = 0;
+                for (int fold = 1; fold < numFolds; ++fold) {
+                    if (foldSizes[fold] < foldSizes[smallest]) {
+                        smallest = fold;
+                    }
+                }
+                categoryFolds.put(unassigned.get(j), smallest);
+                ++foldSizes[smallest];
+            }
+            folds.put(categories[i], categoryFolds);
+        }
+        changed |= stored.size() != categories.length;
+
+        FoldManifest manifest = new FoldManifest(numFolds, seed, categories, folds);
+        if (changed) {
+            manifest.write(manifestFile);
+            System.out.println("Fold assignment written to: " + manifestFile);
+        }
+        return manifest;
+    }
+
+    /**
+     * Method used for listing the documents of a corpus directory, without reading their contents or metadata.
+     * @param corpusDir - Corpus directory, containing one sub-directory per category
+     * @return - the file names of each category's documents, sorted
+     * @throws IOException - When the corpus directory does not exist
+     */
+    static Map<String, String[]> listCorpus(File corpusDir) throws IOException {
+        String[] categories = corpusDir.list();
+        if (categories == null) {
+            throw new IOException("Training data directory not found: " + corpusDir);
+        }
+        Map<String, String[]> corpus = new HashMap<String, String[]>();
+        for (int i = 0; i < categories.length; ++i) {
+            String[] names = new File(corpusDir, categories[i]).list();
+            if (names == null) {
+                names = new String[0];
+            }
+            Arrays.sort(names);
+            corpus.put(categories[i], names);
+        }
+        return corpus;
+    }
+
+    /**
+     * @return - the categories of the corpus, sorted
+     */
+    public String[] categories() {
+        return mCategories.clone();
+    }
+
+    /**
+     * @return - the number of folds
+     */
+    public int numFolds() {
+        return mNumFolds;
+    }
+
+    /**
+     * @param category - Category of the document
+     * @param fileName - Name of the document's file, within its category directory
+     * @return - the document's fold, or -1 if the document is not in the manifest
+     */
+    public int fold(String category, String fileName) {
+        Map<String, Integer> categoryFolds = mFolds.get(category);
+        if (categoryFolds == null) {
+            return -1;
+        }
+        Integer fold = categoryFolds.get(fileName);
+        return fold == null ? -1 : fold;
+    }
+
+    /**
+     * Method used for listing the documents of a category which belong to a fold.
+     * @param category - Category of the documents
+     * @param fold - Fold, from 0 to @numFolds - 1
+     * @return - the file names of the documents, sorted
+     */
+    public List<String> documents(String category, int fold) {
+        List<String> names = new ArrayList<String>();
+        Map<String, Integer> categoryFolds = mFolds.get(category);
+        if (categoryFolds != null) {
+            for (Map.Entry<String, Integer> entry : categoryFolds.entrySet()) {
+                if (entry.getValue() == fold) {
+                    names.add(entry.getKey());
+                }
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * Method used for computing a fingerprint of the assignment, so that anything derived from it (such as
+     * a packed corpus or a trained model) can tell when the assignment has changed.
+     * @return - a hex String identifying the fold of every document
+     */
+    public String fingerprint() throws IOException {
+        if (mFingerprint != null) {
+            return mFingerprint;
+        }
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new IOException("SHA-1 is not available", nsae);
+        }
+        for (int i = 0; i < mCategories.length; ++i) {
+            for (int fold = 0; fold < mNumFolds; ++fold) {
+                List<String> names = documents(mCategories[i], fold);
+                for (int j = 0; j < names.size(); ++j) {
+                    ModelStore.update(digest, fold + "\t" + mCategories[i] + "/" + names.get(j));
+                }
+            }
+        }
+        mFingerprint = ModelStore.toHex(digest.digest());
+        return mFingerprint;
+    }
+
+    void write(File manifestFile) throws IOException {
+        File tempFile = new File(manifestFile.getPath() + ".tmp");
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(tempFile), "UTF-8"));
+        try {
+            writer.print("# folds=" + mNumFolds + " seed=" + mSeed + "\n");
+            for (int i = 0; i < mCategories.length; ++i) {
+                for (int fold = 0; fold < mNumFolds; ++fold) {
+                    List<String> names = documents(mCategories[i], fold);
+                    for (int j = 0; j < names.size(); ++j) {
+                        writer.print(fold + "\t" + mCategories[i] + "/" + names.get(j) + "\n");
+                    }
+                }
+            }
+        } finally {
+            writer.close();
+        }
+        if (manifestFile.exists() && !manifestFile.delete()) {
+            throw new IOException("Could not replace fold manifest: " + manifestFile);
+        }
+        if (!tempFile.renameTo(manifestFile)) {
+            throw new IOException("Could not rename " + tempFile + " to " + manifestFile);
+        }
+    }
+
+    // Returns an empty map if the file is missing or was written with other settings
+    static Map<String, Map<String, Integer>> read(File manifestFile, int numFolds, long seed)
+            throws IOException {
+        Map<String, Map<String, Integer>> folds = new HashMap<String, Map<String, Integer>>();
+        if (!manifestFile.isFile()) {
+            return folds;
+        }
+        BufferedReader input = new BufferedReader(
+                new InputStreamReader(new FileInputStream(manifestFile), "UTF-8"));
+        try {
+            String line = input.readLine();
+            if (line == null || !line.equals("# folds=" + numFolds + " seed=" + seed)) {
+                System.out.println("Fold manifest at " + manifestFile + " has other settings, reassigning.");
+                return folds;
+            }
+            while ((line = input.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                int slash = line.indexOf('/', tab);
+                if (tab < 0 || slash < 0) {
+                    continue;
+                }
+                String category = line.substring(tab + 1, slash);
+                Map<String, Integer> categoryFolds = folds.get(category);
+                if (categoryFolds == null) {
+                    categoryFolds = new HashMap<String, Integer>();
+                    folds.put(category, categoryFolds);
+                }
+                categoryFolds.put(line.substring(slash + 1), Integer.parseInt(line.substring(0, tab)));
+            }
+        } finally {
+            input.close();
+        }
+        return folds;
+    }
+
+}
@@ -0,0 +1,411 @@
+package com.company;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+
+/**
+ * Class keeping the experiment's data in a SQL database, through JDBC.
+ *
+ * Any database with a JDBC driver on the class path can be used. An embedded, file-backed database runs in
+ * the same process and needs no server, e.g. "jdbc:h2:./trading" (H2), "jdbc:derby:trading;create=true"
+ * (Derby) or "jdbc:sqlite:trading.db" (SQLite). Only standard SQL is used.
+ *
+ * Three tables are created when missing, each with a primary key on what it is looked up by, which also
+ * indexes it: "history" by (strategy, ts), "bars" by (symbol, bar_day) and "sentiment" by tweet_day. Bars
+ * are inserted in batches, and every write is a single transaction.
+ */
+public class JdbcTradingStore implements TradingStore {
+
+    static final int BATCH_SIZE = 1000;
+    static final String INSERT_HISTORY = "INSERT INTO history (strategy, ts, total, open_price, close_price,"
+            + " shares, cash, bar_date) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    final Connection mConnection;
+
+    /**
+     * @param url - JDBC URL of the database, e.g. "jdbc:h2:./trading"
+     * @throws IOException - When the database cannot be opened, or the tables cannot be created
+     */
+    public JdbcTradingStore(String url) throws IOException {
+        try {
+            mConnection = DriverManager.getConnection(url);
+            mConnection.setAutoCommit(false);
+            createTables();
+        } catch (SQLException sqle) {
+            throw new IOException("Could not open trading database: " + url, sqle);
+        }
+    }
+
+    void createTables() throws SQLException {
+        createTable("history", "CREATE TABLE history (strategy VARCHAR(32) NOT NULL, ts BIGINT NOT NULL,"
+                + " total DOUBLE PRECISION, open_price DOUBLE PRECISION, close_price DOUBLE PRECISION,"
+                + " shares BIGINT, cash DOUBLE PRECISION, bar_date INTEGER, PRIMARY KEY (strategy, ts))");
+        createTable("bars", "CREATE TABLE bars (symbol VARCHAR(16) NOT NULL, bar_day INTEGER NOT NULL,"
+                + " open_price DOUBLE PRECISION, high DOUBLE PRECISION, low DOUBLE PRECISION,"
+                + " close_price DOUBLE PRECISION, volume BIGINT, adj_close DOUBLE PRECISION,"
+                + " PRIMARY KEY (symbol, bar_day))");
+        createTable("sentiment", "CREATE TABLE sentiment (tweet_day INTEGER NOT NULL PRIMARY KEY,"
+                + " tweets INTEGER, mean_positive DOUBLE PRECISION, positive_fraction DOUBLE PRECISION,"
+                + " net_sentiment DOUBLE PRECISION, weight_sum DOUBLE PRECISION, model VARCHAR(64))");
+        mConnection.commit();
+    }
+
+    void createTable(String name, String ddl) throws SQLException {
+        // Databases differ in the case they keep unquoted names in, so look for both
+        DatabaseMetaData metaData = mConnection.getMetaData();
+        if (tableExists(metaData, name) || tableExists(metaData, name.toUpperCase())) {
+            return;
+        }
+        Statement statement = mConnection.createStatement();
+        try {
+            statement.executeUpdate(ddl);
+        } finally {
+            statement.close();
+        }
+    }
+
+    static boolean tableExists(DatabaseMetaData metaData, String name) throws SQLException {
+        ResultSet tables = metaData.getTables(null, null, name, null);
+        try {
+            return tables.next();
+        } finally {
+            tables.close();
+        }
+    }
+
+    public void appendResults(Ledger.Entry experiment, Ledger.Entry control) throws IOException {
+        try {
+            PreparedStatement insert = mConnection.prepareStatement(INSERT_HISTORY);
+            try {
+                addHistory(insert, EXPERIMENT, experiment);
+                addHistory(insert, CONTROL, control);
+                insert.executeBatch();
+            } finally {
+                insert.close();
+            }
+            mConnection.commit();
+        } catch (SQLException sqle) {
+            throw rollback("Could not store the day's results", sqle);
+        }
+    }
+
+    static void addHistory(PreparedStatement insert, String strategy, Ledger.Entry entry) throws SQLException {
+        insert.setString(1, strategy);
+        insert.setLong(2, entry.timestamp());
+        insert.setDouble(3, entry.total());
+        insert.setDouble(4, entry.openingPrice());
+        insert.setDouble(5, entry.closingPrice());
+        if (entry.hasPosition()) {
+            insert.setLong(6, entry.shares());
+            insert.setDouble(7, entry.cash());
+        } else {
+            insert.setNull(6, Types.BIGINT);
+            insert.setNull(7, Types.DOUBLE);
+        }
+        insert.setInt(8, entry.barDate());
+        insert.addBatch();
+    }
+
+    /**
+     * The earlier history of both strategies is kept, renamed to e.g. "experiment@1428421451000".
+     */
+    public void restartResults(Ledger.Entry start) throws IOException {
+        long timestamp = start.timestamp();
+        try {
+            PreparedStatement rename = mConnection.prepareStatement(
+                    "UPDATE history SET strategy = ? WHERE strategy = ?");
+            try {
+                rename.setString(1, EXPERIMENT + "@" + timestamp);
+                rename.setString(2, EXPERIMENT);
+                rename.addBatch();
+                rename.setString(1, CONTROL + "@" + timestamp);
+                rename.setString(2, CONTROL);
+                rename.addBatch();
+                rename.executeBatch();
+            } finally {
+                rename.close();
+            }
+            PreparedStatement insert = mConnection.prepareStatement(INSERT_HISTORY);
+            try {
+                addHistory(insert, EXPERIMENT, start);
+                addHistory(insert, CONTROL, start);
+                insert.executeBatch();
+            } finally {
+                insert.close();
+            }
+            mConnection.commit();
+        } catch (SQLException sqle) {
+            throw rollback("Could not restart the experiment", sqle);
+        }
+    }
+
+    public Ledger.Entry first(String strategy) throws IOException {
+        return entry(strategy, "ASC");
+    }
+
+    public Ledger.Entry latest(String strategy) throws IOException {
+        return entry(strategy, "DESC");
+    }
+
+    Ledger.Entry entry(String strategy, String order) throws IOException {
+        try {
+            PreparedStatement select = mConnection.prepareStatement("SELECT ts, total, open_price, close_price,"
+                    + " shares, cash, bar_date FROM history WHERE strategy = ? ORDER BY ts " + order);
+            try {
+                select.setMaxRows(1);
+                select.setString(1, strategy);
+                ResultSet rows = select.executeQuery();
+                Ledger.Entry entry = null;
+                if (rows.next()) {
+                    long shares = rows.getLong(5);
+                    if (rows.wasNull()) {
+                        shares = Ledger.UNKNOWN_SHARES;
+                    }
+                    double cash = rows.getDouble(6);
+                    entry = new Ledger.Entry(rows.getLong(1), rows.getDouble(2), rows.getDouble(3),
+                            rows.getDouble(4), shares, shares == Ledger.UNKNOWN_SHARES ? Double.NaN : cash,
+                            rows.getInt(7));
+                }
+                rows.close();
+                return entry;
+            } finally {
+                select.close();
+                mConnection.commit();
+            }
+        } catch (SQLException sqle) {
+            throw new IOException("Could not read the history of: " + strategy, sqle);
+        }
+    }
+
+    public void scanHistory(String strategy, long fromTimestamp, long toTimestamp, HistoryHandler handler)
+            throws IOException {
+        try {
+            PreparedStatement select = mConnection.prepareStatement("SELECT ts, total, open_price, close_price"
+                    + " FROM history WHERE strategy = ? AND ts BETWEEN ? AND ? ORDER BY ts");
+            try {
+                select.setFetchSize(BATCH_SIZE);
+                select.setString(1, strategy);
+                select.setLong(2, fromTimestamp);
+                select.setLong(3, toTimestamp);
+                ResultSet rows = select.executeQuery();
+                while (rows.next()) {
+                    handler.handle(rows.getLong(1), rows.getDouble(2), rows.getDouble(3), rows.getDouble(4));
+                }
+                rows.close();
+            } finally {
+                select.close();
+                mConnection.commit();
+            }
+        } catch (SQLException sqle) {
+            throw new IOException("Could not read the history of: " + strategy, sqle);
+        }
+    }
+
+    public void putBars(PriceSeries bars) throws IOException {
+        if (bars.size() == 0) {
+            return;
+        }
+        try {
+            PreparedStatement delete = mConnection.prepareStatement(
+                    "DELETE FROM bars WHERE symbol = ? AND bar_day BETWEEN ? AND ?");
+            try {
+                delete.setString(1, bars.symbol());
+                delete.setInt(2, bars.date(0));
+                delete.setInt(3, bars.lastDate());
+                delete.executeUpdate();
+            } finally {
+                delete.close();
+            }
+            PreparedStatement insert = mConnection.prepareStatement("INSERT INTO bars"
+                    + " (symbol, bar_day, open_price, high, low, close_price, volume, adj_close)"
+                    + " VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+            try {
+                for (int i = 0; i < bars.size(); ++i) {
+                    insert.setString(1, bars.symbol());
+                    insert.setInt(2, bars.date(i));
+                    insert.setDouble(3, bars.open(i));
+                    insert.setDouble(4, bars.high(i));
+                    insert.setDouble(5, bars.low(i));
+                    insert.setDouble(6, bars.close(i));
+                    insert.setLong(7, bars.volume(i));
+                    insert.setDouble(8, bars.adjClose(i));
+                    insert.addBatch();
+                    if ((i + 1) % BATCH_SIZE == 0) {
+                        insert.executeBatch();
+                    }
+                }
+                insert.executeBatch();
+            } finally {
+                insert.close();
+            }
+            mConnection.commit();
+        } catch (SQLException sqle) {
+            throw rollback("Could not store bars of " + bars.symbol(), sqle);
+        }
+    }
+
+    public PriceSeries bars(String symbol, int fromDay, int toDay) throws IOException {
+        PriceSeries series = new PriceSeries(symbol);
+        try {
+            PreparedStatement select = mConnection.prepareStatement("SELECT bar_day, open_price, high, low,"
+                    + " close_price, volume, adj_close FROM bars WHERE symbol = ? AND bar_day BETWEEN ? AND ?"
+                    + " ORDER BY bar_day");
+            try {
+                select.setFetchSize(BATCH_SIZE);
+                select.setString(1, symbol);
+                select.setInt(2, fromDay);
+                select.setInt(3, toDay);
+                ResultSet rows = select.executeQuery();
+                while (rows.next()) {
+                    series.add(rows.getInt(1), rows.getDouble(2), rows.getDouble(3), rows.getDouble(4),
+                            rows.getDouble(5), rows.getLong(6), rows.getDouble(7));
+                }
+                rows.close();
+            } finally {
+                select.close();
+                mConnection.commit();
+            }
+        } catch (SQLException sqle) {
+            throw new IOException("Could not read bars of " + symbol, sqle);
+        }
+        return series;
+    }
+
+    public int lastBarDate(String symbol) throws IOException {
+        int lastDay = Integer.MIN_VALUE;
+        try {
+            PreparedStatement select = mConnection.prepareStatement("SELECT MAX(bar_day) FROM bars WHERE symbol = ?");
+            try {
+                select.setString(1, symbol);
+                ResultSet rows = select.executeQuery();
+                if (rows.next()) {
+                    int day = rows.getInt(1);
+                    if (!rows.wasNull()) {
+                        lastDay = day;
+                    }
+                }
+                rows.close();
+            } finally {
+                select.close();
+                mConnection.commit();
+            }
+        } catch (SQLException sqle) {
+            throw new IOException("Could not read the last bar of " + symbol, sqle);
+        }
+        return lastDay;
+    }
+
+    public void recordSentiment(int epochDay, SentimentAggregate aggregate, String model) throws IOException {
+        SentimentSeriesStore day = new SentimentSeriesStore(null);
+        day.record(epochDay, aggregate, model);
+        recordSentiment(day);
+    }
+
+    public void recordSentiment(SentimentSeriesStore days) throws IOException {
+        if (days.size() == 0) {
+            return;
+        }
+        try {
+            PreparedStatement delete = mConnection.prepareStatement("DELETE FROM sentiment WHERE tweet_day = ?");
+            try {
+                for (int i = 0; i < days.size(); ++i) {
+                    delete.setInt(1, days.date(i));
+                    delete.addBatch();
+                }
+                delete.executeBatch();
+            } finally {
+                delete.close();
+            }
+            PreparedStatement insert = mConnection.prepareStatement("INSERT INTO sentiment (tweet_day, tweets,"
+                    + " mean_positive, positive_fraction, net_sentiment, weight_sum, model)"
+                    + " VALUES (?, ?, ?, ?, ?, ?, ?)");
+            try {
+                for (int i = 0; i < days.size(); ++i) {
+                    insert.setInt(1, days.date(i));
+                    insert.setInt(2, days.count(i));
+                    insert.setDouble(3, days.meanPositive(i));
+                    insert.setDouble(4, days.positiveFraction(i));
+                    insert.setDouble(5, days.netSentiment(i));
+                    insert.setDouble(6, days.weightSum(i));
+                    insert.setString(7, days.model(i));
+                    insert.addBatch();
+                    if ((i + 1) % BATCH_SIZE == 0) {
+                        insert.executeBatch();
+                    }
+                }
+                insert.executeBatch();
+            } finally {
+                insert.close();
+            }
+            mConnection.commit();
+        } catch (SQLException sqle) {
+            throw rollback("Could not store sentiment of " + days.size() + " days from "
+                    + EpochDays.toString(days.date(0)), sqle);
+        }
+    }
+
+    public SentimentSeriesStore sentimentSeries() throws IOException {
+        return sentimentSeries(Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    public double[] dailySentiment(PriceSeries prices) throws IOException {
+        if (prices.size() == 0) {
+            return new double[0];
+        }
+        return sentimentSeries(prices.date(0), prices.lastDate()).dailySentiment(prices);
+    }
+
+    /**
+     * @return - the stored days from one date to another, inclusive, in a series not kept in a file
+     */
+    SentimentSeriesStore sentimentSeries(int fromDay, int toDay) throws IOException {
+        SentimentSeriesStore store = new SentimentSeriesStore(null);
+        try {
+            PreparedStatement select = mConnection.prepareStatement("SELECT tweet_day, tweets, mean_positive,"
+                    + " positive_fraction, net_sentiment, weight_sum, model FROM sentiment"
+                    + " WHERE tweet_day BETWEEN ? AND ? ORDER BY tweet_day");
+            try {
+                select.setFetchSize(BATCH_SIZE);
+                select.setInt(1, fromDay);
+                select.setInt(2, toDay);
+                ResultSet rows = select.executeQuery();
+                while (rows.next()) {
+                    store.put(rows.getInt(1), rows.getInt(2), rows.getDouble(3), rows.getDouble(4),
+                            rows.getDouble(5), rows.getDouble(6), rows.getString(7));
+                }
+                rows.close();
+            } finally {
+                select.close();
+                mConnection.commit();
+            }
+        } catch (SQLException sqle) {
+            throw new IOException("Could not read sentiment", sqle);
+        }
+        return store;
+    }
+
+    IOException rollback(String message, SQLException cause) {
+        try {
+            mConnection.rollback();
+        } catch (SQLException sqle) {
+            System.out.println("Could not roll back: " + sqle);
+        }
+        return new IOException(message, cause);
+    }
+
+    public void close() throws IOException {
+        try {
+            mConnection.close();
+        } catch (SQLException sqle) {
+            throw new IOException("Could not close trading database", sqle);
+        }
+    }
+
+}
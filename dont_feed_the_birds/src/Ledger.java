@@ -0,0 +1,393 @@
+package com.company;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+
+/**
+ * Class used for keeping the running history of a strategy's total assets: an append-only file of
+ * fixed-width binary entries, one per market update.
+ *
+ * Each entry holds a timestamp (milliseconds since 1970), the strategy's total assets, the day's opening
+ * and closing prices, the strategy's position at the close: the number of shares it held and its cash, and
+ * the date of the bar it was valued at, so the next update can trade from it (see DataOps#updateResults).
+ * Because every entry has the same size, the number of entries is known from the file length, and the latest
+ * entry (@latest) or any other (@get) is read with a single positional read, without reading the rest of the
+ * file. @map gives a memory-mapped view for scanning the whole history.
+ *
+ * @append forces each entry to disk before returning. An entry cut short by a crash is discarded when the
+ * ledger is next opened.
+ *
+ * File layout (all numbers big-endian): int magic, int version, int entry size, int unused, followed by the
+ * entries: long timestamp, double total, double opening price, double closing price, long shares, double
+ * cash, int bar date.
+ */
+public class Ledger {
+
+    static final int MAGIC = 0x4c444731; // "LDG1"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 16;
+    static final int ENTRY_BYTES = 8 + 8 + 8 + 8 + 8 + 8 + 4;
+
+    // Shares of an entry converted from a text history file, which has no positions; its cash is NaN
+    public static final long UNKNOWN_SHARES = -1;
+
+    final File mFile;
+    final RandomAccessFile mRaf;
+    final FileChannel mChannel;
+    final ByteBuffer mEntryBuffer = ByteBuffer.allocate(ENTRY_BYTES);
+    long mSize;
+
+    Ledger(File file, RandomAccessFile raf, long size) {
+        mFile = file;
+        mRaf = raf;
+        mChannel = raf.getChannel();
+        mSize = size;
+    }
+
+    /**
+     * Method used for opening a ledger, creating it if it does not exist.
+     * @param file - The ledger file
+     * @return - the open ledger; close it with @close
+     * @throws IOException - When the file cannot be created or read, or is not a ledger
+     */
+    public static Ledger open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() == 0) {
+                writeHeader(channel);
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+                // keep reading until the header is complete
+            }
+            header.flip();
+            if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC) {
+                throw new IOException("Not a ledger: " + file);
+            }
+            int version = header.getInt();
+            int entryBytes = header.getInt();
+            if (version != VERSION || entryBytes != ENTRY_BYTES) {
+                throw new IOException("Ledger written by another version: " + file);
+            }
+            long size = (channel.size() - HEADER_BYTES) / ENTRY_BYTES;
+            long end = HEADER_BYTES + size * ENTRY_BYTES;
+            if (channel.size() != end) {
+                System.out.println("Discarding an incomplete entry at the end of: " + file);
+                channel.truncate(end);
+                channel.force(true);
+            }
+            return new Ledger(file, raf, size);
+        } catch (IOException ioe) {
+            raf.close();
+            throw ioe;
+        }
+    }
+
+    /**
+     * Method used for creating an empty ledger, erasing any entries already in the file.
+     * @param file - The ledger file
+     * @return - the open, empty ledger; close it with @close
+     * @throws IOException - When the file cannot be written
+     */
+    public static Ledger create(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.getChannel().truncate(0);
+            writeHeader(raf.getChannel());
+        } finally {
+            raf.close();
+        }
+        return open(file);
+    }
+
+    static void writeHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(VERSION).putInt(ENTRY_BYTES).putInt(0);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+        channel.force(true);
+    }
+
+    /**
+     * @return - the number of entries in the ledger
+     */
+    public synchronized long size() {
+        return mSize;
+    }
+
+    /**
+     * Method used for adding an entry at the end of the ledger. The entry is on disk when the method returns.
+     * @param timestamp - Time of the entry, in milliseconds since 1970
+     * @param total - The strategy's total assets
+     * @param openingPrice - The day's opening price
+     * @param closingPrice - The day's closing price
+     * @param shares - Number of shares held at the close, or @UNKNOWN_SHARES
+     * @param cash - Cash held at the close, or NaN if the shares are unknown
+     * @param barDate - Date of the bar the strategy was valued at, in epoch days
+     * @throws IOException - When the entry cannot be written
+     */
+    public synchronized void append(long timestamp, double total, double openingPrice, double closingPrice,
+                                    long shares, double cash, int barDate) throws IOException {
+        ByteBuffer entry = mEntryBuffer;
+        entry.clear();
+        entry.putLong(timestamp).putDouble(total).putDouble(openingPrice).putDouble(closingPrice)
+                .putLong(shares).putDouble(cash).putInt(barDate);
+        entry.flip();
+        long position = HEADER_BYTES + mSize * ENTRY_BYTES;
+        while (entry.hasRemaining()) {
+            position += mChannel.write(entry, position);
+        }
+        mChannel.force(false);
+        ++mSize;
+    }
+
+    /**
+     * Method used for adding an entry at the end of the ledger, as @append does.
+     * @param entry - The entry to add
+     * @throws IOException - When the entry cannot be written
+     */
+    public void append(Entry entry) throws IOException {
+        append(entry.mTimestamp, entry.mTotal, entry.mOpeningPrice, entry.mClosingPrice, entry.mShares,
+                entry.mCash, entry.mBarDate);
+    }
+
+    /**
+     * Method used for discarding the latest entries, e.g. those of a transaction which is being redone
+     * (see @LedgerTransaction).
+     * @param size - Number of entries to keep
+     * @throws IOException - When the file cannot be truncated
+     */
+    synchronized void truncate(long size) throws IOException {
+        if (size < 0 || size > mSize) {
+            throw new IOException("Cannot truncate ledger of " + mSize + " entries to " + size + ": " + mFile);
+        }
+        mChannel.truncate(HEADER_BYTES + size * ENTRY_BYTES);
+        mChannel.force(true);
+        mSize = size;
+    }
+
+    /**
+     * Method used for reading a single entry.
+     * @param index - Position of the entry, from 0 (the first) to @size - 1 (the latest)
+     * @return - the entry
+     * @throws IOException - When the entry cannot be read
+     */
+    public synchronized Entry get(long index) throws IOException {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("No entry " + index + " in ledger of " + mSize + ": " + mFile);
+        }
+        ByteBuffer entry = mEntryBuffer;
+        entry.clear();
+        long position = HEADER_BYTES + index * ENTRY_BYTES;
+        while (entry.hasRemaining()) {
+            int read = mChannel.read(entry, position + entry.position());
+            if (read < 0) {
+                throw new IOException("Ledger is truncated: " + mFile);
+            }
+        }
+        entry.flip();
+        return new Entry(entry.getLong(), entry.getDouble(), entry.getDouble(), entry.getDouble(), entry.getLong(),
+                entry.getDouble(), entry.getInt());
+    }
+
+    /**
+     * @return - the latest entry, or null if the ledger is empty
+     * @throws IOException - When the entry cannot be read
+     */
+    public synchronized Entry latest() throws IOException {
+        return mSize == 0 ? null : get(mSize - 1);
+    }
+
+    /**
+     * Method used for scanning the whole history, without reading it into memory first.
+     * @return - a read-only, memory-mapped view of the entries written so far
+     * @throws IOException - When the file cannot be mapped
+     */
+    public synchronized View map() throws IOException {
+        MappedByteBuffer buffer = mChannel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, mSize * ENTRY_BYTES);
+        return new View(buffer, (int) mSize);
+    }
+
+    /**
+     * Method used for closing the ledger file.
+     * @throws IOException - When the file cannot be closed
+     */
+    public synchronized void close() throws IOException {
+        mRaf.close();
+    }
+
+    /**
+     * Class holding a single ledger entry.
+     */
+    public static class Entry {
+
+        final long mTimestamp;
+        final double mTotal;
+        final double mOpeningPrice;
+        final double mClosingPrice;
+        final long mShares;
+        final double mCash;
+        final int mBarDate;
+
+        /**
+         * @param timestamp - Time of the entry, in milliseconds since 1970
+         * @param total - The strategy's total assets
+         * @param openingPrice - The day's opening price
+         * @param closingPrice - The day's closing price
+         * @param shares - Number of shares held at the close, or @UNKNOWN_SHARES
+         * @param cash - Cash held at the close, or NaN if the shares are unknown
+         * @param barDate - Date of the bar the strategy was valued at, in epoch days
+         */
+        public Entry(long timestamp, double total, double openingPrice, double closingPrice, long shares,
+                     double cash, int barDate) {
+            mTimestamp = timestamp;
+            mTotal = total;
+            mOpeningPrice = openingPrice;
+            mClosingPrice = closingPrice;
+            mShares = shares;
+            mCash = cash;
+            mBarDate = barDate;
+        }
+
+        public long timestamp() {
+            return mTimestamp;
+        }
+
+        public double total() {
+            return mTotal;
+        }
+
+        public double openingPrice() {
+            return mOpeningPrice;
+        }
+
+        public double closingPrice() {
+            return mClosingPrice;
+        }
+
+        public long shares() {
+            return mShares;
+        }
+
+        public double cash() {
+            return mCash;
+        }
+
+        public int barDate() {
+            return mBarDate;
+        }
+
+        /**
+         * @return - true if the entry records the strategy's position, false if it was converted from a text
+         * history file (see @migrate)
+         */
+        public boolean hasPosition() {
+            return mShares != UNKNOWN_SHARES;
+        }
+    }
+
+    /**
+     * Class giving read-only access to the entries of a memory-mapped ledger, by position.
+     */
+    public static class View {
+
+        final ByteBuffer mBuffer;
+        final int mSize;
+
+        View(ByteBuffer buffer, int size) {
+            mBuffer = buffer;
+            mSize = size;
+        }
+
+        public int size() {
+            return mSize;
+        }
+
+        public long timestamp(int i) {
+            return mBuffer.getLong(i * ENTRY_BYTES);
+        }
+
+        public double total(int i) {
+            return mBuffer.getDouble(i * ENTRY_BYTES + 8);
+        }
+
+        public double openingPrice(int i) {
+            return mBuffer.getDouble(i * ENTRY_BYTES + 16);
+        }
+
+        public double closingPrice(int i) {
+            return mBuffer.getDouble(i * ENTRY_BYTES + 24);
+        }
+
+        public long shares(int i) {
+            return mBuffer.getLong(i * ENTRY_BYTES + 32);
+        }
+
+        public double cash(int i) {
+            return mBuffer.getDouble(i * ENTRY_BYTES + 40);
+        }
+
+        public int barDate(int i) {
+            return mBuffer.getInt(i * ENTRY_BYTES + 48);
+        }
+    }
+
+    /**
+     * Method used for converting a history file written by the earlier text format, with lines such as
+     * "2015/04/07 15:44:11,20644.0,Opening price: 206.44,Closing price: 207.83,", into a new ledger.
+     * Each entry's bar date is the local date of its time. The history file is left as it is. Lines which
+     * cannot be parsed are skipped.
+     * @param historyFile - Text history file, such as "experimentHistory.txt"
+     * @param ledgerFile - Ledger file to create
+     * @return - the number of entries converted
+     * @throws IOException - When the history file cannot be read, or the ledger cannot be written
+     */
+    public static int migrate(File historyFile, File ledgerFile) throws IOException {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
+        File tempFile = new File(ledgerFile.getPath() + ".tmp");
+        Ledger ledger = create(tempFile);
+        int count = 0;
+        BufferedReader input = new BufferedReader(new FileReader(historyFile));
+        try {
+            String line;
+            while ((line = input.readLine()) != null) {
+                String[] fields = line.split(",");
+                if (fields.length < 4) {
+                    continue;
+                }
+                try {
+                    long timestamp = dateFormat.parse(fields[0]).getTime();
+                    ledger.append(timestamp, Double.parseDouble(fields[1]),
+                            Double.parseDouble(fields[2].substring(fields[2].indexOf(':') + 1).trim()),
+                            Double.parseDouble(fields[3].substring(fields[3].indexOf(':') + 1).trim()),
+                            UNKNOWN_SHARES, Double.NaN, EpochDays.ofMillis(timestamp));
+                    ++count;
+                } catch (ParseException pe) {
+                    System.out.println("Skipping line with a bad date in " + historyFile + ": " + line);
+                } catch (NumberFormatException nfe) {
+                    System.out.println("Skipping line with a bad number in " + historyFile + ": " + line);
+                }
+            }
+        } finally {
+            input.close();
+            ledger.close();
+        }
+        if (!tempFile.renameTo(ledgerFile)) {
+            throw new IOException("Could not rename " + tempFile + " to " + ledgerFile);
+        }
+        System.out.println("Converted " + count + " entries from " + historyFile + " to " + ledgerFile);
+        return count;
+    }
+
+}
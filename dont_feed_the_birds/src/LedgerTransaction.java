@@ -0,0 +1,190 @@
+package com.company;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Class used for writing one entry to each of several ledgers as a single step, so that either every ledger
+ * gets its entry or none does, even if the program stops halfway through.
+ *
+ * Entries are first added to the transaction with @append (or @restart, which also erases a ledger's
+ * earlier entries). @commit then writes them all to a journal file, forces it to disk, writes each entry
+ * to its ledger, and deletes the journal. If the program stops before the journal is deleted, @recover
+ * finds the journal on the next run and writes the entries again, replacing anything written after the
+ * ledger sizes recorded in the journal, so every ledger ends up as if the commit had completed. A journal
+ * that was never completely written is ignored, as no ledger was touched yet.
+ *
+ * Journal file layout: int magic, int number of entries, then for each entry the ledger's path, the number
+ * of entries the ledger keeps, and the new entry (long timestamp, double total, double opening price,
+ * double closing price, long shares, double cash, int bar date), followed by a CRC-32 of everything before it.
+ */
+public class LedgerTransaction {
+
+    static final int MAGIC = 0x4c4a4e31; // "LJN1"
+
+    final File mJournalFile;
+    final List<Ledger> mLedgers = new ArrayList<Ledger>();
+    final List<Long> mKeep = new ArrayList<Long>();
+    final List<Ledger.Entry> mEntries = new ArrayList<Ledger.Entry>();
+
+    /**
+     * @param journalFile - File in which the transaction is journaled while it is committed
+     */
+    public LedgerTransaction(File journalFile) {
+        mJournalFile = journalFile;
+    }
+
+    /**
+     * Method used for adding an entry to the end of a ledger when the transaction is committed.
+     * @param ledger - Open ledger
+     * @param entry - The new entry
+     */
+    public void append(Ledger ledger, Ledger.Entry entry) {
+        add(ledger, ledger.size(), entry);
+    }
+
+    /**
+     * Method used for erasing a ledger and giving it a single, first entry when the transaction is committed.
+     * @param ledger - Open ledger
+     * @param entry - The ledger's first entry
+     */
+    public void restart(Ledger ledger, Ledger.Entry entry) {
+        add(ledger, 0, entry);
+    }
+
+    void add(Ledger ledger, long keep, Ledger.Entry entry) {
+        mLedgers.add(ledger);
+        mKeep.add(keep);
+        mEntries.add(entry);
+    }
+
+    /**
+     * Method used for writing every entry of the transaction to its ledger.
+     * @throws IOException - When the journal or a ledger cannot be written. The ledgers are made consistent
+     * again by @recover on the next run.
+     */
+    public void commit() throws IOException {
+        writeJournal();
+        for (int i = 0; i < mLedgers.size(); ++i) {
+            apply(mLedgers.get(i), mKeep.get(i), mEntries.get(i));
+        }
+        if (!mJournalFile.delete()) {
+            throw new IOException("Could not delete ledger journal: " + mJournalFile);
+        }
+        mLedgers.clear();
+        mKeep.clear();
+        mEntries.clear();
+    }
+
+    static void apply(Ledger ledger, long keep, Ledger.Entry entry) throws IOException {
+        if (ledger.size() != keep) {
+            ledger.truncate(keep);
+        }
+        ledger.append(entry);
+    }
+
+    void writeJournal() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(mLedgers.size());
+        for (int i = 0; i < mLedgers.size(); ++i) {
+            out.writeUTF(mLedgers.get(i).mFile.getAbsolutePath());
+            out.writeLong(mKeep.get(i));
+            Ledger.Entry entry = mEntries.get(i);
+            out.writeLong(entry.timestamp());
+            out.writeDouble(entry.total());
+            out.writeDouble(entry.openingPrice());
+            out.writeDouble(entry.closingPrice());
+            out.writeLong(entry.shares());
+            out.writeDouble(entry.cash());
+            out.writeInt(entry.barDate());
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeLong(crc.getValue());
+        out.close();
+
+        // Written under a temporary name first, so a journal that exists is always complete
+        File tempFile = new File(mJournalFile.getPath() + ".tmp");
+        FileOutputStream fileOut = new FileOutputStream(tempFile);
+        try {
+            fileOut.write(bytes.toByteArray());
+            fileOut.getFD().sync();
+        } finally {
+            fileOut.close();
+        }
+        if (!tempFile.renameTo(mJournalFile)) {
+            throw new IOException("Could not rename " + tempFile + " to " + mJournalFile);
+        }
+    }
+
+    /**
+     * Method used for finishing a transaction interrupted by a crash. Call this before reading or writing any
+     * of the ledgers. Does nothing if there is no journal.
+     * @param journalFile - Journal file of the transaction
+     * @return - true if an interrupted transaction was finished
+     * @throws IOException - When the journal cannot be read, or a ledger cannot be written
+     */
+    public static boolean recover(File journalFile) throws IOException {
+        File tempFile = new File(journalFile.getPath() + ".tmp");
+        if (tempFile.exists() && !tempFile.delete()) {
+            throw new IOException("Could not delete incomplete ledger journal: " + tempFile);
+        }
+        if (!journalFile.exists()) {
+            return false;
+        }
+
+        byte[] bytes = new byte[(int) journalFile.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(journalFile));
+        try {
+            in.readFully(bytes);
+        } finally {
+            in.close();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, Math.max(0, bytes.length - 8));
+        DataInputStream journal = new DataInputStream(new ByteArrayInputStream(bytes));
+        int magic = bytes.length < 16 ? 0 : journal.readInt();
+        if (magic != MAGIC) {
+            throw new IOException("Not a ledger journal: " + journalFile);
+        }
+        int count = journal.readInt();
+        String[] paths = new String[count];
+        long[] keep = new long[count];
+        Ledger.Entry[] entries = new Ledger.Entry[count];
+        for (int i = 0; i < count; ++i) {
+            paths[i] = journal.readUTF();
+            keep[i] = journal.readLong();
+            entries[i] = new Ledger.Entry(journal.readLong(), journal.readDouble(), journal.readDouble(),
+                    journal.readDouble(), journal.readLong(), journal.readDouble(), journal.readInt());
+        }
+        if (journal.readLong() != crc.getValue()) {
+            throw new IOException("Ledger journal is corrupt, ledgers may be inconsistent: " + journalFile);
+        }
+
+        for (int i = 0; i < count; ++i) {
+            Ledger ledger = Ledger.open(new File(paths[i]));
+            try {
+                apply(ledger, keep[i], entries[i]);
+            } finally {
+                ledger.close();
+            }
+        }
+        if (!journalFile.delete()) {
+            throw new IOException("Could not delete ledger journal: " + journalFile);
+        }
+        System.out.println("Finished an interrupted write of " + count + " ledger entries from: " + journalFile);
+        return true;
+    }
+
+}
@@ -0,0 +1,198 @@
+package com.company;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class used for standing in for Yahoo Finance while testing, so downloads can be tried without a network.
+ *
+ * The server listens on a free port of the local machine and answers the same "table.csv" requests as
+ * Yahoo Finance (see MarketDataFetcher#url), from canned CSV files in a directory, one per symbol, named
+ * after it (e.g. "testData/quotes/SPY.csv"). Only the lines dated within the requested range are sent, in
+ * the file's order; a symbol without a file, or without lines in the range, gets a 404, as Yahoo Finance does.
+ *
+ * To test retries and timeouts, the server can be told to fail a symbol's next requests (see @failNext) or
+ * to wait before answering (see @setDelayMillis).
+ */
+public class LocalQuoteServer {
+
+    public static final String DEFAULT_DIR = "testData/quotes";
+    static final String PATH = "/table.csv";
+
+    final HttpServer mServer;
+    final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    final File mDirectory;
+    final Map<String, AtomicInteger> mFailures = new ConcurrentHashMap<String, AtomicInteger>();
+    final AtomicInteger mRequests = new AtomicInteger();
+    volatile long mDelayMillis;
+
+    /**
+     * Creates a server on a free port of the local machine; call @start to begin answering requests.
+     * @param directory - Directory holding one CSV file per symbol, in the Yahoo Finance format
+     * @throws IOException - When no port can be opened
+     */
+    public LocalQuoteServer(File directory) throws IOException {
+        mDirectory = directory;
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        mServer.createContext(PATH, new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    answer(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        mServer.setExecutor(mExecutor);
+    }
+
+    public void start() {
+        mServer.start();
+    }
+
+    public void stop() {
+        mServer.stop(0);
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * @return - the address to give MarketDataFetcher in place of MarketDataFetcher#YAHOO_URL
+     */
+    public String url() {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort() + PATH;
+    }
+
+    /**
+     * Method used for making the next requests for a symbol fail with a 503, as an overloaded server would.
+     * @param symbol - Ticker symbol
+     * @param count - Number of requests to fail
+     */
+    public void failNext(String symbol, int count) {
+        mFailures.put(symbol, new AtomicInteger(count));
+    }
+
+    /**
+     * @param delayMillis - How long to wait before answering each request, in milliseconds
+     */
+    public void setDelayMillis(long delayMillis) {
+        mDelayMillis = delayMillis;
+    }
+
+    /**
+     * @return - the number of requests received so far
+     */
+    public int requests() {
+        return mRequests.get();
+    }
+
+    void answer(HttpExchange exchange) throws IOException {
+        mRequests.incrementAndGet();
+        Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        String symbol = query.get("s");
+        if (mDelayMillis > 0) {
+            try {
+                Thread.sleep(mDelayMillis);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        AtomicInteger failures = symbol == null ? null : mFailures.get(symbol);
+        if (failures != null && failures.getAndDecrement() > 0) {
+            send(exchange, 503, "Service unavailable\n");
+            return;
+        }
+
+        File csvFile = new File(mDirectory, symbol + ".csv");
+        if (symbol == null || !symbol.matches("[A-Za-z0-9.^=-]+") || !csvFile.isFile()) {
+            send(exchange, 404, "No data for: " + symbol + "\n");
+            return;
+        }
+        int fromDay;
+        int toDay;
+        try {
+            fromDay = EpochDays.of(Integer.parseInt(query.get("c")), Integer.parseInt(query.get("a")) + 1,
+                    Integer.parseInt(query.get("b")));
+            toDay = EpochDays.of(Integer.parseInt(query.get("f")), Integer.parseInt(query.get("d")) + 1,
+                    Integer.parseInt(query.get("e")));
+        } catch (NumberFormatException nfe) {
+            send(exchange, 400, "Bad date range\n");
+            return;
+        }
+
+        // Read the whole canned file, keeping the header and the lines in the range
+        StringBuilder body = new StringBuilder();
+        int rows = 0;
+        BufferedReader input = new BufferedReader(new InputStreamReader(new FileInputStream(csvFile), "UTF-8"));
+        try {
+            String line = input.readLine();
+            if (line != null) {
+                body.append(line).append('\n');
+            }
+            while ((line = input.readLine()) != null) {
+                int comma = line.indexOf(',');
+                int day;
+                try {
+                    day = EpochDays.parse(line.substring(0, Math.max(0, comma)));
+                } catch (NumberFormatException nfe) {
+                    continue;
+                }
+                if (day >= fromDay && day <= toDay) {
+                    body.append(line).append('\n');
+                    ++rows;
+                }
+            }
+        } finally {
+            input.close();
+        }
+        if (rows == 0) {
+            send(exchange, 404, "No data for " + symbol + " in range\n");
+            return;
+        }
+        send(exchange, 200, body.toString());
+    }
+
+    static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "text/csv");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    static Map<String, String> parseQuery(String query) {
+        Map<String, String> values = new HashMap<String, String>();
+        if (query == null) {
+            return values;
+        }
+        String[] pairs = query.split("&");
+        for (int i = 0; i < pairs.length; ++i) {
+            int equals = pairs[i].indexOf('=');
+            if (equals > 0) {
+                values.put(pairs[i].substring(0, equals), pairs[i].substring(equals + 1));
+            }
+        }
+        return values;
+    }
+
+}
@@ -2,8 +2,10 @@ package com.company;
 import twitter4j.*;
 
 import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
-import java.util.HashMap;
+import java.io.PrintWriter;
+import java.util.Arrays;
 
 /**
  * This is the first iteration of a program intended to test whether public sentiment,
@@ -33,14 +35,22 @@ import java.util.HashMap;
  */
 
 public final class Main {
+
+    // Symbol traded by the experiment, as downloaded by the Crawler
+    static final String SYMBOL = "SPY";
+
     /**
      * Running this method will:
      *   - Open a TwitterStream and download 100 statuses, then store them in a file
-     *   - Run a LingPipe sentiment analysis on the Twitter File data and determine whether it
-     *   contains either POSITIVE or NEGATIVE sentiment
-     *   - Crawl the web and download the current data on the SPY Index Fund from Yahoo Finance
-     *   - Buy into the stock market, if the Twitter Sentiment was positive
-     *   - Check closing cost gained from market data, and write the result to a file
+     *   - Load the compiled LingPipe classifier (training it first, only if the training data changed)
+     *   - Run a LingPipe sentiment analysis on each status in the Twitter File and determine whether,
+     *   taken together, they contain either POSITIVE or NEGATIVE sentiment
+     *   - Download the days missing from the stored price history of the SPY Index Fund from Yahoo
+     *   Finance, straight into the store (see MarketDataSync)
+     *   - Trade the experiment and the control over the trading days since their latest update, from the
+     *   shares and cash they held, as the backtests do: the experiment holds shares through a day only if the
+     *   Twitter Sentiment of the day before was positive (see DataOps#updateResults)
+     *   - Write their new totals and positions to the store
      *   - Output information on the Experiments progress to date
      *
      *   In general, this method is printing the results at each step, in order to confirm that
@@ -48,17 +58,63 @@ public final class Main {
      */
     public static void main(String[] args) throws TwitterException, IOException {
 
-        // Setup Files and variables
-        File experimentFile = new File("experimentHistory.txt");
-        File controlFile = new File("controlHistory.txt");
-        boolean invest = false;
+        // Optionally add a file of labeled tweets to the classifier, e.g. "label pos happyTweets.txt"
+        if (args.length > 2 && args[0].equals("label")) {
+            labelTweets(args[1], new File(args[2]));
+            return;
+        }
+
+        // Optionally replay the experiment over the stored price history instead, e.g. "backtest 0.1"
+        if (args.length > 0 && args[0].equals("backtest")) {
+            double threshold = args.length > 1 ? Double.parseDouble(args[1]) : PolarityBasic.NET_SENTIMENT_THRESHOLD;
+            runBacktest(threshold);
+            return;
+        }
+
+        // Optionally replay a grid of thresholds, windows and symbols instead, e.g. "sweep SPY,QQQ,IWM"
+        if (args.length > 0 && args[0].equals("sweep")) {
+            runSweep(args.length > 1 ? args[1].split(",") : new String[]{SYMBOL});
+            return;
+        }
+
+        // Optionally replay several strategies side by side instead, e.g. "portfolio 0.1:1,0.1:5,0:21", each
+        // given as threshold:window
+        if (args.length > 0 && args[0].equals("portfolio")) {
+            runPortfolio(args.length > 1 ? args[1].split(",")
+                    : new String[]{PolarityBasic.NET_SENTIMENT_THRESHOLD + ":1"});
+            return;
+        }
+
+        // Optionally download the days missing from stored price histories instead, e.g. "sync SPY,QQQ,IWM"
+        if (args.length > 0 && args[0].equals("sync")) {
+            runSync(args.length > 1 ? args[1].split(",") : new String[]{SYMBOL});
+            return;
+        }
 
+        // Optionally print the experiment's results, compared with other stored stocks or funds, e.g. "review QQQ"
+        if (args.length > 0 && args[0].equals("review")) {
+            DataReview.getExperimentResults(args.length > 1 ? args[1].split(",") : new String[0]);
+            return;
+        }
+
+        // Optionally sample Twitter continuously instead, e.g. "continuous 60" for a sixty minute session
+        if (args.length > 0 && args[0].equals("continuous")) {
+            long minutes = args.length > 1 ? Long.parseLong(args[1]) : 60;
+            runContinuousSession(minutes * 60 * 1000);
+            return;
+        }
 
         // Get 100 Twitter statuses in real time and write them to a file named: "outputdata.txt"
+        // Every status is also kept in the tweet archive, so the experiment can be replayed later (see Backtest)
         System.out.println("Initiating Twitter Stream:");
         Stream stream = new Stream();
         try {
-            stream.execute();
+            TweetArchive archive = TweetArchive.open(new File(Backtest.TWEET_ARCHIVE_DIR));
+            try {
+                stream.execute(archive);
+            } finally {
+                archive.close();
+            }
         } catch (IOException ioe) {
             ioe.printStackTrace();
         } catch (TwitterException te) {
@@ -69,27 +125,61 @@ public final class Main {
         try {
             PolarityBasic pb = new PolarityBasic(new String[]{
                     "POLARITY_DIR"});
-            pb.run();
-            invest = pb.invest("outputdata.txt");
+            pb.loadOrTrain();
+            // Today's sentiment decides whether the experiment holds shares through the next trading day
+            pb.investPerTweet("outputdata.txt", PolarityBasic.NET_SENTIMENT_THRESHOLD);
+
+            // Keep today's sentiment, so later backtests do not classify today's tweets again
+            TradingStore store = DataOps.openStore();
+            try {
+                store.recordSentiment(EpochDays.today(), pb.lastAggregate(), pb.modelFingerprint());
+            } finally {
+                store.close();
+            }
         } catch (Throwable t) {
             System.out.println("Thrown: " + t);
             t.printStackTrace(System.out);
         }
 
-        // Download most recent financial CSV for SPY Index fund from Yahoo Finance
-        Crawler crawler = new Crawler();
-        crawler.downloadFile();
-
-        // Parse daily CSV data, store it in a HashMap
-        HashMap<String, String> dailyData = new HashMap<String, String>(DataOps.getMarketData());
-
-        // Update experiment results, based on public sentiment
-        double adjustedTotal = DataOps.investmentResult(dailyData, DataOps.getExperimentTotal(experimentFile),
-                invest);
-
-        // Write performance data to both the Control File and Experiment File
-        DataOps.writeMarketResults(dailyData, adjustedTotal, DataOps.getControlTotal(controlFile));
+        // Download the days missing from the stored SPY price history from Yahoo Finance
+        try {
+            TradingStore store = DataOps.openStore();
+            try {
+                new MarketDataSync(store, new MarketDataFetcher(MarketDataFetcher.YAHOO_URL),
+                        new File(MarketDataSync.LOG_FILE)).sync(new String[]{SYMBOL}, EpochDays.today());
+            } finally {
+                store.close();
+            }
+        } catch (Exception e) {
+            System.out.println("Could not update the price history, downloading finance.csv instead: " + e);
+            Crawler crawler = new Crawler();
+            crawler.downloadFile();
+            try {
+                TradingStore store = DataOps.openStore();
+                try {
+                    store.putBars(PriceHistory.readCsv(SYMBOL, new File("finance.csv")));
+                } finally {
+                    store.close();
+                }
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+            }
+        }
 
+        // Trade both strategies over the days stored since their latest entries, as the backtests do, and write
+        // their totals and positions to the store
+        try {
+            TradingStore store = DataOps.openStore();
+            try {
+                DataOps.updateResults(store, SYMBOL, PolarityBasic.NET_SENTIMENT_THRESHOLD,
+                        ExecutionModel.fromSystemProperties());
+            } finally {
+                store.close();
+            }
+        } catch (IOException ioe) {
+            System.out.println("Sorry, there was an error updating the experiment's results.");
+            ioe.printStackTrace();
+        }
 
         // Check Current experiment Results, print to console
         DataReview.getExperimentResults();
@@ -97,4 +187,247 @@ public final class Main {
         // Uncomment the line below to run test suite and check application logic
         // UnitTests.runTestSuite();
     }
+
+    /**
+     * Running this method will:
+     *   - Load the compiled LingPipe classifier (training it first, only if the training data changed)
+     *   - Read the net sentiment of every day in the stored SPY price history from the store (see
+     *   TradingStore#dailySentiment), classifying only archived days that are missing or were classified by
+     *   another model
+     *   - Replay the experiment and the control over the whole history, trading as set by the "execution.*"
+     *   system properties (see ExecutionModel#fromSystemProperties), and write both equity curves to
+     *   "backtest.csv"
+     *
+     * @param threshold - Net sentiment, between -1 and 1, above which the experiment invests
+     */
+    public static void runBacktest(double threshold) {
+        try {
+            PolarityBasic pb = new PolarityBasic(new String[]{
+                    "POLARITY_DIR"});
+            pb.loadOrTrain();
+            TradingStore store = DataOps.openStore();
+            PriceSeries prices;
+            double[] sentiment;
+            try {
+                prices = store.bars(SYMBOL, Integer.MIN_VALUE, Integer.MAX_VALUE);
+                updateSentiment(pb, store);
+                sentiment = store.dailySentiment(prices);
+            } finally {
+                store.close();
+            }
+
+            long start = System.currentTimeMillis();
+            Backtest.Result result = new Backtest(prices, sentiment, ExecutionModel.fromSystemProperties())
+                    .run(threshold);
+            System.out.println("Replayed " + result.size() + " days in "
+                    + (System.currentTimeMillis() - start) + " ms");
+            System.out.println(result);
+            result.writeCsv(new File("backtest.csv"));
+        } catch (Throwable t) {
+            System.out.println("Thrown: " + t);
+            t.printStackTrace(System.out);
+        }
+    }
+
+    /**
+     * Utility method for bringing the daily sentiment kept in the store up to date with the tweet archive
+     * and the current model (see SentimentSeriesStore#update).
+     * @param pb - Loaded or trained classifier
+     * @param store - Store the sentiment is kept in
+     * @throws IOException - When the tweet archive cannot be read, or the store cannot be read or written
+     */
+    static void updateSentiment(PolarityBasic pb, TradingStore store) throws IOException {
+        SentimentSeriesStore.update(pb, new File(Backtest.TWEET_ARCHIVE_DIR), store);
+    }
+
+    /**
+     * Running this method will:
+     *   - Load the compiled LingPipe classifier (training it first, only if the training data changed)
+     *   - Read the net sentiment of every trading day from the store, classifying only archived days not yet
+     *   in it
+     *   - Replay the experiment for every symbol, sentiment window (a day, week and month of trading days)
+     *   and threshold from -0.5 to 0.5, on every core, and write the results to "sweep.csv"
+     *
+     * @param symbols - Symbols to replay, each with a price history already stored (see TradingStore#putBars)
+     */
+    public static void runSweep(String[] symbols) {
+        try {
+            PolarityBasic pb = new PolarityBasic(new String[]{
+                    "POLARITY_DIR"});
+            pb.loadOrTrain();
+            TradingStore store = DataOps.openStore();
+            PriceSeries[] prices = new PriceSeries[symbols.length];
+            double[][] sentiment = new double[symbols.length][];
+            try {
+                // Tweets are the same whatever is traded, so each day is classified once for every symbol
+                updateSentiment(pb, store);
+                for (int i = 0; i < symbols.length; ++i) {
+                    prices[i] = store.bars(symbols[i], Integer.MIN_VALUE, Integer.MAX_VALUE);
+                    sentiment[i] = store.dailySentiment(prices[i]);
+                }
+            } finally {
+                store.close();
+            }
+
+            long start = System.currentTimeMillis();
+            BacktestSweep sweep = new BacktestSweep(prices, sentiment, BacktestSweep.thresholds(-0.5, 0.5, 0.01),
+                    BacktestSweep.DEFAULT_WINDOWS, ExecutionModel.fromSystemProperties());
+            sweep.run(Runtime.getRuntime().availableProcessors());
+            System.out.println("Ran " + sweep.size() + " backtests in " + (System.currentTimeMillis() - start) + " ms");
+            sweep.printBest();
+            sweep.writeCsv(new File("sweep.csv"));
+        } catch (Throwable t) {
+            System.out.println("Thrown: " + t);
+            t.printStackTrace(System.out);
+        }
+    }
+
+    /**
+     * Running this method will:
+     *   - Load the compiled LingPipe classifier (training it first, only if the training data changed)
+     *   - Read the net sentiment of every day in the stored SPY price history, as @runBacktest does
+     *   - Replay every given strategy and the control side by side in a single pass over the history (see
+     *   Portfolio), and write every equity curve to "portfolio.csv"
+     *
+     * @param strategies - Sentiment-gated strategies, each as "threshold:window", e.g. "0.1:5" invests when
+     * the net sentiment of the last 5 trading days was above 0.1
+     */
+    public static void runPortfolio(String[] strategies) {
+        try {
+            PolarityBasic pb = new PolarityBasic(new String[]{
+                    "POLARITY_DIR"});
+            pb.loadOrTrain();
+            TradingStore store = DataOps.openStore();
+            final PriceSeries prices;
+            double[] sentiment;
+            try {
+                prices = store.bars(SYMBOL, Integer.MIN_VALUE, Integer.MAX_VALUE);
+                updateSentiment(pb, store);
+                sentiment = store.dailySentiment(prices);
+            } finally {
+                store.close();
+            }
+
+            Portfolio portfolio = new Portfolio(ExecutionModel.fromSystemProperties());
+            int control = portfolio.addPassive(TradingStore.CONTROL);
+            for (int i = 0; i < strategies.length; ++i) {
+                String[] parts = strategies[i].split(":");
+                int window = parts.length > 1 ? Integer.parseInt(parts[1]) : 1;
+                portfolio.addSentimentGated(strategies[i], Double.parseDouble(parts[0]), window);
+            }
+
+            final PrintWriter writer = new PrintWriter(new FileWriter("portfolio.csv"));
+            try {
+                writer.print("Date");
+                for (int s = 0; s < portfolio.size(); ++s) {
+                    writer.print("," + portfolio.name(s));
+                }
+                writer.print("\n");
+                final int numStrategies = portfolio.size();
+                long start = System.currentTimeMillis();
+                portfolio.run(prices, sentiment, 0, prices.size(), new Portfolio.BarHandler() {
+                    public void handle(int bar, double[] equity) {
+                        writer.print(EpochDays.toString(prices.date(bar)));
+                        for (int s = 0; s < numStrategies; ++s) {
+                            writer.print("," + equity[s]);
+                        }
+                        writer.print("\n");
+                    }
+                });
+                System.out.println("Replayed " + numStrategies + " strategies over " + prices.size() + " days in "
+                        + (System.currentTimeMillis() - start) + " ms");
+            } finally {
+                writer.close();
+            }
+            portfolio.printSummary(control);
+        } catch (Throwable t) {
+            System.out.println("Thrown: " + t);
+            t.printStackTrace(System.out);
+        }
+    }
+
+    /**
+     * Running this method will:
+     *   - Find the latest stored bar of each symbol (see TradingStore#lastBarDate)
+     *   - Download only the days after it, for many symbols at once, straight into the store
+     *   - Log each request to "fetchLog.csv"
+     *
+     * @param symbols - Symbols to bring up to date; symbols with no stored bars get five years of history
+     */
+    public static void runSync(String[] symbols) {
+        try {
+            TradingStore store = DataOps.openStore();
+            try {
+                MarketDataSync sync = new MarketDataSync(store, new MarketDataFetcher(MarketDataFetcher.YAHOO_URL),
+                        new File(MarketDataSync.LOG_FILE));
+                long start = System.currentTimeMillis();
+                sync.sync(symbols, EpochDays.today());
+                System.out.println("Synced " + symbols.length + " symbols in " + (System.currentTimeMillis() - start)
+                        + " ms");
+            } finally {
+                store.close();
+            }
+        } catch (Throwable t) {
+            System.out.println("Thrown: " + t);
+            t.printStackTrace(System.out);
+        }
+    }
+
+    /**
+     * Running this method will:
+     *   - Load the compiled LingPipe classifier (training it first, only if the training data changed)
+     *   - Open a TwitterStream and classify statuses as they arrive, for the given amount of time
+     *   - Keep every status in the tweet archive (see TweetArchive), flushed every minute
+     *   - Print the rolling sentiment aggregate every minute, and the final aggregate at the end
+     *
+     * @param durationMillis - How long to sample Twitter, in milliseconds
+     */
+    public static void runContinuousSession(long durationMillis) {
+        try {
+            PolarityBasic pb = new PolarityBasic(new String[]{
+                    "POLARITY_DIR"});
+            pb.loadOrTrain();
+            int numWorkers = Runtime.getRuntime().availableProcessors();
+            SentimentPipeline pipeline = new SentimentPipeline(pb.classifier(),
+                    new SentimentAggregate(1000), 10000, numWorkers);
+            pipeline.start();
+            TweetArchive archive = TweetArchive.open(new File(Backtest.TWEET_ARCHIVE_DIR));
+            try {
+                new Stream().executeContinuous(pipeline, archive, durationMillis, 60 * 1000);
+            } finally {
+                archive.close();
+            }
+        } catch (Throwable t) {
+            System.out.println("Thrown: " + t);
+            t.printStackTrace(System.out);
+        }
+    }
+
+    /**
+     * Running this method will add a file of newly labeled tweets to the classifier, using online training
+     * (see PolarityBasic#startOnlineTraining), and compile a new snapshot for classification. A category the
+     * classifier does not have is rejected before anything is trained or journaled.
+     *
+     * @param category - The category of every tweet in the file, "pos" or "neg"
+     * @param labeledFile - File containing one tweet per line
+     */
+    public static void labelTweets(String category, File labeledFile) {
+        try {
+            PolarityBasic pb = new PolarityBasic(new String[]{
+                    "POLARITY_DIR"});
+            if (!pb.isCategory(category)) {
+                System.out.println("Unknown category: " + category + ", expected one of "
+                        + Arrays.toString(pb.mCategories));
+                return;
+            }
+            OnlineTrainer trainer = pb.startOnlineTraining();
+            System.out.println("Trained on " + trainer.handleFile(labeledFile, category)
+                    + " tweets labeled " + category + " from: " + labeledFile);
+            trainer.snapshot();
+            trainer.close();
+        } catch (Throwable t) {
+            System.out.println("Thrown: " + t);
+            t.printStackTrace(System.out);
+        }
+    }
 }
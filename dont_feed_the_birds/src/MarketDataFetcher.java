@@ -0,0 +1,238 @@
+package com.company;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Class used for downloading daily bars of many symbols at once, over a range of dates, from Yahoo Finance or
+ * any server answering the same requests, such as @LocalQuoteServer.
+ *
+ * At most a fixed number of symbols are downloaded at the same time. Every request has a connect and a read
+ * timeout, so a stalled server cannot hang the download. A request that fails with a timeout, a network
+ * error or a server error (5xx or 429) is tried again after a delay that doubles with each attempt, with
+ * some random jitter so that many symbols do not retry in step, up to a fixed number of attempts. A 404
+ * means the server has no bars in the range, and is returned as an empty series without being retried; for
+ * a range with sessions, the caller reports it as missing data (see MarketDataSync).
+ *
+ * Responses are parsed as they arrive (see PriceHistory#readCsv), without being saved to a file first.
+ */
+public class MarketDataFetcher {
+
+    public static final String YAHOO_URL = "http://real-chart.finance.yahoo.com/table.csv";
+
+    static final int DEFAULT_PARALLELISM = 8;
+    static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 5000;
+    static final int DEFAULT_READ_TIMEOUT_MILLIS = 15000;
+    static final int DEFAULT_MAX_ATTEMPTS = 4;
+    static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 1000;
+    static final long MAX_BACKOFF_MILLIS = 30000;
+
+    /**
+     * Interface for receiving the outcome of each symbol's download. Called from the downloading threads,
+     * so implementations must be safe to call from several threads at once.
+     */
+    public interface Handler {
+        /**
+         * @param symbol - Ticker symbol
+         * @param bars - The symbol's bars in the range, sorted by date; empty if there were none
+         * @throws IOException - When the bars cannot be stored; the symbol is then counted as failed
+         */
+        void fetched(String symbol, PriceSeries bars) throws IOException;
+
+        /**
+         * @param symbol - Ticker symbol
+         * @param cause - Error of the last attempt
+         */
+        void failed(String symbol, IOException cause);
+    }
+
+    final String mBaseUrl;
+    final int mParallelism;
+    final int mConnectTimeoutMillis;
+    final int mReadTimeoutMillis;
+    final int mMaxAttempts;
+    final long mInitialBackoffMillis;
+
+    /**
+     * Creates a fetcher with the default parallelism, timeouts and retries.
+     * @param baseUrl - Address answering Yahoo Finance "table.csv" requests, e.g. @YAHOO_URL
+     */
+    public MarketDataFetcher(String baseUrl) {
+        this(baseUrl, DEFAULT_PARALLELISM, DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS,
+                DEFAULT_MAX_ATTEMPTS, DEFAULT_INITIAL_BACKOFF_MILLIS);
+    }
+
+    /**
+     * @param baseUrl - Address answering Yahoo Finance "table.csv" requests, e.g. @YAHOO_URL
+     * @param parallelism - Largest number of symbols downloaded at the same time
+     * @param connectTimeoutMillis - Longest wait for a connection, in milliseconds
+     * @param readTimeoutMillis - Longest wait for data once connected, in milliseconds
+     * @param maxAttempts - Largest number of requests made for one symbol
+     * @param initialBackoffMillis - Delay before the second attempt, doubled before each later one
+     */
+    public MarketDataFetcher(String baseUrl, int parallelism, int connectTimeoutMillis, int readTimeoutMillis,
+                             int maxAttempts, long initialBackoffMillis) {
+        if (parallelism < 1 || maxAttempts < 1) {
+            throw new IllegalArgumentException("Need at least one thread and one attempt");
+        }
+        mBaseUrl = baseUrl;
+        mParallelism = parallelism;
+        mConnectTimeoutMillis = connectTimeoutMillis;
+        mReadTimeoutMillis = readTimeoutMillis;
+        mMaxAttempts = maxAttempts;
+        mInitialBackoffMillis = initialBackoffMillis;
+    }
+
+    /**
+     * Method used for creating the URL of a symbol's bars between two dates, in the Yahoo Finance format,
+     * which numbers months from 0.
+     * @param baseUrl - Address answering "table.csv" requests
+     * @param symbol - Ticker symbol
+     * @param fromDay - First date, inclusive, in epoch days
+     * @param toDay - Last date, inclusive, in epoch days
+     * @return - the URL
+     */
+    public static String url(String baseUrl, String symbol, int fromDay, int toDay) {
+        int[] from = new int[3];
+        int[] to = new int[3];
+        EpochDays.toYmd(fromDay, from);
+        EpochDays.toYmd(toDay, to);
+        return baseUrl + "?s=" + symbol
+                + "&a=" + (from[1] - 1) + "&b=" + from[2] + "&c=" + from[0]
+                + "&d=" + (to[1] - 1) + "&e=" + to[2] + "&f=" + to[0]
+                + "&g=d&ignore=.csv";
+    }
+
+    /**
+     * Method used for downloading the bars of many symbols, a limited number at a time, and waiting
+     * until every symbol has either been fetched or failed.
+     * @param symbols - Ticker symbols
+     * @param fromDay - First date, inclusive, in epoch days
+     * @param toDay - Last date, inclusive, in epoch days
+     * @param handler - Receives each symbol's bars, or the reason it failed
+     * @return - the number of symbols that failed
+     * @throws InterruptedException - When interrupted while waiting for the downloads
+     */
+    public int fetchAll(String[] symbols, int fromDay, int toDay, Handler handler) throws InterruptedException {
+        int[] fromDays = new int[symbols.length];
+        int[] toDays = new int[symbols.length];
+        Arrays.fill(fromDays, fromDay);
+        Arrays.fill(toDays, toDay);
+        return fetchAll(symbols, fromDays, toDays, handler);
+    }
+
+    /**
+     * Method used for downloading a different range of bars for each symbol, e.g. only the days missing from
+     * each symbol's stored history, a limited number at a time.
+     * @param symbols - Ticker symbols
+     * @param fromDays - First date of each symbol's range, inclusive, in epoch days
+     * @param toDays - Last date of each symbol's range, inclusive, in epoch days
+     * @param handler - Receives each symbol's bars, or the reason it failed
+     * @return - the number of symbols that failed
+     * @throws InterruptedException - When interrupted while waiting for the downloads
+     */
+    public int fetchAll(String[] symbols, int[] fromDays, int[] toDays, final Handler handler)
+            throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(mParallelism, Math.max(1, symbols.length)));
+        int failures = 0;
+        try {
+            List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < symbols.length; ++i) {
+                final String symbol = symbols[i];
+                final int fromDay = fromDays[i];
+                final int toDay = toDays[i];
+                futures.add(executor.submit(new Callable<Boolean>() {
+                    public Boolean call() throws InterruptedException {
+                        try {
+                            handler.fetched(symbol, fetch(symbol, fromDay, toDay));
+                            return true;
+                        } catch (IOException ioe) {
+                            handler.failed(symbol, ioe);
+                            return false;
+                        }
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); ++i) {
+                try {
+                    if (!futures.get(i).get()) {
+                        ++failures;
+                    }
+                } catch (ExecutionException ee) {
+                    // A handler threw an unchecked exception; count the symbol as failed
+                    ee.printStackTrace();
+                    ++failures;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return failures;
+    }
+
+    /**
+     * Method used for downloading one symbol's bars, trying again after errors that may pass.
+     * @param symbol - Ticker symbol
+     * @param fromDay - First date, inclusive, in epoch days
+     * @param toDay - Last date, inclusive, in epoch days
+     * @return - the bars in the range, sorted by date; empty if the server has none
+     * @throws IOException - When every attempt failed, or the server refused the request
+     * @throws InterruptedException - When interrupted while waiting to try again
+     */
+    public PriceSeries fetch(String symbol, int fromDay, int toDay) throws IOException, InterruptedException {
+        String url = url(mBaseUrl, symbol, fromDay, toDay);
+        Random jitter = new Random();
+        long backoff = mInitialBackoffMillis;
+        IOException lastError = null;
+        for (int attempt = 1; attempt <= mMaxAttempts; ++attempt) {
+            if (attempt > 1) {
+                Thread.sleep(backoff + (long) (jitter.nextDouble() * backoff / 2));
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+            }
+            HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setConnectTimeout(mConnectTimeoutMillis);
+            connection.setReadTimeout(mReadTimeoutMillis);
+            boolean retry;
+            try {
+                int status = connection.getResponseCode();
+                if (status == HttpURLConnection.HTTP_OK) {
+                    InputStream in = connection.getInputStream();
+                    try {
+                        return PriceHistory.readCsv(symbol, in, url);
+                    } finally {
+                        in.close();
+                    }
+                }
+                if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+                    return new PriceSeries(symbol);
+                }
+                lastError = new IOException("HTTP " + status + " from: " + url);
+                retry = status >= 500 || status == 429;
+            } catch (IOException ioe) {
+                // Timeouts, refused connections and dropped responses may pass
+                lastError = ioe;
+                retry = true;
+            } finally {
+                connection.disconnect();
+            }
+            if (!retry) {
+                throw lastError;
+            }
+            System.out.println("Attempt " + attempt + " of " + mMaxAttempts + " for " + symbol + " failed: "
+                    + lastError.getMessage());
+        }
+        throw new IOException("Gave up on " + symbol + " after " + mMaxAttempts + " attempts", lastError);
+    }
+
+}
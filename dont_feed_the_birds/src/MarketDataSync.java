@@ -0,0 +1,150 @@
+package com.company;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class used for bringing the stored price history of many symbols up to date, downloading only the days
+ * each symbol is missing.
+ *
+ * For each symbol, the store is asked for the date of its latest bar (see TradingStore#lastBarDate), and only
+ * the days after it, up to today, are requested; a symbol with no bars yet gets @DEFAULT_BACKFILL_DAYS of
+ * history. Symbols already up to date, including those whose missing days are all weekends or holidays
+ * (see @TradingCalendar), are not requested at all. The downloads run concurrently (see
+ * @MarketDataFetcher), and each response is parsed as it arrives and put straight into the store, without
+ * an intermediate file.
+ *
+ * Every request is recorded in a CSV log ("fetchLog.csv"), one line per symbol: when it was fetched, the
+ * range asked for, the number of bars received, and "ok", "no data" if the server had no bars for a range
+ * with sessions (e.g. a 404 for an unknown symbol, or for today before the close), or the error.
+ */
+public class MarketDataSync {
+
+    public static final String LOG_FILE = "fetchLog.csv";
+    static final String LOG_HEADER = "FetchedAt,Symbol,From,To,Bars,Result";
+
+    // Days of history downloaded for a symbol with no stored bars
+    static final int DEFAULT_BACKFILL_DAYS = 5 * 365;
+
+    final TradingStore mStore;
+    final MarketDataFetcher mFetcher;
+    final File mLogFile;
+
+    /**
+     * @param store - Store holding the price history, updated by @sync
+     * @param fetcher - Fetcher to download bars with
+     * @param logFile - CSV file the requests are appended to
+     */
+    public MarketDataSync(TradingStore store, MarketDataFetcher fetcher, File logFile) {
+        mStore = store;
+        mFetcher = fetcher;
+        mLogFile = logFile;
+    }
+
+    /**
+     * Method used for downloading and storing every bar missing from each symbol's price history.
+     * @param symbols - Ticker symbols
+     * @param today - Last date to download, in epoch days, usually EpochDays#today
+     * @return - the number of symbols that could not be brought up to date
+     * @throws IOException - When the store or the log cannot be read or written
+     * @throws InterruptedException - When interrupted while waiting for the downloads
+     */
+    public int sync(String[] symbols, int today) throws IOException, InterruptedException {
+        TradingCalendar calendar = TradingCalendar.nyse();
+        List<String> missing = new ArrayList<String>();
+        List<Integer> fromDays = new ArrayList<Integer>();
+        for (int i = 0; i < symbols.length; ++i) {
+            int lastDay = mStore.lastBarDate(symbols[i]);
+            int fromDay = lastDay == Integer.MIN_VALUE ? today - DEFAULT_BACKFILL_DAYS : lastDay + 1;
+            // A range without sessions has no bars to download; one reaching outside the calendar, such as a
+            // history from before 1990, is downloaded without checking
+            if (fromDay <= today && (!calendar.covers(fromDay, today + 1)
+                    || calendar.sessionsBetween(fromDay, today + 1) > 0)) {
+                missing.add(symbols[i]);
+                fromDays.add(fromDay);
+            }
+        }
+        System.out.println((symbols.length - missing.size()) + " of " + symbols.length
+                + " symbols are up to date, downloading the rest");
+        if (missing.isEmpty()) {
+            return 0;
+        }
+
+        String[] requested = missing.toArray(new String[missing.size()]);
+        final int[] from = new int[requested.length];
+        final int[] to = new int[requested.length];
+        for (int i = 0; i < requested.length; ++i) {
+            from[i] = fromDays.get(i);
+            to[i] = today;
+        }
+        final Map<String, Integer> positions = new HashMap<String, Integer>();
+        for (int i = 0; i < requested.length; ++i) {
+            positions.put(requested[i], i);
+        }
+
+        boolean newLog = !mLogFile.exists() || mLogFile.length() == 0;
+        final PrintWriter log = new PrintWriter(new FileWriter(mLogFile, true));
+        final DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+        final int[] barsStored = new int[1];
+        final int[] noData = new int[1];
+        int failures;
+        try {
+            if (newLog) {
+                log.print(LOG_HEADER + "\n");
+            }
+            failures = mFetcher.fetchAll(requested, from, to, new MarketDataFetcher.Handler() {
+                public void fetched(String symbol, PriceSeries bars) throws IOException {
+                    // The store is not safe to write from several threads at once
+                    synchronized (mStore) {
+                        if (bars.size() > 0) {
+                            mStore.putBars(bars);
+                        }
+                    }
+                    // Only ranges with sessions are requested, so no bars at all (a 404) means the server
+                    // has no data for them yet, or none for the symbol
+                    if (bars.size() == 0) {
+                        int i = positions.get(symbol);
+                        System.out.println("No data for " + symbol + " from " + EpochDays.toString(from[i])
+                                + " to " + EpochDays.toString(to[i]));
+                    }
+                    record(symbol, bars.size(), bars.size() > 0 ? "ok" : "no data");
+                    synchronized (barsStored) {
+                        barsStored[0] += bars.size();
+                        if (bars.size() == 0) {
+                            ++noData[0];
+                        }
+                    }
+                }
+
+                public void failed(String symbol, IOException cause) {
+                    System.out.println("Could not download " + symbol + ": " + cause);
+                    record(symbol, 0, String.valueOf(cause.getMessage()).replace(',', ';'));
+                }
+
+                void record(String symbol, int numBars, String result) {
+                    int i = positions.get(symbol);
+                    synchronized (log) {
+                        log.print(dateFormat.format(new Date()) + "," + symbol + "," + EpochDays.toString(from[i])
+                                + "," + EpochDays.toString(to[i]) + "," + numBars + "," + result + "\n");
+                        log.flush();
+                    }
+                }
+            });
+        } finally {
+            log.close();
+        }
+        System.out.println("Stored " + barsStored[0] + " new bars for " + requested.length + " symbols, "
+                + noData[0] + " with no data, " + failures + " failed");
+        return failures;
+    }
+
+}
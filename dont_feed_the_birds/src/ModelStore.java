@@ -0,0 +1,164 @@
+package com.company;
+
+import com.aliasi.classify.DynamicLMClassifier;
+import com.aliasi.classify.JointClassifier;
+
+import com.aliasi.lm.NGramProcessLM;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Class used for storing a compiled LingPipe classifier on disk, so that it does not need to be
+ * retrained from the /POLARITY_DIR/txt_sentoken data-set every time the program runs.
+ *
+ * The model file begins with a fingerprint of the training corpus (the fold assignment of its documents,
+ * see FoldManifest#fingerprint, plus the settings used for training), followed by the compiled classifier.
+ * Calling @load returns the compiled classifier only if the fingerprint still matches the corpus; otherwise
+ * it returns null, and the caller is expected to retrain and call @save.
+ */
+public class ModelStore {
+
+    File mModelFile;
+    FoldManifest mManifest;
+    String mSettings;
+
+    /**
+     * @param modelFile - File in which the compiled classifier is kept
+     * @param manifest - Fold assignment of the training data, which lists its documents
+     * @param settings - Description of the training settings (e.g. n-gram length). Changing it invalidates the model.
+     */
+    public ModelStore(File modelFile, FoldManifest manifest, String settings) {
+        mModelFile = modelFile;
+        mManifest = manifest;
+        mSettings = settings;
+    }
+
+    /**
+     * Method used for loading the compiled classifier, if one exists and was trained on the current corpus.
+     * @return - the compiled classifier, or null if there is no model file or it is out of date
+     * @throws IOException - When the model file exists but cannot be read
+     * @throws ClassNotFoundException - When the model file does not contain a LingPipe classifier
+     */
+    public JointClassifier<CharSequence> load() throws IOException, ClassNotFoundException {
+        return load(mModelFile, fingerprint());
+    }
+
+    /**
+     * Method used for loading a compiled classifier from a model file, if it was written with the given
+     * fingerprint.
+     * @param modelFile - File in which the compiled classifier is kept
+     * @param fingerprint - Fingerprint the classifier must have been saved with
+     * @return - the compiled classifier, or null if there is no model file or it has another fingerprint
+     * @throws IOException - When the model file exists but cannot be read
+     * @throws ClassNotFoundException - When the model file does not contain a LingPipe classifier
+     */
+    static JointClassifier<CharSequence> load(File modelFile, String fingerprint)
+            throws IOException, ClassNotFoundException {
+        if (!modelFile.isFile()) {
+            System.out.println("No compiled model found at: " + modelFile);
+            return null;
+        }
+        ObjectInputStream objIn = new ObjectInputStream(
+                new BufferedInputStream(new FileInputStream(modelFile)));
+        try {
+            String storedFingerprint = objIn.readUTF();
+            if (!storedFingerprint.equals(fingerprint)) {
+                System.out.println("Compiled model at " + modelFile + " is out of date, retraining.");
+                return null;
+            }
+            @SuppressWarnings("unchecked")
+            JointClassifier<CharSequence> classifier
+                    = (JointClassifier<CharSequence>) objIn.readObject();
+            System.out.println("Loaded compiled model from: " + modelFile);
+            return classifier;
+        } finally {
+            objIn.close();
+        }
+    }
+
+    /**
+     * Method used for compiling a trained classifier and writing it to the model file, along with
+     * the fingerprint of the corpus it was trained on. The file is written to a temporary name first
+     * and then renamed, so a crash never leaves a half-written model behind.
+     * @param classifier - A trained classifier
+     * @return - the compiled classifier, read back from the model file
+     * @throws IOException - When the model file cannot be written
+     * @throws ClassNotFoundException - When the compiled classifier cannot be read back
+     */
+    public JointClassifier<CharSequence> save(DynamicLMClassifier<NGramProcessLM> classifier)
+            throws IOException, ClassNotFoundException {
+        return save(mModelFile, classifier, fingerprint());
+    }
+
+    /**
+     * Method used for compiling a trained classifier and writing it to a model file with the given
+     * fingerprint, as @save does.
+     * @param modelFile - File in which to keep the compiled classifier
+     * @param classifier - A trained classifier
+     * @param fingerprint - Fingerprint identifying what the classifier was trained on, for @load
+     * @return - the compiled classifier, read back from the model file
+     * @throws IOException - When the model file cannot be written
+     * @throws ClassNotFoundException - When the compiled classifier cannot be read back
+     */
+    static JointClassifier<CharSequence> save(File modelFile, DynamicLMClassifier<NGramProcessLM> classifier,
+                                              String fingerprint) throws IOException, ClassNotFoundException {
+        File tempFile = new File(modelFile.getPath() + ".tmp");
+        ObjectOutputStream objOut = new ObjectOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try {
+            objOut.writeUTF(fingerprint);
+            classifier.compileTo(objOut);
+        } finally {
+            objOut.close();
+        }
+        if (modelFile.exists() && !modelFile.delete()) {
+            throw new IOException("Could not replace model file: " + modelFile);
+        }
+        if (!tempFile.renameTo(modelFile)) {
+            throw new IOException("Could not rename " + tempFile + " to " + modelFile);
+        }
+        System.out.println("Compiled model written to: " + modelFile);
+        return load(modelFile, fingerprint);
+    }
+
+    /**
+     * Method used for computing a fingerprint of the training corpus. It is made from the fold assignment,
+     * which was listed once already, so neither the corpus directory nor its files are read again.
+     * @return - a hex String identifying the current state of the corpus and training settings
+     */
+    public String fingerprint() throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new IOException("SHA-1 is not available", nsae);
+        }
+        update(digest, mSettings);
+        update(digest, mManifest.fingerprint());
+        return toHex(digest.digest());
+    }
+
+    static void update(MessageDigest digest, String value) throws IOException {
+        digest.update(value.getBytes("UTF-8"));
+        digest.update((byte) '\n');
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (int i = 0; i < bytes.length; ++i) {
+            hex.append(Character.forDigit((bytes[i] >> 4) & 0xF, 16));
+            hex.append(Character.forDigit(bytes[i] & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+}
@@ -0,0 +1,418 @@
+package com.company;
+
+import com.aliasi.classify.Classification;
+import com.aliasi.classify.Classified;
+import com.aliasi.classify.DynamicLMClassifier;
+import com.aliasi.classify.JointClassifier;
+
+import com.aliasi.lm.NGramProcessLM;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Class used for training the sentiment classifier incrementally, from newly labeled tweets, while it
+ * is being used to classify.
+ *
+ * Labeled tweets passed to @handle are added to the dynamic classifier straight away, and appended to a
+ * journal file so they can be replayed after a restart (see @replayJournal). Classification never uses the
+ * dynamic classifier: @classifier returns the latest compiled snapshot, which is safe to share between
+ * threads. A new snapshot is compiled every @snapshotEvery labeled tweets, or whenever @snapshot is called.
+ *
+ * Each snapshot is written to the snapshot file, with a fingerprint made of the base model's fingerprint and
+ * the length of the journal it includes (see @fingerprint), so it can be loaded instead of trained while the
+ * journal is unchanged (see PolarityBasic#loadOrTrain). The dynamic classifier is written to the state file
+ * alongside it, so a restart reads it back (see @restoreState) and replays only the tweets journaled since,
+ * instead of training on the base data-set and the whole journal again.
+ *
+ * Training and compiling snapshots are synchronized with each other; classification is not, so it never
+ * waits for training.
+ */
+public class OnlineTrainer {
+
+    final String[] mCategories;
+    final String mBaseFingerprint;
+    final File mJournalFile;
+    final File mSnapshotFile;
+    final File mStateFile;
+    final int mSnapshotEvery;
+    DynamicLMClassifier<NGramProcessLM> mClassifier;
+    // Number of texts of each category the dynamic classifier was trained on, in the order of mCategories
+    long[] mCategoryCounts;
+    volatile JointClassifier<CharSequence> mServingClassifier;
+    OutputStream mJournal;
+    // Bytes of the journal trained on, which are all of it once it has been replayed
+    long mJournalLength;
+    boolean mRestored;
+    long mNumTrained;
+    long mSinceSnapshot;
+
+    /**
+     * @param categories - Categories of the classifier; labels outside them are rejected
+     * @param baseFingerprint - Fingerprint of the base model (see ModelStore#fingerprint)
+     * @param journalFile - File to which labeled tweets are appended
+     * @param snapshotFile - File to which each compiled snapshot is written
+     * @param stateFile - File to which the dynamic classifier is written with each snapshot
+     * @param snapshotEvery - Number of labeled tweets between snapshots
+     */
+    public OnlineTrainer(String[] categories, String baseFingerprint, File journalFile, File snapshotFile,
+                         File stateFile, int snapshotEvery) {
+        mCategories = categories;
+        mBaseFingerprint = baseFingerprint;
+        mJournalFile = journalFile;
+        mSnapshotFile = snapshotFile;
+        mStateFile = stateFile;
+        mSnapshotEvery = snapshotEvery;
+    }
+
+    /**
+     * Method used for starting from a classifier trained on the base data-set only, when there is no state
+     * to restore. The whole journal is then replayed by @replayJournal.
+     * @param classifier - Dynamic classifier, already trained on the base data-set
+     * @param categoryCounts - Number of texts of each category it was trained on, in the order of the
+     * categories
+     */
+    public synchronized void startFrom(DynamicLMClassifier<NGramProcessLM> classifier, long[] categoryCounts) {
+        mClassifier = classifier;
+        mCategoryCounts = categoryCounts.clone();
+        mJournalLength = 0;
+        mRestored = false;
+    }
+
+    /**
+     * Method used for reading back the dynamic classifier written with the last snapshot, if it was trained
+     * on the current base model and on a part of the current journal. @replayJournal then trains it on the
+     * rest of the journal only.
+     * @return - true if the classifier was restored, false if it must be trained and passed to @startFrom
+     * @throws IOException - When the state file exists but cannot be read
+     */
+    public synchronized boolean restoreState() throws IOException {
+        if (!mStateFile.isFile()) {
+            return false;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mStateFile)));
+        try {
+            if (!in.readUTF().equals(mBaseFingerprint)) {
+                System.out.println("Online training state at " + mStateFile + " is out of date, retraining.");
+                return false;
+            }
+            long journalLength = in.readLong();
+            if (journalLength > mJournalFile.length()) {
+                System.out.println("Online training state at " + mStateFile
+                        + " is ahead of the journal, retraining.");
+                return false;
+            }
+            long numTrained = in.readLong();
+            int numCategories = in.readInt();
+            String[] categories = new String[numCategories];
+            long[] counts = new long[numCategories];
+            NGramProcessLM[] languageModels = new NGramProcessLM[numCategories];
+            for (int i = 0; i < numCategories; ++i) {
+                categories[i] = in.readUTF();
+                counts[i] = in.readLong();
+                int maxNGram = in.readInt();
+                double lambdaFactor = in.readDouble();
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                if (bytes.length == 0) {
+                    // A category never trained on is written without its model
+                    languageModels[i] = new NGramProcessLM(maxNGram);
+                    languageModels[i].setLambdaFactor(lambdaFactor);
+                } else {
+                    languageModels[i] = NGramProcessLM.readFrom(new ByteArrayInputStream(bytes));
+                }
+            }
+            if (numCategories != mCategories.length
+                    || !Arrays.asList(categories).containsAll(Arrays.asList(mCategories))) {
+                System.out.println("Online training state at " + mStateFile + " has other categories, retraining.");
+                return false;
+            }
+
+            // The classifier starts with one text of each category, as when it was first created
+            DynamicLMClassifier<NGramProcessLM> classifier
+                    = new DynamicLMClassifier<NGramProcessLM>(categories, languageModels);
+            long[] categoryCounts = new long[mCategories.length];
+            for (int i = 0; i < numCategories; ++i) {
+                if (counts[i] > 0) {
+                    classifier.categoryDistribution().train(categories[i], counts[i]);
+                }
+                categoryCounts[indexOf(categories[i])] = counts[i];
+            }
+            mClassifier = classifier;
+            mCategoryCounts = categoryCounts;
+            mJournalLength = journalLength;
+            mNumTrained = numTrained;
+            mRestored = true;
+            System.out.println("Restored online training state after " + numTrained + " labeled tweets from: "
+                    + mStateFile);
+            return true;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Method used for training on the labeled tweets journaled by earlier runs and not yet trained on, then
+     * publishing a snapshot. Lines labeled with an unknown category are skipped, and a last line without its
+     * newline, cut short by a crash, is removed from the journal. Call this once, after
+     * @restoreState or @startFrom, and before any calls to @handle.
+     * @return - the number of labeled tweets replayed
+     * @throws IOException - When the journal cannot be read, or the snapshot cannot be written
+     * @throws ClassNotFoundException - When the snapshot cannot be compiled
+     */
+    public synchronized long replayJournal() throws IOException, ClassNotFoundException {
+        long numReplayed = 0;
+        long numSkipped = 0;
+        if (mJournalFile.isFile()) {
+            FileInputStream in = new FileInputStream(mJournalFile);
+            try {
+                in.getChannel().position(mJournalLength);
+                InputStream input = new BufferedInputStream(in);
+                ByteArrayOutputStream lineBytes = new ByteArrayOutputStream();
+                int b;
+                while ((b = input.read()) != -1) {
+                    if (b != '\n') {
+                        lineBytes.write(b);
+                        continue;
+                    }
+                    // Only lines ending in a newline were completely written
+                    String line = lineBytes.toString("UTF-8");
+                    mJournalLength += lineBytes.size() + 1;
+                    lineBytes.reset();
+                    int tab = line.indexOf('\t');
+                    if (tab > 0) {
+                        String category = line.substring(0, tab);
+                        if (indexOf(category) < 0) {
+                            ++numSkipped;
+                            continue;
+                        }
+                        train(line.substring(tab + 1), category);
+                        ++numReplayed;
+                    }
+                }
+            } finally {
+                in.close();
+            }
+            truncateJournal();
+        }
+        System.out.println("Replayed " + numReplayed + " labeled tweets from: " + mJournalFile);
+        if (numSkipped > 0) {
+            System.out.println("Skipped " + numSkipped + " journaled tweets with a category other than "
+                    + Arrays.toString(mCategories));
+        }
+
+        // A restored classifier with nothing new to replay is what the last snapshot was compiled from
+        if (mRestored && numReplayed == 0) {
+            JointClassifier<CharSequence> compiled = ModelStore.load(mSnapshotFile, fingerprint());
+            if (compiled != null) {
+                mServingClassifier = compiled;
+                mSinceSnapshot = 0;
+                return numReplayed;
+            }
+        }
+        snapshot();
+        return numReplayed;
+    }
+
+    /**
+     * Method used for training on a single newly labeled tweet. The tweet is journaled before it is
+     * trained on, and a new snapshot is compiled if enough tweets have been trained on since the last one.
+     * @param text - Text of the tweet
+     * @param category - The tweet's category, one of the classifier's categories, e.g. "pos" or "neg"
+     * @throws IllegalArgumentException - When the category is not one of the classifier's; nothing is journaled
+     * @throws IOException - When the journal or snapshot cannot be written
+     * @throws ClassNotFoundException - When the snapshot cannot be compiled
+     */
+    public synchronized void handle(String text, String category) throws IOException, ClassNotFoundException {
+        checkCategory(category);
+        if (mJournal == null) {
+            mJournal = new FileOutputStream(mJournalFile, true);
+        }
+        // Tabs and line breaks would corrupt the journal, and carry no sentiment
+        byte[] line = (category + "\t" + text.replace('\t', ' ').replace('\r', ' ').replace('\n', ' ') + "\n")
+                .getBytes("UTF-8");
+        mJournal.write(line);
+        mJournal.flush();
+        mJournalLength += line.length;
+        train(text, category);
+        if (++mSinceSnapshot >= mSnapshotEvery) {
+            snapshot();
+        }
+    }
+
+    /**
+     * Method used for training on a file of tweets which all have the same label, one tweet per line.
+     * @param labeledFile - File containing one tweet per line
+     * @param category - The category of every tweet in the file, e.g. "pos" or "neg"
+     * @return - the number of tweets trained on
+     * @throws IllegalArgumentException - When the category is not one of the classifier's; nothing is journaled
+     * @throws IOException - When the file cannot be read, or the journal or snapshot cannot be written
+     * @throws ClassNotFoundException - When a snapshot cannot be compiled
+     */
+    public long handleFile(File labeledFile, String category) throws IOException, ClassNotFoundException {
+        checkCategory(category);
+        List<String> tweets = PolarityBasic.readTweets(labeledFile);
+        for (int i = 0; i < tweets.size(); ++i) {
+            handle(tweets.get(i), category);
+        }
+        return tweets.size();
+    }
+
+    /**
+     * Method used for compiling the dynamic classifier and publishing the result for classification. The
+     * snapshot is written to the snapshot file, and the dynamic classifier to the state file.
+     * Training waits while the snapshot is compiled; classification continues with the previous snapshot.
+     * @return - the new snapshot
+     * @throws IOException - When the snapshot or state cannot be written
+     * @throws ClassNotFoundException - When the snapshot cannot be compiled
+     */
+    public synchronized JointClassifier<CharSequence> snapshot() throws IOException, ClassNotFoundException {
+        long start = System.currentTimeMillis();
+        JointClassifier<CharSequence> compiled = ModelStore.save(mSnapshotFile, mClassifier, fingerprint());
+        mServingClassifier = compiled;
+        mSinceSnapshot = 0;
+        writeState();
+        System.out.println("Snapshot after " + mNumTrained + " labeled tweets compiled in "
+                + (System.currentTimeMillis() - start) + " ms");
+        return compiled;
+    }
+
+    /**
+     * @return - the latest compiled snapshot, or null if none has been compiled yet. Never blocks.
+     */
+    public JointClassifier<CharSequence> classifier() {
+        return mServingClassifier;
+    }
+
+    /**
+     * @return - the number of labeled tweets trained on, including those replayed from the journal
+     */
+    public synchronized long numTrained() {
+        return mNumTrained;
+    }
+
+    /**
+     * @return - the fingerprint of the model trained so far, which the next snapshot is written with
+     */
+    public synchronized String fingerprint() {
+        return fingerprint(mBaseFingerprint, mJournalLength);
+    }
+
+    /**
+     * Utility method identifying a model trained on the base data-set and on the first bytes of the journal.
+     * @param baseFingerprint - Fingerprint of the base model (see ModelStore#fingerprint)
+     * @param journalLength - Bytes of the journal trained on
+     * @return - the base fingerprint itself if nothing was journaled, otherwise one including the length
+     */
+    static String fingerprint(String baseFingerprint, long journalLength) {
+        return journalLength == 0 ? baseFingerprint : baseFingerprint + "+journal=" + journalLength;
+    }
+
+    /**
+     * Method used for closing the journal.
+     * @throws IOException - When the journal cannot be closed
+     */
+    public synchronized void close() throws IOException {
+        if (mJournal != null) {
+            mJournal.close();
+            mJournal = null;
+        }
+    }
+
+    /**
+     * Method used for cutting off a last line left without its newline by a crash during @handle, so the
+     * next labeled tweet is appended on a line of its own.
+     */
+    void truncateJournal() throws IOException {
+        long length = mJournalFile.length();
+        if (length <= mJournalLength) {
+            return;
+        }
+        RandomAccessFile journal = new RandomAccessFile(mJournalFile, "rw");
+        try {
+            journal.setLength(mJournalLength);
+        } finally {
+            journal.close();
+        }
+        System.out.println("Discarded " + (length - mJournalLength) + " bytes of an incomplete line at the end of: "
+                + mJournalFile);
+    }
+
+    void checkCategory(String category) {
+        if (indexOf(category) < 0) {
+            throw new IllegalArgumentException("Unknown category: " + category + ", expected one of "
+                    + Arrays.toString(mCategories));
+        }
+    }
+
+    int indexOf(String category) {
+        for (int i = 0; i < mCategories.length; ++i) {
+            if (mCategories[i].equals(category)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    void train(String text, String category) {
+        mClassifier.handle(new Classified<CharSequence>(text, new Classification(category)));
+        ++mCategoryCounts[indexOf(category)];
+        ++mNumTrained;
+    }
+
+    /**
+     * Method used for writing the dynamic classifier, with the fingerprint and journal length it was trained
+     * on. Each category's language model is written with its n-gram length and interpolation factor, so that
+     * one not trained on yet can be written without its counts and recreated empty. The file is written to a
+     * temporary name first and then renamed, so a crash never leaves a half-written state behind.
+     */
+    void writeState() throws IOException {
+        File tempFile = new File(mStateFile.getPath() + ".tmp");
+        FileOutputStream fileOut = new FileOutputStream(tempFile);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+        try {
+            out.writeUTF(mBaseFingerprint);
+            out.writeLong(mJournalLength);
+            out.writeLong(mNumTrained);
+            out.writeInt(mCategories.length);
+            for (int i = 0; i < mCategories.length; ++i) {
+                NGramProcessLM languageModel = mClassifier.languageModel(mCategories[i]);
+                // NGramProcessLM#writeTo rejects a model without counts, so an untrained one is left empty
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                if (mCategoryCounts[i] > 0) {
+                    languageModel.writeTo(bytes);
+                }
+                out.writeUTF(mCategories[i]);
+                out.writeLong(mCategoryCounts[i]);
+                out.writeInt(languageModel.maxNGram());
+                out.writeDouble(languageModel.getLambdaFactor());
+                out.writeInt(bytes.size());
+                bytes.writeTo(out);
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (mStateFile.exists() && !mStateFile.delete()) {
+            throw new IOException("Could not replace online training state: " + mStateFile);
+        }
+        if (!tempFile.renameTo(mStateFile)) {
+            throw new IOException("Could not rename " + tempFile + " to " + mStateFile);
+        }
+    }
+
+}
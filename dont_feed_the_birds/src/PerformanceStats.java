@@ -0,0 +1,269 @@
+package com.company;
+
+import java.io.IOException;
+
+/**
+ * Class used for measuring how a strategy performed, from its history of totals, in a single pass.
+ *
+ * Entries are added in time order with @handle, so a strategy's whole history can be streamed straight from
+ * the store with TradingStore#scanHistory, or a stock's closing prices from a @PriceSeries with @of, without
+ * keeping any of it in memory. Only running sums are kept: the first and latest totals, the highest total
+ * so far for drawdowns, and the count, mean and squared deviations of daily returns (Welford's method).
+ *
+ * Volatility, Sharpe and Sortino ratios are annualized from daily returns, over 252 trading days a year,
+ * with a risk-free rate of zero. The hit rate is the fraction of days whose total moved that moved up, so
+ * days the experiment stayed out of the market do not count against it.
+ */
+public class PerformanceStats implements TradingStore.HistoryHandler {
+
+    static final int TRADING_DAYS_PER_YEAR = 252;
+    static final double MILLIS_PER_YEAR = 365.25 * 24 * 60 * 60 * 1000;
+
+    final String mName;
+
+    int mCount;
+    long mFirstTimestamp;
+    long mLastTimestamp;
+    double mFirstTotal;
+    double mLastTotal;
+
+    double mPeak;
+    double mMaxDrawdown;
+    long mPeakTimestamp;
+    long mMaxDrawdownPeakTimestamp;
+    long mMaxDrawdownTroughTimestamp;
+
+    int mNumReturns;
+    double mMeanReturn;
+    double mReturnSquares;
+    double mDownsideSquares;
+    int mUpDays;
+    int mDownDays;
+
+    /**
+     * @param name - Name of the strategy or stock measured, for printing
+     */
+    public PerformanceStats(String name) {
+        mName = name;
+    }
+
+    /**
+     * Method used for measuring part of a strategy's history, streamed from the store.
+     * @param store - Store holding the history
+     * @param strategy - TradingStore#EXPERIMENT or TradingStore#CONTROL
+     * @param fromTimestamp - Earliest time to measure, inclusive, in milliseconds since 1970
+     * @param toTimestamp - Latest time to measure, inclusive, in milliseconds since 1970
+     * @return - the strategy's performance
+     * @throws IOException - When the history cannot be read
+     */
+    public static PerformanceStats scan(TradingStore store, String strategy, long fromTimestamp, long toTimestamp)
+            throws IOException {
+        PerformanceStats stats = new PerformanceStats(strategy);
+        store.scanHistory(strategy, fromTimestamp, toTimestamp, stats);
+        return stats;
+    }
+
+    /**
+     * Method used for measuring a stock bought and held between two dates, e.g. a well-known fund to
+     * compare the experiment with.
+     * @param prices - Daily prices of the stock
+     * @param fromDay - First date, inclusive, in epoch days
+     * @param toDay - Last date, inclusive, in epoch days
+     * @return - the stock's performance, measured on its daily closing prices
+     */
+    public static PerformanceStats of(PriceSeries prices, int fromDay, int toDay) {
+        PerformanceStats stats = new PerformanceStats(prices.symbol());
+        int to = prices.floorIndex(toDay);
+        for (int i = prices.ceilingIndex(fromDay); i >= 0 && i <= to; ++i) {
+            stats.handle(EpochDays.toMillis(prices.date(i)), prices.close(i), prices.open(i), prices.close(i));
+        }
+        return stats;
+    }
+
+    /**
+     * Method used for adding the next entry of the history.
+     * @param timestamp - Time of the entry, in milliseconds since 1970, no earlier than the previous entry
+     * @param total - Total assets at that time
+     * @param openingPrice - The day's opening price, unused
+     * @param closingPrice - The day's closing price, unused
+     */
+    public void handle(long timestamp, double total, double openingPrice, double closingPrice) {
+        if (mCount == 0) {
+            mFirstTimestamp = timestamp;
+            mFirstTotal = total;
+            mPeak = total;
+            mPeakTimestamp = timestamp;
+        } else if (mLastTotal > 0) {
+            double dailyReturn = total / mLastTotal - 1.0;
+            ++mNumReturns;
+            double delta = dailyReturn - mMeanReturn;
+            mMeanReturn += delta / mNumReturns;
+            mReturnSquares += delta * (dailyReturn - mMeanReturn);
+            if (dailyReturn < 0) {
+                mDownsideSquares += dailyReturn * dailyReturn;
+                ++mDownDays;
+            } else if (dailyReturn > 0) {
+                ++mUpDays;
+            }
+        }
+        if (total > mPeak) {
+            mPeak = total;
+            mPeakTimestamp = timestamp;
+        } else if (mPeak > 0 && 1.0 - total / mPeak > mMaxDrawdown) {
+            mMaxDrawdown = 1.0 - total / mPeak;
+            mMaxDrawdownPeakTimestamp = mPeakTimestamp;
+            mMaxDrawdownTroughTimestamp = timestamp;
+        }
+        mLastTimestamp = timestamp;
+        mLastTotal = total;
+        ++mCount;
+    }
+
+    public String name() {
+        return mName;
+    }
+
+    /**
+     * @return - the number of entries measured
+     */
+    public int count() {
+        return mCount;
+    }
+
+    public long firstTimestamp() {
+        return mFirstTimestamp;
+    }
+
+    public long lastTimestamp() {
+        return mLastTimestamp;
+    }
+
+    public double firstTotal() {
+        return mFirstTotal;
+    }
+
+    public double lastTotal() {
+        return mLastTotal;
+    }
+
+    /**
+     * @return - the growth of the total from the first entry to the latest, e.g. 0.05 for 5%
+     */
+    public double cumulativeReturn() {
+        return mCount == 0 || mFirstTotal <= 0 ? Double.NaN : mLastTotal / mFirstTotal - 1.0;
+    }
+
+    /**
+     * @return - the compound yearly growth of the total, or NaN if the history spans no time
+     */
+    public double annualizedReturn() {
+        double years = (mLastTimestamp - mFirstTimestamp) / MILLIS_PER_YEAR;
+        if (years <= 0 || Double.isNaN(cumulativeReturn())) {
+            return Double.NaN;
+        }
+        return Math.pow(1.0 + cumulativeReturn(), 1.0 / years) - 1.0;
+    }
+
+    /**
+     * @return - the largest fall from a previous high, e.g. 0.2 for a 20% drawdown
+     */
+    public double maxDrawdown() {
+        return mMaxDrawdown;
+    }
+
+    /**
+     * @return - the time of the high before the largest drawdown, in milliseconds since 1970
+     */
+    public long maxDrawdownPeakTimestamp() {
+        return mMaxDrawdownPeakTimestamp;
+    }
+
+    /**
+     * @return - the time of the low of the largest drawdown, in milliseconds since 1970
+     */
+    public long maxDrawdownTroughTimestamp() {
+        return mMaxDrawdownTroughTimestamp;
+    }
+
+    /**
+     * @return - the number of daily returns measured, one less than @count
+     */
+    public int numReturns() {
+        return mNumReturns;
+    }
+
+    /**
+     * @return - the mean daily return
+     */
+    public double meanReturn() {
+        return mNumReturns == 0 ? Double.NaN : mMeanReturn;
+    }
+
+    /**
+     * @return - the annualized standard deviation of daily returns
+     */
+    public double volatility() {
+        if (mNumReturns < 2) {
+            return Double.NaN;
+        }
+        return Math.sqrt(mReturnSquares / (mNumReturns - 1) * TRADING_DAYS_PER_YEAR);
+    }
+
+    /**
+     * @return - the annualized mean daily return divided by @volatility
+     */
+    public double sharpeRatio() {
+        return meanReturn() * TRADING_DAYS_PER_YEAR / volatility();
+    }
+
+    /**
+     * @return - the annualized mean daily return divided by the annualized deviation of losing days
+     */
+    public double sortinoRatio() {
+        if (mNumReturns < 2) {
+            return Double.NaN;
+        }
+        double downside = Math.sqrt(mDownsideSquares / mNumReturns * TRADING_DAYS_PER_YEAR);
+        return meanReturn() * TRADING_DAYS_PER_YEAR / downside;
+    }
+
+    /**
+     * @return - the fraction of days whose total moved that moved up
+     */
+    public double hitRate() {
+        int moved = mUpDays + mDownDays;
+        return moved == 0 ? Double.NaN : (double) mUpDays / moved;
+    }
+
+    /**
+     * Method used for printing a comparison of two measured strategies, side by side.
+     * @param strategy - The strategy being judged, usually the experiment
+     * @param benchmark - The strategy it is compared with, usually the control or a well-known fund
+     */
+    public static void printComparison(PerformanceStats strategy, PerformanceStats benchmark) {
+        System.out.println(String.format("%-22s%16s%16s%16s", "", strategy.name(), benchmark.name(), "Difference"));
+        printRow("Cumulative return", strategy.cumulativeReturn(), benchmark.cumulativeReturn(), true);
+        printRow("Annualized return", strategy.annualizedReturn(), benchmark.annualizedReturn(), true);
+        printRow("Volatility", strategy.volatility(), benchmark.volatility(), true);
+        printRow("Max drawdown", strategy.maxDrawdown(), benchmark.maxDrawdown(), true);
+        printRow("Sharpe ratio", strategy.sharpeRatio(), benchmark.sharpeRatio(), false);
+        printRow("Sortino ratio", strategy.sortinoRatio(), benchmark.sortinoRatio(), false);
+        printRow("Hit rate", strategy.hitRate(), benchmark.hitRate(), true);
+    }
+
+    static void printRow(String label, double value, double benchmark, boolean percent) {
+        String format = percent ? "%15.2f%%" : "%16.2f";
+        double scale = percent ? 100.0 : 1.0;
+        System.out.println(String.format("%-22s" + format + format + format, label, value * scale,
+                benchmark * scale, (value - benchmark) * scale));
+    }
+
+    @Override
+    public String toString() {
+        return mName + ": " + mCount + " entries, cumulative return "
+                + String.format("%.2f%%", 100 * cumulativeReturn())
+                + ", max drawdown " + String.format("%.2f%%", 100 * mMaxDrawdown)
+                + ", Sharpe " + String.format("%.2f", sharpeRatio());
+    }
+
+}
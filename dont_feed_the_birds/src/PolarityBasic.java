@@ -4,12 +4,23 @@ import com.aliasi.util.Files;
 
 import com.aliasi.classify.Classification;
 import com.aliasi.classify.Classified;
+import com.aliasi.classify.ConditionalClassification;
 import com.aliasi.classify.DynamicLMClassifier;
+import com.aliasi.classify.JointClassifier;
 
 import com.aliasi.lm.NGramProcessLM;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileReader;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Class used for analyzing sentiment in the sample taken from Twitter.
@@ -22,9 +33,15 @@ import java.io.IOException;
  * again tested on a known-data set. Anything over about 80-percent accuracy is generally considered
  * acceptable for LingPipe.
  *
+ * Calling @loadOrTrain instead of @run loads a previously compiled classifier from "polarity.model"
+ * (see @ModelStore), and only trains and evaluates when the training data has changed since it was compiled.
+ * Once the classifier is compiled, @evaluate and @investPerTweet classify on every core, using @BatchClassifier
+ * on a pool of daemon threads which is started once and kept for later batches.
+ *
  * Calling @invest, and passing in a data file to evaluate, returns a determination on whether the
  * user should invest in the stock market in the near future (next few hours), assuming the data passed in
- * represents public sentiment collected immediately prior.
+ * represents public sentiment collected immediately prior. @investPerTweet makes the same determination, but
+ * classifies every tweet in the file on its own and combines the results into a net sentiment score.
  */
 public class PolarityBasic {
 
@@ -32,6 +49,16 @@ public class PolarityBasic {
     File mPolarityDir;
     String[] mCategories;
     DynamicLMClassifier<NGramProcessLM> mClassifier;
+    JointClassifier<CharSequence> mCompiledClassifier;
+    CorpusPack mCorpus;
+    FoldManifest mFolds;
+    // Number of training texts of each category, in the order of mCategories, once @train has run
+    long[] mTrainingCounts;
+    OnlineTrainer mOnlineTrainer;
+    SentimentAggregate mLastAggregate;
+    String mModelFingerprint;
+    ExecutorService mExecutor;
+    int mNGram;
 
     PolarityBasic(String[] args) {
         System.out.println("\nTRAINING LINGPIPE CLASSIFIER & TESTING ITS ACCURACY:");
@@ -39,10 +66,10 @@ public class PolarityBasic {
         mPolarityDir = new File(args[0],"txt_sentoken");
         System.out.println("\nData Directory=" + mPolarityDir);
         mCategories = mPolarityDir.list();
-        int nGram = 8;
+        mNGram = 8;
         mClassifier
                 = DynamicLMClassifier
-                .createNGramProcess(mCategories,nGram);
+                .createNGramProcess(mCategories,mNGram);
     }
 
     /**
@@ -56,21 +83,149 @@ public class PolarityBasic {
     }
 
     /**
-     * Utility method used within @train and @evaluate for keeping track of which files should be
-     * used for training and which should be used for evaluation and confirmation that sentiment
-     * analysis algorithm is working accurately.
-     *
-     * Changing the number below will change the data set on which the @evaluation method is tested.
-     * User can select a number 1-9, corresponding to file names within the /POLARITY_DIR/txt_sentoken
-     * folders.
+     * Method used for getting a ready-to-use classifier as cheaply as possible. If a compiled model
+     * trained on the current data-set exists, it is loaded. Otherwise the classifier is trained and
+     * evaluated as in @run, then compiled and stored for the next call.
      *
-     * @param file - Pass in a file and determine whether it should be used for training, based on
-     *             file name.
-     * @return - A boolean value, "True" if it should be used for training, and not evaluation.
-     * "False" if the file should be used for evaluation and not training.
+     * When tweets have been labeled (see @startOnlineTraining), the classifier also includes them: the
+     * snapshot in "polarity.online.model" is loaded if it was compiled from the current journal, and
+     * otherwise online training resumes to compile one.
+     * @throws ClassNotFoundException - when the model file does not contain a classifier
+     * @throws IOException - when the model file or input files cannot be read or written
+     */
+    void loadOrTrain() throws ClassNotFoundException, IOException {
+        ModelStore store = modelStore();
+        mCompiledClassifier = store.load();
+        if (mCompiledClassifier == null) {
+            train();
+            mCompiledClassifier = store.save(mClassifier);
+            evaluate();
+        }
+
+        long journalLength = new File(LABELED_TWEETS_FILE).length();
+        if (journalLength > 0) {
+            String fingerprint = OnlineTrainer.fingerprint(store.fingerprint(), journalLength);
+            JointClassifier<CharSequence> snapshot = ModelStore.load(new File(ONLINE_MODEL_FILE), fingerprint);
+            if (snapshot != null) {
+                mCompiledClassifier = snapshot;
+                mModelFingerprint = fingerprint;
+            } else {
+                startOnlineTraining();
+            }
+        }
+    }
+
+    /**
+     * Utility method giving the store of the compiled classifier, which depends on the training data, the
+     * n-gram length and the fold assignment.
+     * @return - the store used by @loadOrTrain
+     * @throws IOException - when input files cannot be found.
+     */
+    ModelStore modelStore() throws IOException {
+        return new ModelStore(new File(MODEL_FILE), folds(), "nGram=" + mNGram + ",testFold=" + TEST_FOLD);
+    }
+
+    /**
+     * Utility method identifying the model returned by @classifier, so that anything it classified can tell
+     * when it needs classifying again (see @SentimentSeriesStore). When training online, the number of
+     * labeled tweets trained on is part of the fingerprint (see OnlineTrainer#fingerprint).
+     * @return - a String which changes whenever the model changes
+     * @throws IOException - when input files cannot be found.
+     */
+    String modelFingerprint() throws IOException {
+        if (mOnlineTrainer != null) {
+            return mOnlineTrainer.fingerprint();
+        }
+        if (mModelFingerprint == null) {
+            mModelFingerprint = modelStore().fingerprint();
+        }
+        return mModelFingerprint;
+    }
+
+    /**
+     * Method used for switching to online training, where newly labeled tweets are added to the classifier
+     * while it is in use (see @OnlineTrainer). Every tweet labeled so far is kept in "labeledTweets.txt".
+     * The dynamic classifier saved with the last snapshot, in "polarity.online.state", is read back and
+     * trained on the tweets labeled since; only if it is missing or out of date is the classifier trained on
+     * the base data-set and the whole journal. From then on @classifier returns the trainer's latest compiled
+     * snapshot, which is also kept in "polarity.online.model" for @loadOrTrain.
+     * @return - the trainer, to which newly labeled tweets can be passed
+     * @throws ClassNotFoundException - when a snapshot cannot be compiled
+     * @throws IOException - when input files cannot be found, or the journal or snapshot cannot be written
+     */
+    OnlineTrainer startOnlineTraining() throws ClassNotFoundException, IOException {
+        if (mOnlineTrainer == null) {
+            OnlineTrainer trainer = new OnlineTrainer(mCategories, modelStore().fingerprint(),
+                    new File(LABELED_TWEETS_FILE), new File(ONLINE_MODEL_FILE), new File(ONLINE_STATE_FILE),
+                    SNAPSHOT_EVERY);
+            if (!trainer.restoreState()) {
+                if (mTrainingCounts == null) {
+                    train();
+                }
+                trainer.startFrom(mClassifier, mTrainingCounts);
+            }
+            trainer.replayJournal();
+            mOnlineTrainer = trainer;
+        }
+        return mOnlineTrainer;
+    }
+
+    /**
+     * @param category - Label to check, e.g. "pos"
+     * @return - true if the classifier has that category
      */
-    boolean isTrainingFile(File file) {
-        return file.getName().charAt(2) != '9';  // test on fold 9
+    boolean isCategory(String category) {
+        for (int i = 0; i < mCategories.length; ++i) {
+            if (mCategories[i].equals(category)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Utility method returning the classifier to use for classification: the latest snapshot when training
+     * online, otherwise the compiled classifier, if one has been loaded or compiled, otherwise the dynamic
+     * classifier trained by @train.
+     * @return - the classifier used by @evaluate and @invest
+     */
+    JointClassifier<CharSequence> classifier() {
+        if (mOnlineTrainer != null) {
+            return mOnlineTrainer.classifier();
+        }
+        if (mCompiledClassifier != null) {
+            return mCompiledClassifier;
+        }
+        return mClassifier;
+    }
+
+    /**
+     * Utility method used within @train and @evaluate for reading the training data. The first call assigns
+     * the reviews in /POLARITY_DIR/txt_sentoken to folds (see @FoldManifest) and packs them into a single file
+     * (see @CorpusPack), so later runs read one memory-mapped file instead of opening every review.
+     * @return - the packed training corpus
+     * @throws IOException - when input files cannot be found.
+     */
+    CorpusPack corpus() throws IOException {
+        if (mCorpus == null) {
+            mCorpus = CorpusPack.open(mPolarityDir, new File(mPolarityDir.getParentFile(), PACK_FILE),
+                    folds());
+        }
+        return mCorpus;
+    }
+
+    /**
+     * Utility method giving the assignment of the reviews in /POLARITY_DIR/txt_sentoken to folds. The
+     * assignment is made once and kept in /POLARITY_DIR/txt_sentoken.folds.
+     * @return - the fold assignment of the training data
+     * @throws IOException - when input files cannot be found.
+     */
+    FoldManifest folds() throws IOException {
+        if (mFolds == null) {
+            mFolds = FoldManifest.open(mPolarityDir, new File(mPolarityDir.getParentFile(), FOLDS_FILE),
+                    NUM_FOLDS, FOLD_SEED);
+        }
+        return mFolds;
     }
 
 
@@ -82,25 +237,31 @@ public class PolarityBasic {
         int numTrainingCases = 0;
         int numTrainingChars = 0;
         System.out.println("\nTraining.");
-        for (int i = 0; i < mCategories.length; ++i) {
-            String category = mCategories[i];
-            System.out.println(category);
-            Classification classification
-                    = new Classification(category);
-            File file = new File(mPolarityDir,mCategories[i]);
-            File[] trainFiles = file.listFiles();
-            for (int j = 0; j < trainFiles.length; ++j) {
-                File trainFile = trainFiles[j];
-                if (isTrainingFile(trainFile)) {
-                    ++numTrainingCases;
-                    String review = Files.readFromFile(trainFile,"ISO-8859-1");
-                    numTrainingChars += review.length();
-                    Classified<CharSequence> classified
-                            = new Classified<CharSequence>(review,classification);
-                    mClassifier.handle(classified);
-                }
+        CorpusPack corpus = corpus();
+        String[] categories = corpus.categories();
+        Classification[] classifications = new Classification[categories.length];
+        int[] categoryIndexes = new int[categories.length];
+        for (int i = 0; i < categories.length; ++i) {
+            System.out.println(categories[i]);
+            classifications[i] = new Classification(categories[i]);
+            categoryIndexes[i] = Arrays.asList(mCategories).indexOf(categories[i]);
+        }
+        long[] trainingCounts = new long[mCategories.length];
+        for (int fold = 0; fold < corpus.numFolds(); ++fold) {
+            if (fold == TEST_FOLD) {
+                continue;
+            }
+            for (int doc = corpus.foldStart(fold); doc < corpus.foldEnd(fold); ++doc) {
+                ++numTrainingCases;
+                CharSequence review = corpus.text(doc);
+                numTrainingChars += review.length();
+                Classified<CharSequence> classified
+                        = new Classified<CharSequence>(review,classifications[corpus.categoryIndex(doc)]);
+                mClassifier.handle(classified);
+                ++trainingCounts[categoryIndexes[corpus.categoryIndex(doc)]];
             }
         }
+        mTrainingCounts = trainingCounts;
         System.out.println("  # Training Cases=" + numTrainingCases);
         System.out.println("  # Training Chars=" + numTrainingChars);
     }
@@ -117,29 +278,27 @@ public class PolarityBasic {
      */
     void evaluate() throws IOException {
         System.out.println("\nEvaluating.");
-        int numTests = 0;
+        CorpusPack corpus = corpus();
+        List<CharSequence> reviews = new ArrayList<CharSequence>();
+        List<String> categories = new ArrayList<String>();
+        for (int doc = corpus.foldStart(TEST_FOLD); doc < corpus.foldEnd(TEST_FOLD); ++doc) {
+            reviews.add(corpus.text(doc));
+            categories.add(corpus.category(doc));
+        }
+        BatchClassifier.Result result = classifyAll(reviews);
+        int numTests = result.size();
         int numCorrect = 0;
-        for (int i = 0; i < mCategories.length; ++i) {
-            String category = mCategories[i];
-            File file = new File(mPolarityDir,mCategories[i]);
-            File[] trainFiles = file.listFiles();
-            for (int j = 0; j < trainFiles.length; ++j) {
-                File trainFile = trainFiles[j];
-                if (!isTrainingFile(trainFile)) {
-                    String review = Files.readFromFile(trainFile,"ISO-8859-1");
-                    ++numTests;
-                    Classification classification
-                            = mClassifier.classify(review);
-                    System.out.println("classification is: " + classification.bestCategory());
-                    if (classification.bestCategory().equals(category))
-                        ++numCorrect;
-                }
-            }
+        for (int i = 0; i < numTests; ++i) {
+            Classification classification = result.classification(i);
+            System.out.println("classification is: " + classification.bestCategory());
+            if (classification.bestCategory().equals(categories.get(i)))
+                ++numCorrect;
         }
         System.out.println("  # Test Cases=" + numTests);
         System.out.println("  # Correct=" + numCorrect);
         System.out.println("  % Correct="
                 + ((double)numCorrect)/(double)numTests);
+        System.out.println(result);
     }
 
 
@@ -163,7 +322,7 @@ public class PolarityBasic {
         System.out.println("\n\nUsing this file to make determination: " + fileName);
         String twitterData = Files.readFromFile(twitterFile,"ISO-8859-1");
         Classification classification
-                = mClassifier.classify(twitterData);
+                = classifier().classify(twitterData);
 
         // If classification is positive, return boolean true, otherwise return false
         System.out.println("Analysis has determined overall public sentiment to be: " + classification.bestCategory());
@@ -175,6 +334,157 @@ public class PolarityBasic {
         return makeInvestment;
     }
 
+    /**
+     * Method used for deciding whether to invest, based on a file containing one tweet per line. Unlike
+     * @invest, every tweet is classified on its own, so a single long tweet cannot decide the outcome.
+     * The per-tweet probabilities are combined into a weighted net sentiment score (see @SentimentAggregate),
+     * and the method recommends investing only if that score is above the threshold.
+     *
+     * @param fileName - File containing one tweet per line, such as "outputdata.txt"
+     * @param threshold - Net sentiment, between -1 and 1, above which to invest. 0 means more positive than negative.
+     * @return - a boolean value:  True, if net sentiment is above the threshold.  False otherwise.
+     * @throws IOException - when input file cannot be found.
+     */
+    public boolean investPerTweet(String fileName, double threshold) throws IOException {
+        System.out.println("\n\nUsing this file to make determination, tweet by tweet: " + fileName);
+        List<String> tweets = readTweets(new File(fileName));
+        double[] probabilities = positiveProbabilities(tweets);
+
+        SentimentAggregate aggregate = new SentimentAggregate(Math.max(1, tweets.size()));
+        for (int i = 0; i < probabilities.length; ++i) {
+            aggregate.add(probabilities[i], SentimentAggregate.weight(tweets.get(i)));
+        }
+        mLastAggregate = aggregate;
+
+        boolean makeInvestment = aggregate.netSentiment() > threshold;
+        System.out.println("Analysis of each tweet gives: " + aggregate);
+        System.out.println("Net sentiment threshold is: " + threshold
+                + ", so overall public sentiment is: " + (makeInvestment ? "pos" : "neg"));
+        System.out.println("\n\n");
+
+        return makeInvestment;
+    }
+
+    /**
+     * Method used for classifying a number of tweets independently.
+     * @param tweets - Text of each tweet
+     * @return - the conditional probability that each tweet is positive, in the same order as the tweets
+     * @throws IOException - when interrupted while classifying
+     */
+    public double[] positiveProbabilities(List<String> tweets) throws IOException {
+        BatchClassifier.Result result = classifyAll(tweets);
+        double[] probabilities = new double[tweets.size()];
+        for (int i = 0; i < probabilities.length; ++i) {
+            probabilities[i] = positiveProbability(result.classification(i));
+        }
+        System.out.println(result);
+        return probabilities;
+    }
+
+    /**
+     * Method used for classifying a number of texts with @classifier, using every core when the classifier
+     * is compiled (and so safe to share between threads), and a single thread otherwise.
+     * @param texts - Texts to classify
+     * @return - the classification of each text, in the same order as the texts, with throughput statistics
+     * @throws IOException - when interrupted while classifying
+     */
+    BatchClassifier.Result classifyAll(List<? extends CharSequence> texts) throws IOException {
+        JointClassifier<CharSequence> classifier = classifier();
+        BatchClassifier batchClassifier = classifier != mClassifier
+                ? new BatchClassifier(classifier, Runtime.getRuntime().availableProcessors(), executor())
+                : new BatchClassifier(classifier, 1, null);
+        try {
+            return batchClassifier.classify(texts);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Classification was interrupted");
+        }
+    }
+
+    /**
+     * Utility method giving the pool @classifyAll classifies on, started the first time it is needed. Its
+     * threads are daemons, so they do not keep the program running.
+     * @return - a pool with a thread per core
+     */
+    ExecutorService executor() {
+        if (mExecutor == null) {
+            mExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                    new ThreadFactory() {
+                        public Thread newThread(Runnable task) {
+                            Thread thread = new Thread(task, "classifier");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+        return mExecutor;
+    }
+
+    /**
+     * @return - the aggregate computed by the last call to @investPerTweet, or null if it was never called
+     */
+    public SentimentAggregate lastAggregate() {
+        return mLastAggregate;
+    }
+
+    /**
+     * Utility method for reading a file containing one tweet per line, skipping blank lines.
+     * @param twitterFile - File written by Stream#execute
+     * @return - a List containing the text of each tweet
+     * @throws IOException - when input file cannot be found
+     */
+    static List<String> readTweets(File twitterFile) throws IOException {
+        List<String> tweets = new ArrayList<String>();
+        BufferedReader input = new BufferedReader(new FileReader(twitterFile));
+        try {
+            String line;
+            while ((line = input.readLine()) != null) {
+                if (line.trim().length() > 0) {
+                    tweets.add(line);
+                }
+            }
+        } finally {
+            input.close();
+        }
+        return tweets;
+    }
+
+    /**
+     * Utility method for reading the probability of positive sentiment out of a classification.
+     * @param classification - The result of classifying a single text with @classifier
+     * @return - the conditional probability of the "pos" category, between 0 and 1
+     */
+    static double positiveProbability(ConditionalClassification classification) {
+        for (int rank = 0; rank < classification.size(); ++rank) {
+            if (classification.category(rank).equals("pos")) {
+                return classification.conditionalProbability(rank);
+            }
+        }
+        return 0.0;
+    }
+
+    static final String MODEL_FILE = "polarity.model";
+
+    // Packed copy of txt_sentoken and its fold assignment, kept next to it in /POLARITY_DIR
+    static final String PACK_FILE = "txt_sentoken.pack";
+    static final String FOLDS_FILE = "txt_sentoken.folds";
+    static final int NUM_FOLDS = 10;
+    static final long FOLD_SEED = 42;
+
+    // Fold held out of training and used by @evaluate. Changing it changes the data set on which
+    // @evaluate is tested; any fold from 0 to NUM_FOLDS - 1 can be used.
+    static final int TEST_FOLD = 9;
+
+    // Online training: journal of labeled tweets, latest snapshot and the dynamic classifier it was compiled
+    // from, and labeled tweets between snapshots
+    static final String LABELED_TWEETS_FILE = "labeledTweets.txt";
+    static final String ONLINE_MODEL_FILE = "polarity.online.model";
+    static final String ONLINE_STATE_FILE = "polarity.online.state";
+    static final int SNAPSHOT_EVERY = 1000;
+
+    // Net sentiment above which Main invests, see @investPerTweet
+    static final double NET_SENTIMENT_THRESHOLD = 0.0;
+
 
 }
 
@@ -0,0 +1,371 @@
+package com.company;
+
+import java.util.Arrays;
+
+/**
+ * Class used for simulating many named strategies side by side over the same prices and daily sentiment, in
+ * a single pass over the bars.
+ *
+ * Each strategy is either passive (always in the market, like the control) or sentiment-gated (in the market
+ * only while the average net sentiment over its window of trading days is above its threshold, like the
+ * experiment). Every strategy starts holding 100 shares bought at the first close, as in
+ * DataOps#initializeExperiment, or from a position set with @setPosition (see @advance, which the live
+ * experiment is updated with), and then tracks its cash and whole shares. When a sentiment-gated strategy's
+ * decision changes, it sells all of its shares or buys as many as its cash allows, at the next open or at
+ * the next close, as given by its @ExecutionModel, paying commission and slippage. Equity is cash plus shares
+ * at each close.
+ *
+ * The state of every strategy is kept in primitive arrays indexed by strategy. Windowed sentiment is kept
+ * as one running sum per distinct window length, shared by all strategies using that window, so each bar
+ * costs one update per window plus one comparison per strategy, and nothing is allocated per bar.
+ */
+public class Portfolio {
+
+    /**
+     * Interface for receiving the equity of every strategy after each bar, e.g. to record equity curves.
+     */
+    public interface BarHandler {
+        /**
+         * @param bar - Position of the bar in the price series
+         * @param equity - Equity of each strategy at the bar's close, indexed by strategy. Only valid
+         * during the call; copy any values to keep.
+         */
+        void handle(int bar, double[] equity);
+    }
+
+    final ExecutionModel mExecution;
+
+    String[] mNames = new String[8];
+    boolean[] mPassive = new boolean[8];
+    double[] mThresholds = new double[8];
+    int[] mWindowIndex = new int[8];
+    boolean[] mAtOpen = new boolean[8];
+    double[] mCommission = new double[8];
+    double[] mCommissionPerShare = new double[8];
+    double[] mSlippage = new double[8];
+    int mSize;
+
+    // Distinct window lengths used by the sentiment-gated strategies
+    int[] mWindowLengths = new int[4];
+    int mNumWindows;
+
+    double[] mCash = new double[8];
+    long[] mShares = new long[8];
+    double[] mEquity = new double[8];
+    int[] mDaysInvested = new int[8];
+    int[] mTrades = new int[8];
+    double[] mCosts = new double[8];
+
+    /**
+     * Creates a portfolio whose strategies trade under the readme's ideal conditions, see ExecutionModel#IDEAL.
+     */
+    public Portfolio() {
+        this(ExecutionModel.IDEAL);
+    }
+
+    /**
+     * @param execution - How the orders of strategies added without their own execution model are filled
+     */
+    public Portfolio(ExecutionModel execution) {
+        mExecution = execution;
+    }
+
+    /**
+     * Method used for adding a strategy that stays in the market throughout, like the control.
+     * @param name - Name of the strategy
+     * @return - the strategy's index
+     */
+    public int addPassive(String name) {
+        return add(name, true, 0.0, -1, mExecution);
+    }
+
+    /**
+     * Method used for adding a strategy that is only in the market when sentiment is positive enough, trading
+     * under the portfolio's execution model.
+     * @param name - Name of the strategy
+     * @param threshold - Net sentiment, between -1 and 1, above which the strategy is in the market
+     * @param window - Number of trading days of net sentiment to average, ending with the decision day
+     * @return - the strategy's index
+     */
+    public int addSentimentGated(String name, double threshold, int window) {
+        return addSentimentGated(name, threshold, window, mExecution);
+    }
+
+    /**
+     * Method used for adding a strategy that is only in the market when sentiment is positive enough.
+     * @param name - Name of the strategy
+     * @param threshold - Net sentiment, between -1 and 1, above which the strategy is in the market
+     * @param window - Number of trading days of net sentiment to average, ending with the decision day
+     * @param execution - How the strategy's orders are filled
+     * @return - the strategy's index
+     */
+    public int addSentimentGated(String name, double threshold, int window, ExecutionModel execution) {
+        if (window < 1) {
+            throw new IllegalArgumentException("Window must be at least 1 day, was: " + window);
+        }
+        int windowIndex = -1;
+        for (int w = 0; w < mNumWindows && windowIndex < 0; ++w) {
+            if (mWindowLengths[w] == window) {
+                windowIndex = w;
+            }
+        }
+        if (windowIndex < 0) {
+            if (mNumWindows == mWindowLengths.length) {
+                mWindowLengths = Arrays.copyOf(mWindowLengths, mNumWindows * 2);
+            }
+            windowIndex = mNumWindows;
+            mWindowLengths[mNumWindows++] = window;
+        }
+        return add(name, false, threshold, windowIndex, execution);
+    }
+
+    int add(String name, boolean passive, double threshold, int windowIndex, ExecutionModel execution) {
+        if (mSize == mNames.length) {
+            int capacity = mSize * 2;
+            mNames = Arrays.copyOf(mNames, capacity);
+            mPassive = Arrays.copyOf(mPassive, capacity);
+            mThresholds = Arrays.copyOf(mThresholds, capacity);
+            mWindowIndex = Arrays.copyOf(mWindowIndex, capacity);
+            mAtOpen = Arrays.copyOf(mAtOpen, capacity);
+            mCommission = Arrays.copyOf(mCommission, capacity);
+            mCommissionPerShare = Arrays.copyOf(mCommissionPerShare, capacity);
+            mSlippage = Arrays.copyOf(mSlippage, capacity);
+            mCash = Arrays.copyOf(mCash, capacity);
+            mShares = Arrays.copyOf(mShares, capacity);
+            mEquity = Arrays.copyOf(mEquity, capacity);
+            mDaysInvested = Arrays.copyOf(mDaysInvested, capacity);
+            mTrades = Arrays.copyOf(mTrades, capacity);
+            mCosts = Arrays.copyOf(mCosts, capacity);
+        }
+        mNames[mSize] = name;
+        mPassive[mSize] = passive;
+        mThresholds[mSize] = threshold;
+        mWindowIndex[mSize] = windowIndex;
+        mAtOpen[mSize] = execution.atOpen();
+        mCommission[mSize] = execution.commission();
+        mCommissionPerShare[mSize] = execution.commissionPerShare();
+        mSlippage[mSize] = execution.slippage();
+        return mSize++;
+    }
+
+    /**
+     * Method used for running every strategy over part of a price series.
+     * @param prices - Daily prices
+     * @param sentiment - Net sentiment of each day in the series, or NaN for days without tweets
+     * @param fromBar - Position in the series of the first day, on which every strategy buys its shares
+     * @param toBar - Position in the series after the last day
+     * @param handler - Receives the equity of every strategy after each bar, or null
+     */
+    public void run(PriceSeries prices, double[] sentiment, int fromBar, int toBar, BarHandler handler) {
+        if (fromBar < 0 || toBar > prices.size() || toBar - fromBar < 1) {
+            throw new IllegalArgumentException("No days to run between " + fromBar + " and " + toBar);
+        }
+        double firstClose = prices.close(fromBar);
+        for (int s = 0; s < mSize; ++s) {
+            setPosition(s, Backtest.INITIAL_SHARES, 0.0);
+            mEquity[s] = Backtest.INITIAL_SHARES * firstClose;
+        }
+        if (handler != null) {
+            handler.handle(fromBar, mEquity);
+        }
+        advance(prices, sentiment, fromBar, toBar, handler);
+    }
+
+    /**
+     * Method used for setting the position a strategy holds, e.g. the live experiment's position at its latest
+     * update, before calling @advance. The strategy's counts of days invested, trades and costs start again.
+     * @param strategy - Index of the strategy
+     * @param shares - Number of shares held
+     * @param cash - Cash held
+     */
+    public void setPosition(int strategy, long shares, double cash) {
+        mShares[strategy] = shares;
+        mCash[strategy] = cash;
+        mDaysInvested[strategy] = 0;
+        mTrades[strategy] = 0;
+        mCosts[strategy] = 0.0;
+    }
+
+    /**
+     * Method used for running every strategy on from the positions it holds at the close of a bar, as
+     * @run does after buying the shares on its first day.
+     * @param prices - Daily prices
+     * @param sentiment - Net sentiment of each day in the series, or NaN for days without tweets
+     * @param fromBar - Position in the series of the day at whose close the strategies hold their positions
+     * @param toBar - Position in the series after the last day
+     * @param handler - Receives the equity of every strategy after each bar after the first, or null
+     */
+    public void advance(PriceSeries prices, double[] sentiment, int fromBar, int toBar, BarHandler handler) {
+        if (fromBar < 0 || toBar > prices.size() || toBar - fromBar < 1) {
+            throw new IllegalArgumentException("No days to run between " + fromBar + " and " + toBar);
+        }
+        int numStrategies = mSize;
+        int numWindows = mNumWindows;
+        boolean[] passive = mPassive;
+        double[] thresholds = mThresholds;
+        int[] windowIndex = mWindowIndex;
+        int[] windowLengths = mWindowLengths;
+        boolean[] atOpen = mAtOpen;
+        double[] commission = mCommission;
+        double[] commissionPerShare = mCommissionPerShare;
+        double[] slippage = mSlippage;
+        double[] cash = mCash;
+        long[] shares = mShares;
+        double[] equity = mEquity;
+        int[] daysInvested = mDaysInvested;
+        int[] trades = mTrades;
+        double[] costs = mCosts;
+
+        // Start each window with the days before the first decision day
+        double[] windowSums = new double[numWindows];
+        int[] windowCounts = new int[numWindows];
+        double[] windowSentiment = new double[numWindows];
+        for (int w = 0; w < numWindows; ++w) {
+            for (int d = Math.max(0, fromBar - windowLengths[w] + 1); d < fromBar; ++d) {
+                if (!Double.isNaN(sentiment[d])) {
+                    windowSums[w] += sentiment[d];
+                    ++windowCounts[w];
+                }
+            }
+        }
+
+        double previousClose = prices.close(fromBar);
+        for (int s = 0; s < numStrategies; ++s) {
+            equity[s] = cash[s] + shares[s] * previousClose;
+        }
+
+        for (int bar = fromBar + 1; bar < toBar; ++bar) {
+            // The previous day's sentiment decides whether to hold the shares through this bar
+            int decision = bar - 1;
+            double today = sentiment[decision];
+            for (int w = 0; w < numWindows; ++w) {
+                if (!Double.isNaN(today)) {
+                    windowSums[w] += today;
+                    ++windowCounts[w];
+                }
+                int dropped = decision - windowLengths[w];
+                if (decision > fromBar && dropped >= 0 && !Double.isNaN(sentiment[dropped])) {
+                    windowSums[w] -= sentiment[dropped];
+                    --windowCounts[w];
+                }
+                windowSentiment[w] = windowCounts[w] > 0 ? windowSums[w] / windowCounts[w] : Double.NaN;
+            }
+
+            double open = prices.open(bar);
+            double close = prices.close(bar);
+            // Bars stored without an opening price are filled at the previous close
+            if (!(open > 0)) {
+                open = previousClose;
+            }
+            for (int s = 0; s < numStrategies; ++s) {
+                // NaN (no tweets in the window) is never above the threshold
+                boolean invest = passive[s] || windowSentiment[windowIndex[s]] > thresholds[s];
+                // The decision day's tweets run past its close, so a trade at the close is filled at this bar's
+                // close, and the shares held through this bar are those held before it
+                double price = atOpen[s] ? open : close;
+                if (!atOpen[s] && shares[s] > 0) {
+                    ++daysInvested[s];
+                }
+                if (!invest && shares[s] > 0) {
+                    double fee = commission[s] + commissionPerShare[s] * shares[s];
+                    cash[s] += shares[s] * price * (1.0 - slippage[s]) - fee;
+                    costs[s] += shares[s] * price * slippage[s] + fee;
+                    shares[s] = 0;
+                    ++trades[s];
+                } else if (invest && shares[s] == 0) {
+                    double fillPrice = price * (1.0 + slippage[s]);
+                    long bought = (long) Math.floor((cash[s] - commission[s])
+                            / (fillPrice + commissionPerShare[s]));
+                    if (bought > 0) {
+                        double fee = commission[s] + commissionPerShare[s] * bought;
+                        cash[s] -= bought * fillPrice + fee;
+                        costs[s] += bought * price * slippage[s] + fee;
+                        shares[s] = bought;
+                        ++trades[s];
+                    }
+                }
+                equity[s] = cash[s] + shares[s] * close;
+                if (atOpen[s] && shares[s] > 0) {
+                    ++daysInvested[s];
+                }
+            }
+            previousClose = close;
+            if (handler != null) {
+                handler.handle(bar, equity);
+            }
+        }
+    }
+
+    /**
+     * @return - the number of strategies
+     */
+    public int size() {
+        return mSize;
+    }
+
+    public String name(int strategy) {
+        return mNames[strategy];
+    }
+
+    /**
+     * @param strategy - Index of the strategy
+     * @return - the strategy's equity at the close of the last bar run
+     */
+    public double equity(int strategy) {
+        return mEquity[strategy];
+    }
+
+    /**
+     * @param strategy - Index of the strategy
+     * @return - the strategy's cash after the last bar run
+     */
+    public double cash(int strategy) {
+        return mCash[strategy];
+    }
+
+    /**
+     * @param strategy - Index of the strategy
+     * @return - the number of shares the strategy held after the last bar run
+     */
+    public long shares(int strategy) {
+        return mShares[strategy];
+    }
+
+    /**
+     * @param strategy - Index of the strategy
+     * @return - the number of days the strategy held shares at the close in the last run
+     */
+    public int daysInvested(int strategy) {
+        return mDaysInvested[strategy];
+    }
+
+    /**
+     * @param strategy - Index of the strategy
+     * @return - the number of buys and sells in the last run
+     */
+    public int trades(int strategy) {
+        return mTrades[strategy];
+    }
+
+    /**
+     * @param strategy - Index of the strategy
+     * @return - the commission and slippage paid in the last run, in dollars
+     */
+    public double costs(int strategy) {
+        return mCosts[strategy];
+    }
+
+    /**
+     * Method used for printing the final equity of every strategy, relative to a baseline strategy.
+     * @param baseline - Index of the strategy to compare with, usually a passive one
+     */
+    public void printSummary(int baseline) {
+        for (int s = 0; s < mSize; ++s) {
+            System.out.println(mNames[s] + ": equity " + String.format("%.2f", mEquity[s])
+                    + " (" + String.format("%+.2f%%", 100.0 * (mEquity[s] / mEquity[baseline] - 1.0))
+                    + " vs " + mNames[baseline] + "), invested on " + mDaysInvested[s] + " days, "
+                    + mTrades[s] + " trades costing " + String.format("%.2f", mCosts[s]));
+        }
+    }
+
+}
@@ -0,0 +1,422 @@
+package com.company;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Class used for reading daily bars from CSV data in the Yahoo Finance format
+ * ("Date,Open,High,Low,Close,Volume,Adj Close"), straight from the bytes.
+ *
+ * Files are mapped into memory instead of being copied, and other input, such as a download, is read through
+ * one reused buffer. Each line is cut into fields where it lies in the buffer, and dates and prices are
+ * parsed from the bytes into ints and doubles; only the header line and the lines of error messages become
+ * Strings. Every bar is handed to a @RowHandler as soon as it is parsed, e.g. one adding it to a
+ * @PriceSeries (see @readSeries).
+ *
+ * Columns are found by their header names, so their order does not matter; a missing "Adj Close" column
+ * defaults to "Close". Prices are parsed to the same doubles as Double#parseDouble: a price with up to 15
+ * digits is its digits divided by a power of ten, both exact, and longer ones, or ones with an exponent,
+ * are handed to Double#parseDouble.
+ */
+public class PriceCsvParser {
+
+    static final int BUFFER_BYTES = 64 * 1024;
+
+    // Fields of a bar, in the order they are handed to the RowHandler
+    static final String[] FIELDS = {"Open", "High", "Low", "Close", "Volume", "Adj Close"};
+    static final int OPEN = 0;
+    static final int HIGH = 1;
+    static final int LOW = 2;
+    static final int CLOSE = 3;
+    static final int VOLUME = 4;
+    static final int ADJ_CLOSE = 5;
+    static final int DATE = -1;
+    static final int UNUSED = -2;
+
+    // Powers of ten that are exact doubles
+    static final double[] POWERS_OF_TEN = new double[23];
+    static {
+        POWERS_OF_TEN[0] = 1.0;
+        for (int i = 1; i < POWERS_OF_TEN.length; ++i) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10.0;
+        }
+    }
+
+    /**
+     * Interface for receiving the bars, in the order of the lines they were read from.
+     */
+    public interface RowHandler {
+        void row(int epochDay, double open, double high, double low, double close, long volume, double adjClose);
+    }
+
+    final String mSource;
+    final RowHandler mHandler;
+    final double[] mValues = new double[FIELDS.length];
+    // Field of each column of the data, or DATE or UNUSED
+    int[] mColumns;
+    int mNumColumns;
+    int mLineNumber;
+    boolean mAdjCloseFromClose;
+    // Position in the buffer of the next field of the line being read, and the end of the complete lines
+    int mPosition;
+    int mEnd;
+    boolean mLineEnded;
+
+    /**
+     * @param source - Name of the file or URL the data comes from, for error messages
+     * @param handler - Receives each bar
+     */
+    public PriceCsvParser(String source, RowHandler handler) {
+        mSource = source;
+        mHandler = handler;
+    }
+
+    /**
+     * Method used for reading a Yahoo Finance CSV file into a series sorted by date.
+     * @param symbol - Ticker symbol the file belongs to
+     * @param csvFile - CSV file to read
+     * @return - the bars in the file
+     * @throws IOException - When the file cannot be read, or a required column or value is missing
+     */
+    public static PriceSeries readSeries(String symbol, File csvFile) throws IOException {
+        PriceSeries series = new PriceSeries(symbol);
+        parse(csvFile, builder(series));
+        series.sortByDate();
+        return series;
+    }
+
+    /**
+     * Method used for reading CSV data in the Yahoo Finance format into a series sorted by date, e.g. straight
+     * from a download, as @readSeries(String, File) does for a file.
+     * @param symbol - Ticker symbol the data belongs to
+     * @param in - Stream positioned at the header line; not closed
+     * @param source - Name of the file or URL the data comes from, for error messages
+     * @return - the bars read
+     * @throws IOException - When the data cannot be read, or a required column or value is missing
+     */
+    public static PriceSeries readSeries(String symbol, InputStream in, String source) throws IOException {
+        PriceSeries series = new PriceSeries(symbol);
+        new PriceCsvParser(source, builder(series)).parse(Channels.newChannel(in));
+        series.sortByDate();
+        return series;
+    }
+
+    /**
+     * @param series - Series to add the bars to, in the order they are read; sort it afterwards
+     * @return - a handler adding each bar to the series
+     */
+    public static RowHandler builder(final PriceSeries series) {
+        return new RowHandler() {
+            public void row(int epochDay, double open, double high, double low, double close, long volume,
+                            double adjClose) {
+                series.add(epochDay, open, high, low, close, volume, adjClose);
+            }
+        };
+    }
+
+    /**
+     * Method used for reading every bar of a CSV file, mapped into memory rather than copied.
+     * @param csvFile - CSV file to read
+     * @param handler - Receives each bar
+     * @throws IOException - When the file cannot be read, or a required column or value is missing
+     */
+    public static void parse(File csvFile, RowHandler handler) throws IOException {
+        PriceCsvParser parser = new PriceCsvParser(csvFile.getPath(), handler);
+        FileInputStream in = new FileInputStream(csvFile);
+        try {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                parser.parse(channel);
+            } else if (size > 0) {
+                parser.parseLines(channel.map(FileChannel.MapMode.READ_ONLY, 0, size), true);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Method used for reading every bar from a channel, through a buffer that is reused for every line, and
+     * only grown for a line longer than it.
+     * @param channel - Channel positioned at the header line; not closed
+     * @throws IOException - When the data cannot be read, or a required column or value is missing
+     */
+    public void parse(ReadableByteChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+        while (true) {
+            int read = channel.read(buffer);
+            buffer.flip();
+            parseLines(buffer, read < 0);
+            if (read < 0) {
+                return;
+            }
+            if (buffer.position() == 0 && buffer.limit() == buffer.capacity()) {
+                ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                larger.put(buffer);
+                buffer = larger;
+            } else {
+                buffer.compact();
+            }
+        }
+    }
+
+    /**
+     * Method used for reading the complete lines between the buffer's position and its limit. The position is
+     * left at the start of the first incomplete line, so it can be read once the rest of it has arrived.
+     * Each line is read in one pass: the fields end at a comma or a line break, so only the last line break
+     * of the buffer is looked for beforehand.
+     * @param buffer - Bytes of the data
+     * @param endOfInput - true if no more data follows, so the last line is complete without a line break
+     * @throws IOException - When a required column or value is missing
+     */
+    void parseLines(ByteBuffer buffer, boolean endOfInput) throws IOException {
+        int end = buffer.limit();
+        if (!endOfInput) {
+            while (end > buffer.position() && buffer.get(end - 1) != '\n') {
+                --end;
+            }
+        }
+        mEnd = end;
+        mPosition = buffer.position();
+        while (mPosition < end) {
+            parseLine(buffer);
+        }
+        buffer.position(end);
+    }
+
+    /**
+     * Method used for reading the line starting at @mPosition, and moving past it.
+     */
+    void parseLine(ByteBuffer buffer) throws IOException {
+        ++mLineNumber;
+        int start = mPosition;
+        while (start < mEnd && isSpace(buffer.get(start))) {
+            ++start;
+        }
+        if (start == mEnd || buffer.get(start) == '\n') {
+            mPosition = Math.min(start + 1, mEnd);
+            return;
+        }
+        if (mColumns == null) {
+            int end = lineEnd(buffer, start);
+            mPosition = Math.min(end + 1, mEnd);
+            readHeader(text(buffer, start, end).trim());
+            return;
+        }
+
+        int epochDay = 0;
+        mPosition = start;
+        mLineEnded = false;
+        try {
+            for (int column = 0; column < mNumColumns; ++column) {
+                if (mLineEnded) {
+                    throw new IOException("Missing value on line " + mLineNumber + " of " + mSource + ": "
+                            + text(buffer, start, lineEnd(buffer, start)).trim());
+                }
+                int field = mColumns[column];
+                if (field == DATE) {
+                    epochDay = parseDate(buffer);
+                } else if (field == UNUSED) {
+                    endField(buffer, fieldEnd(buffer, mPosition));
+                } else {
+                    mValues[field] = parseDecimal(buffer);
+                }
+            }
+        } catch (NumberFormatException nfe) {
+            throw new IOException("Bad value on line " + mLineNumber + " of " + mSource + ": "
+                    + text(buffer, start, lineEnd(buffer, start)).trim(), nfe);
+        }
+        if (!mLineEnded) {
+            // Skip the columns after the last one needed
+            mPosition = Math.min(lineEnd(buffer, mPosition) + 1, mEnd);
+        }
+        if (mAdjCloseFromClose) {
+            mValues[ADJ_CLOSE] = mValues[CLOSE];
+        }
+        mHandler.row(epochDay, mValues[OPEN], mValues[HIGH], mValues[LOW], mValues[CLOSE], (long) mValues[VOLUME],
+                mValues[ADJ_CLOSE]);
+    }
+
+    /**
+     * Method used for finding the columns by their names. Only the columns up to the last one needed are
+     * read from each line.
+     */
+    void readHeader(String header) throws IOException {
+        String[] names = header.split(",");
+        mColumns = new int[names.length];
+        for (int c = 0; c < names.length; ++c) {
+            mColumns[c] = UNUSED;
+        }
+        int last = column(names, "Date");
+        mColumns[last] = DATE;
+        for (int f = 0; f < FIELDS.length; ++f) {
+            int c = f == ADJ_CLOSE ? indexOf(names, FIELDS[f]) : column(names, FIELDS[f]);
+            if (c >= 0) {
+                mColumns[c] = f;
+                last = Math.max(last, c);
+            }
+        }
+        mNumColumns = last + 1;
+        mAdjCloseFromClose = indexOf(names, FIELDS[ADJ_CLOSE]) < 0;
+    }
+
+    /**
+     * Method used for parsing a "yyyy-MM-dd" date from bytes, see EpochDays#parse, and moving past its field.
+     * @return - the date, in epoch days
+     */
+    int parseDate(ByteBuffer buffer) {
+        int start = mPosition;
+        int end = fieldEnd(buffer, start);
+        endField(buffer, end);
+        while (start < end && isSpace(buffer.get(start))) {
+            ++start;
+        }
+        while (end > start && isSpace(buffer.get(end - 1))) {
+            --end;
+        }
+        if (end - start != 10 || buffer.get(start + 4) != '-' || buffer.get(start + 7) != '-') {
+            throw new NumberFormatException("Date is not yyyy-MM-dd");
+        }
+        return EpochDays.of(digits(buffer, start, start + 4), digits(buffer, start + 5, start + 7),
+                digits(buffer, start + 8, start + 10));
+    }
+
+    static int digits(ByteBuffer buffer, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; ++i) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Not a digit");
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Method used for parsing a decimal number from bytes, to the same double as Double#parseDouble, and
+     * moving past its field. The digits are read in the same pass that looks for the end of the field.
+     * @return - the number
+     */
+    double parseDecimal(ByteBuffer buffer) {
+        int start = mPosition;
+        int end = mEnd;
+        int i = start;
+        while (i < end && isSpace(buffer.get(i))) {
+            ++i;
+        }
+        boolean negative = false;
+        if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+            negative = buffer.get(i) == '-';
+            ++i;
+        }
+        long digits = 0;
+        int numDigits = 0;
+        int pointAt = -1;
+        for (; i < end; ++i) {
+            int digit = buffer.get(i) - '0';
+            if (digit >= 0 && digit <= 9) {
+                digits = digits * 10 + digit;
+                ++numDigits;
+            } else if (digit == '.' - '0' && pointAt < 0) {
+                pointAt = numDigits;
+            } else {
+                break;
+            }
+        }
+        while (i < end && isSpace(buffer.get(i))) {
+            ++i;
+        }
+        int scale = pointAt < 0 ? 0 : numDigits - pointAt;
+        if ((i < end && buffer.get(i) != ',' && buffer.get(i) != '\n') || numDigits > 15
+                || scale >= POWERS_OF_TEN.length) {
+            // An exponent, too many digits to be exact, or not a number at all; let the JDK deal with it
+            return parseSlowly(buffer, start);
+        }
+        if (numDigits == 0) {
+            throw new NumberFormatException("Not a number");
+        }
+        endField(buffer, i);
+        // Both are exact, so the division is rounded once, as Double#parseDouble rounds
+        double value = scale == 0 ? digits : digits / POWERS_OF_TEN[scale];
+        return negative ? -value : value;
+    }
+
+    double parseSlowly(ByteBuffer buffer, int start) {
+        int end = fieldEnd(buffer, start);
+        endField(buffer, end);
+        return Double.parseDouble(text(buffer, start, end).trim());
+    }
+
+    /**
+     * @return - the position of the comma or line break ending the field starting at the given position,
+     * or the end of the data
+     */
+    int fieldEnd(ByteBuffer buffer, int start) {
+        int i = start;
+        while (i < mEnd) {
+            byte b = buffer.get(i);
+            if (b == ',' || b == '\n') {
+                break;
+            }
+            ++i;
+        }
+        return i;
+    }
+
+    /**
+     * @return - the position of the line break ending the line, or the end of the data
+     */
+    int lineEnd(ByteBuffer buffer, int start) {
+        int i = start;
+        while (i < mEnd && buffer.get(i) != '\n') {
+            ++i;
+        }
+        return i;
+    }
+
+    /**
+     * Method used for moving past the comma or line break ending a field, noting whether it ended the line.
+     */
+    void endField(ByteBuffer buffer, int end) {
+        mLineEnded = end == mEnd || buffer.get(end) == '\n';
+        mPosition = Math.min(end + 1, mEnd);
+    }
+
+    static String text(ByteBuffer buffer, int start, int end) {
+        StringBuilder text = new StringBuilder(end - start);
+        for (int i = start; i < end; ++i) {
+            text.append((char) (buffer.get(i) & 0xff));
+        }
+        return text.toString();
+    }
+
+    static boolean isSpace(byte b) {
+        return b == ' ' || b == '\r' || b == '\t';
+    }
+
+    int column(String[] names, String name) throws IOException {
+        int i = indexOf(names, name);
+        if (i < 0) {
+            throw new IOException("Column \"" + name + "\" not found in: " + mSource);
+        }
+        return i;
+    }
+
+    static int indexOf(String[] names, String name) {
+        for (int i = 0; i < names.length; ++i) {
+            if (names[i].trim().equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,150 @@
+package com.company;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Class used for keeping the daily price history of many symbols on disk, one @PriceSeries file per symbol.
+ *
+ * Series are read from disk the first time they are asked for and kept in memory afterwards, so backtests
+ * and daily runs look prices up by date instead of re-parsing CSV files. New bars are added from CSV files
+ * in the Yahoo Finance format (see @appendCsv), such as the "finance.csv" file downloaded by the Crawler,
+ * and the series is written back to disk straight away.
+ */
+public class PriceHistory {
+
+    public static final String DEFAULT_DIR = "priceHistory";
+    static final String SUFFIX = ".prices";
+
+    final File mDirectory;
+    final Map<String, PriceSeries> mSeries = new HashMap<String, PriceSeries>();
+
+    /**
+     * @param directory - Directory holding one file per symbol; created when the first series is saved
+     */
+    public PriceHistory(File directory) {
+        mDirectory = directory;
+    }
+
+    /**
+     * Method used for getting the price history of a symbol.
+     * @param symbol - Ticker symbol, e.g. "SPY"
+     * @return - the symbol's series, empty if nothing has been stored for it yet
+     * @throws IOException - When the symbol's file exists but cannot be read
+     */
+    public synchronized PriceSeries series(String symbol) throws IOException {
+        PriceSeries series = mSeries.get(symbol);
+        if (series == null) {
+            File file = file(symbol);
+            series = file.isFile() ? PriceSeries.readFrom(symbol, file) : new PriceSeries(symbol);
+            mSeries.put(symbol, series);
+        }
+        return series;
+    }
+
+    /**
+     * @return - the symbols stored in the history directory, sorted
+     */
+    public String[] symbols() {
+        String[] names = mDirectory.list();
+        if (names == null) {
+            return new String[0];
+        }
+        int count = 0;
+        for (int i = 0; i < names.length; ++i) {
+            if (names[i].endsWith(SUFFIX)) {
+                names[count++] = names[i].substring(0, names[i].length() - SUFFIX.length());
+            }
+        }
+        String[] symbols = new String[count];
+        System.arraycopy(names, 0, symbols, 0, count);
+        Arrays.sort(symbols);
+        return symbols;
+    }
+
+    /**
+     * Method used for adding the bars of a Yahoo Finance CSV file to a symbol's history, and saving it.
+     * Bars for dates already in the history are replaced by the bars from the file.
+     * @param symbol - Ticker symbol the file belongs to
+     * @param csvFile - CSV file with a "Date,Open,High,Low,Close,Volume,Adj Close" header, in any row order
+     * @return - the number of bars read from the file
+     * @throws IOException - When the file cannot be read or parsed, or the series cannot be saved
+     */
+    public synchronized int appendCsv(String symbol, File csvFile) throws IOException {
+        PriceSeries bars = readCsv(symbol, csvFile);
+        series(symbol).merge(bars);
+        save(symbol);
+        return bars.size();
+    }
+
+    /**
+     * Method used for writing a symbol's series back to disk.
+     * @param symbol - Ticker symbol
+     * @throws IOException - When the series cannot be written
+     */
+    public synchronized void save(String symbol) throws IOException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Could not create price history directory: " + mDirectory);
+        }
+        series(symbol).writeTo(file(symbol));
+    }
+
+    File file(String symbol) {
+        return new File(mDirectory, symbol + SUFFIX);
+    }
+
+    /**
+     * Method used for reading a Yahoo Finance CSV file into a series sorted by date, see @PriceCsvParser.
+     * Columns are found by their header names, so their order does not matter; a missing "Adj Close" column
+     * defaults to "Close".
+     * @param symbol - Ticker symbol the file belongs to
+     * @param csvFile - CSV file to read
+     * @return - the bars in the file
+     * @throws IOException - When the file cannot be read, or a required column or value is missing
+     */
+    public static PriceSeries readCsv(String symbol, File csvFile) throws IOException {
+        return PriceCsvParser.readSeries(symbol, csvFile);
+    }
+
+    /**
+     * Method used for reading CSV data in the Yahoo Finance format into a series sorted by date, e.g. straight
+     * from a download (see MarketDataFetcher), as @readCsv(String, File) does for a file.
+     * @param symbol - Ticker symbol the data belongs to
+     * @param in - Stream positioned at the header line; not closed
+     * @param source - Name of the file or URL the data came from, for error messages
+     * @return - the bars read
+     * @throws IOException - When the data cannot be read, or a required column or value is missing
+     */
+    public static PriceSeries readCsv(String symbol, InputStream in, String source) throws IOException {
+        return PriceCsvParser.readSeries(symbol, in, source);
+    }
+
+    /**
+     * Method used for writing a series to a CSV file in the Yahoo Finance format, newest day first, so it can
+     * be read back by @readCsv or DataOps#getMarketData.
+     * @param series - Bars to write
+     * @param csvFile - File to write
+     * @throws IOException - When the file cannot be written
+     */
+    public static void writeCsv(PriceSeries series, File csvFile) throws IOException {
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(csvFile), "UTF-8"));
+        try {
+            writer.print("Date,Open,High,Low,Close,Volume,Adj Close\n");
+            for (int i = series.size() - 1; i >= 0; --i) {
+                writer.print(EpochDays.toString(series.date(i)) + "," + series.open(i) + "," + series.high(i) + ","
+                        + series.low(i) + "," + series.close(i) + "," + series.volume(i) + ","
+                        + series.adjClose(i) + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+}
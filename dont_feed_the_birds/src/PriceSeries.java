@@ -0,0 +1,392 @@
+package com.company;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Class holding the daily price history (OHLCV bars) of a single symbol, in columns of primitive arrays.
+ *
+ * Bars are kept sorted by date, one bar per date. Dates are epoch days (see @EpochDays), prices are doubles
+ * and volumes are longs, so a bar takes 52 bytes and no objects. Looking up a date is a binary search,
+ * and a range of dates is a range of array positions, from @ceilingIndex to @floorIndex.
+ *
+ * Bars are added either one at a time with @put, which keeps the series sorted, or in bulk with @add
+ * followed by @sortByDate, which is much faster for files listed newest-first, as Yahoo's are.
+ *
+ * File layout (all numbers big-endian): int magic, int version, int number of bars, followed by the
+ * dates, opens, highs, lows, closes, volumes and adjusted closes, each column written in full.
+ */
+public class PriceSeries {
+
+    static final int MAGIC = 0x50534531; // "PSE1"
+    static final int VERSION = 1;
+    static final int BYTES_PER_BAR = 4 + 8 + 8 + 8 + 8 + 8 + 8;
+
+    final String mSymbol;
+    int mSize;
+    int[] mDates;
+    double[] mOpen;
+    double[] mHigh;
+    double[] mLow;
+    double[] mClose;
+    long[] mVolume;
+    double[] mAdjClose;
+
+    /**
+     * @param symbol - Ticker symbol, e.g. "SPY"
+     */
+    public PriceSeries(String symbol) {
+        this(symbol, 16);
+    }
+
+    PriceSeries(String symbol, int capacity) {
+        mSymbol = symbol;
+        mDates = new int[capacity];
+        mOpen = new double[capacity];
+        mHigh = new double[capacity];
+        mLow = new double[capacity];
+        mClose = new double[capacity];
+        mVolume = new long[capacity];
+        mAdjClose = new double[capacity];
+    }
+
+    public String symbol() {
+        return mSymbol;
+    }
+
+    /**
+     * @return - the number of bars in the series
+     */
+    public int size() {
+        return mSize;
+    }
+
+    public int date(int i) {
+        return mDates[i];
+    }
+
+    public double open(int i) {
+        return mOpen[i];
+    }
+
+    public double high(int i) {
+        return mHigh[i];
+    }
+
+    public double low(int i) {
+        return mLow[i];
+    }
+
+    public double close(int i) {
+        return mClose[i];
+    }
+
+    public long volume(int i) {
+        return mVolume[i];
+    }
+
+    public double adjClose(int i) {
+        return mAdjClose[i];
+    }
+
+    /**
+     * @return - the date of the last bar, or Integer.MIN_VALUE if the series is empty
+     */
+    public int lastDate() {
+        return mSize == 0 ? Integer.MIN_VALUE : mDates[mSize - 1];
+    }
+
+    /**
+     * @param epochDay - Date to look up
+     * @return - the position of the bar for that date, or -1 if there is no bar for that date
+     */
+    public int indexOf(int epochDay) {
+        int i = Arrays.binarySearch(mDates, 0, mSize, epochDay);
+        return i >= 0 ? i : -1;
+    }
+
+    /**
+     * @param epochDay - Date to look up
+     * @return - the position of the last bar on or before that date, or -1 if there is none
+     */
+    public int floorIndex(int epochDay) {
+        int i = Arrays.binarySearch(mDates, 0, mSize, epochDay);
+        return i >= 0 ? i : -i - 2;
+    }
+
+    /**
+     * @param epochDay - Date to look up
+     * @return - the position of the first bar on or after that date, or @size if there is none
+     */
+    public int ceilingIndex(int epochDay) {
+        int i = Arrays.binarySearch(mDates, 0, mSize, epochDay);
+        return i >= 0 ? i : -i - 1;
+    }
+
+    /**
+     * Method used for adding or replacing the bar for a single date, keeping the series sorted.
+     * Adding a bar after the last one is constant time; any other date costs a binary search and a shift.
+     */
+    public void put(int epochDay, double open, double high, double low, double close, long volume,
+                    double adjClose) {
+        int i = mSize == 0 || epochDay > mDates[mSize - 1] ? mSize : ceilingIndex(epochDay);
+        if (i < mSize && mDates[i] == epochDay) {
+            set(i, epochDay, open, high, low, close, volume, adjClose);
+            return;
+        }
+        ensureCapacity(mSize + 1);
+        int moved = mSize - i;
+        if (moved > 0) {
+            System.arraycopy(mDates, i, mDates, i + 1, moved);
+            System.arraycopy(mOpen, i, mOpen, i + 1, moved);
+            System.arraycopy(mHigh, i, mHigh, i + 1, moved);
+            System.arraycopy(mLow, i, mLow, i + 1, moved);
+            System.arraycopy(mClose, i, mClose, i + 1, moved);
+            System.arraycopy(mVolume, i, mVolume, i + 1, moved);
+            System.arraycopy(mAdjClose, i, mAdjClose, i + 1, moved);
+        }
+        set(i, epochDay, open, high, low, close, volume, adjClose);
+        ++mSize;
+    }
+
+    /**
+     * Method used for adding a bar at the end of the series, without keeping it sorted. Call @sortByDate
+     * once all bars have been added.
+     */
+    public void add(int epochDay, double open, double high, double low, double close, long volume,
+                    double adjClose) {
+        ensureCapacity(mSize + 1);
+        set(mSize, epochDay, open, high, low, close, volume, adjClose);
+        ++mSize;
+    }
+
+    /**
+     * Method used for sorting bars added with @add by date. When there are several bars for one date,
+     * the one added last is kept.
+     */
+    public void sortByDate() {
+        boolean sorted = true;
+        for (int i = 1; i < mSize && sorted; ++i) {
+            sorted = mDates[i - 1] < mDates[i];
+        }
+        if (sorted) {
+            return;
+        }
+        // Yahoo Finance lists the newest day first, which only needs turning around
+        boolean reversed = true;
+        for (int i = 1; i < mSize && reversed; ++i) {
+            reversed = mDates[i - 1] > mDates[i];
+        }
+        if (reversed) {
+            for (int i = 0, j = mSize - 1; i < j; ++i, --j) {
+                swap(i, j);
+            }
+            return;
+        }
+        // Sort (date, position) pairs packed into longs, so no objects are created
+        long[] keys = new long[mSize];
+        for (int i = 0; i < mSize; ++i) {
+            keys[i] = ((long) mDates[i] << 32) | i;
+        }
+        Arrays.sort(keys);
+        PriceSeries sorted2 = new PriceSeries(mSymbol, Math.max(16, mSize));
+        for (int k = 0; k < keys.length; ++k) {
+            int i = (int) keys[k];
+            if (k + 1 < keys.length && (keys[k + 1] >> 32) == mDates[i]) {
+                continue;
+            }
+            sorted2.add(mDates[i], mOpen[i], mHigh[i], mLow[i], mClose[i], mVolume[i], mAdjClose[i]);
+        }
+        copyFrom(sorted2);
+    }
+
+    /**
+     * Method used for merging another series of the same symbol into this one. Where both series have a bar
+     * for the same date, the bar from the other series is kept.
+     * @param other - A series sorted by date
+     * @return - the number of bars added or replaced
+     */
+    public int merge(PriceSeries other) {
+        if (other.mSize == 0) {
+            return 0;
+        }
+        if (mSize == 0 || other.mDates[0] > mDates[mSize - 1]) {
+            ensureCapacity(mSize + other.mSize);
+            for (int j = 0; j < other.mSize; ++j) {
+                set(mSize + j, other.mDates[j], other.mOpen[j], other.mHigh[j], other.mLow[j],
+                        other.mClose[j], other.mVolume[j], other.mAdjClose[j]);
+            }
+            mSize += other.mSize;
+            return other.mSize;
+        }
+        PriceSeries merged = new PriceSeries(mSymbol, mSize + other.mSize);
+        int i = 0;
+        int j = 0;
+        while (i < mSize || j < other.mSize) {
+            if (j == other.mSize || (i < mSize && mDates[i] < other.mDates[j])) {
+                merged.add(mDates[i], mOpen[i], mHigh[i], mLow[i], mClose[i], mVolume[i], mAdjClose[i]);
+                ++i;
+            } else {
+                if (i < mSize && mDates[i] == other.mDates[j]) {
+                    ++i;
+                }
+                merged.add(other.mDates[j], other.mOpen[j], other.mHigh[j], other.mLow[j],
+                        other.mClose[j], other.mVolume[j], other.mAdjClose[j]);
+                ++j;
+            }
+        }
+        copyFrom(merged);
+        return other.mSize;
+    }
+
+    void swap(int i, int j) {
+        int date = mDates[i];
+        mDates[i] = mDates[j];
+        mDates[j] = date;
+        swap(mOpen, i, j);
+        swap(mHigh, i, j);
+        swap(mLow, i, j);
+        swap(mClose, i, j);
+        long volume = mVolume[i];
+        mVolume[i] = mVolume[j];
+        mVolume[j] = volume;
+        swap(mAdjClose, i, j);
+    }
+
+    static void swap(double[] column, int i, int j) {
+        double value = column[i];
+        column[i] = column[j];
+        column[j] = value;
+    }
+
+    void set(int i, int epochDay, double open, double high, double low, double close, long volume,
+             double adjClose) {
+        mDates[i] = epochDay;
+        mOpen[i] = open;
+        mHigh[i] = high;
+        mLow[i] = low;
+        mClose[i] = close;
+        mVolume[i] = volume;
+        mAdjClose[i] = adjClose;
+    }
+
+    void copyFrom(PriceSeries other) {
+        mSize = other.mSize;
+        mDates = other.mDates;
+        mOpen = other.mOpen;
+        mHigh = other.mHigh;
+        mLow = other.mLow;
+        mClose = other.mClose;
+        mVolume = other.mVolume;
+        mAdjClose = other.mAdjClose;
+    }
+
+    void ensureCapacity(int capacity) {
+        if (capacity <= mDates.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, mDates.length * 2);
+        mDates = Arrays.copyOf(mDates, newCapacity);
+        mOpen = Arrays.copyOf(mOpen, newCapacity);
+        mHigh = Arrays.copyOf(mHigh, newCapacity);
+        mLow = Arrays.copyOf(mLow, newCapacity);
+        mClose = Arrays.copyOf(mClose, newCapacity);
+        mVolume = Arrays.copyOf(mVolume, newCapacity);
+        mAdjClose = Arrays.copyOf(mAdjClose, newCapacity);
+    }
+
+    /**
+     * Method used for writing the series to a file. The file is written to a temporary name first and then
+     * renamed, so a crash never leaves a half-written series behind.
+     * @param file - File to write
+     * @throws IOException - When the file cannot be written
+     */
+    public void writeTo(File file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(12 + mSize * BYTES_PER_BAR);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(mSize);
+        buffer.asIntBuffer().put(mDates, 0, mSize);
+        buffer.position(buffer.position() + mSize * 4);
+        putColumn(buffer, mOpen);
+        putColumn(buffer, mHigh);
+        putColumn(buffer, mLow);
+        putColumn(buffer, mClose);
+        buffer.asLongBuffer().put(mVolume, 0, mSize);
+        buffer.position(buffer.position() + mSize * 8);
+        putColumn(buffer, mAdjClose);
+        buffer.flip();
+
+        File tempFile = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tempFile);
+        try {
+            FileChannel channel = out.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } finally {
+            out.close();
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Could not replace price series: " + file);
+        }
+        if (!tempFile.renameTo(file)) {
+            throw new IOException("Could not rename " + tempFile + " to " + file);
+        }
+    }
+
+    void putColumn(ByteBuffer buffer, double[] column) {
+        buffer.asDoubleBuffer().put(column, 0, mSize);
+        buffer.position(buffer.position() + mSize * 8);
+    }
+
+    /**
+     * Method used for reading a series written by @writeTo.
+     * @param symbol - Ticker symbol of the series
+     * @param file - File to read
+     * @return - the series
+     * @throws IOException - When the file cannot be read, or is not a price series
+     */
+    public static PriceSeries readFrom(String symbol, File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        ByteBuffer buffer;
+        try {
+            FileChannel channel = in.getChannel();
+            buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // keep reading until the whole file is in the buffer
+            }
+        } finally {
+            in.close();
+        }
+        buffer.flip();
+        if (buffer.remaining() < 12 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IOException("Not a price series, or written by another version: " + file);
+        }
+        int size = buffer.getInt();
+        if (buffer.remaining() != size * BYTES_PER_BAR) {
+            throw new IOException("Price series is truncated: " + file);
+        }
+        PriceSeries series = new PriceSeries(symbol, Math.max(16, size));
+        series.mSize = size;
+        buffer.asIntBuffer().get(series.mDates, 0, size);
+        buffer.position(buffer.position() + size * 4);
+        getColumn(buffer, series.mOpen, size);
+        getColumn(buffer, series.mHigh, size);
+        getColumn(buffer, series.mLow, size);
+        getColumn(buffer, series.mClose, size);
+        buffer.asLongBuffer().get(series.mVolume, 0, size);
+        buffer.position(buffer.position() + size * 8);
+        getColumn(buffer, series.mAdjClose, size);
+        return series;
+    }
+
+    static void getColumn(ByteBuffer buffer, double[] column, int size) {
+        buffer.asDoubleBuffer().get(column, 0, size);
+        buffer.position(buffer.position() + size * 8);
+    }
+
+}
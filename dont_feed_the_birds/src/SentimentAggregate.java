@@ -0,0 +1,133 @@
+package com.company;
+
+/**
+ * Class used for keeping a running summary of tweet sentiment, so that the overall sentiment of a sample
+ * can be checked at any time while tweets are still being classified.
+ *
+ * Each tweet is added with its conditional probability of being positive and a weight (see @weight).
+ * The aggregate keeps totals over every tweet added, as well as over a rolling window of the most recent
+ * tweets. All methods are synchronized, so one instance can be shared between classifier threads.
+ *
+ * The net sentiment of a set of tweets is the weighted mean of (2 * p - 1), where p is each tweet's
+ * probability of being positive. It ranges from -1 (certainly negative) to +1 (certainly positive).
+ */
+public class SentimentAggregate {
+
+    // Tweets longer than this do not count for more, so one long tweet cannot swing the result
+    static final int MAX_WEIGHT = 140;
+
+    long mCount;
+    long mPositiveCount;
+    double mWeightSum;
+    double mProbabilitySum;
+    double mWeightedNetSum;
+
+    // Rolling window of the most recent tweets, kept as a ring buffer
+    final double[] mWindowNet;
+    final int[] mWindowWeight;
+    int mWindowNext;
+    int mWindowSize;
+
+    /**
+     * @param windowSize - Number of most recent tweets used for @windowNetSentiment
+     */
+    public SentimentAggregate(int windowSize) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("Window size must be at least 1, was: " + windowSize);
+        }
+        mWindowNet = new double[windowSize];
+        mWindowWeight = new int[windowSize];
+    }
+
+    /**
+     * Utility method giving the weight of a tweet: its length in characters, up to @MAX_WEIGHT.
+     * @param text - Text of the tweet
+     * @return - the weight to pass to @add
+     */
+    public static int weight(CharSequence text) {
+        return Math.max(1, Math.min(MAX_WEIGHT, text.length()));
+    }
+
+    /**
+     * Method used for adding a single classified tweet to the aggregate.
+     * @param positiveProbability - Conditional probability that the tweet is positive
+     * @param weight - Weight of the tweet, see @weight
+     */
+    public synchronized void add(double positiveProbability, int weight) {
+        double net = 2.0 * positiveProbability - 1.0;
+        ++mCount;
+        if (positiveProbability > 0.5) {
+            ++mPositiveCount;
+        }
+        mWeightSum += weight;
+        mProbabilitySum += positiveProbability;
+        mWeightedNetSum += weight * net;
+
+        if (mWindowSize < mWindowNet.length) {
+            ++mWindowSize;
+        }
+        mWindowNet[mWindowNext] = net;
+        mWindowWeight[mWindowNext] = weight;
+        mWindowNext = (mWindowNext + 1) % mWindowNet.length;
+    }
+
+    /**
+     * @return - the number of tweets added so far
+     */
+    public synchronized long count() {
+        return mCount;
+    }
+
+    /**
+     * @return - the total weight of every tweet added, see @weight
+     */
+    public synchronized double weightSum() {
+        return mWeightSum;
+    }
+
+    /**
+     * @return - the fraction of tweets classified as positive, or 0 if no tweets were added
+     */
+    public synchronized double positiveFraction() {
+        return mCount == 0 ? 0.0 : ((double) mPositiveCount) / mCount;
+    }
+
+    /**
+     * @return - the mean probability of a tweet being positive, or 0.5 if no tweets were added
+     */
+    public synchronized double meanPositiveProbability() {
+        return mCount == 0 ? 0.5 : mProbabilitySum / mCount;
+    }
+
+    /**
+     * @return - the weighted net sentiment over every tweet added, or 0 if no tweets were added
+     */
+    public synchronized double netSentiment() {
+        return mWeightSum == 0.0 ? 0.0 : mWeightedNetSum / mWeightSum;
+    }
+
+    /**
+     * @return - the weighted net sentiment over the rolling window, or 0 if no tweets were added
+     */
+    public synchronized double windowNetSentiment() {
+        // Summed from the buffer rather than kept as a running total, which would drift
+        if (mWindowSize == 0) {
+            return 0.0;
+        }
+        double weightSum = 0.0;
+        double weightedNetSum = 0.0;
+        for (int i = 0; i < mWindowSize; ++i) {
+            weightSum += mWindowWeight[i];
+            weightedNetSum += mWindowWeight[i] * mWindowNet[i];
+        }
+        return weightedNetSum / weightSum;
+    }
+
+    public synchronized String toString() {
+        return "# Tweets=" + mCount
+                + "  % Positive=" + positiveFraction()
+                + "  Net Sentiment=" + netSentiment()
+                + "  Net Sentiment (last " + mWindowSize + ")=" + windowNetSentiment();
+    }
+
+}
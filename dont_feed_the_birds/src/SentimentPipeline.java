@@ -0,0 +1,124 @@
+package com.company;
+
+import com.aliasi.classify.ConditionalClassification;
+import com.aliasi.classify.JointClassifier;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class used for classifying tweets continuously, as they arrive from the Twitter Stream.
+ *
+ * Tweets are handed to @offer (normally from StatusListener#onStatus), which places them on a bounded
+ * queue without blocking. A number of classifier threads take tweets off the queue, classify them with
+ * a compiled LingPipe classifier and add the result to a shared @SentimentAggregate, which can be read
+ * at any time. If the classifier threads fall behind and the queue fills up, new tweets are dropped
+ * and counted rather than slowing down the Twitter Stream.
+ *
+ * The classifier must be safe to use from several threads at once, which is the case for compiled
+ * LingPipe classifiers (see PolarityBasic#loadOrTrain).
+ */
+public class SentimentPipeline {
+
+    // Marker placed on the queue to tell a classifier thread to finish
+    static final String STOP = new String("STOP");
+
+    JointClassifier<CharSequence> mClassifier;
+    SentimentAggregate mAggregate;
+    BlockingQueue<String> mQueue;
+    Thread[] mWorkers;
+    AtomicLong mDropped = new AtomicLong();
+
+    /**
+     * @param classifier - A compiled (thread-safe) classifier
+     * @param aggregate - Aggregate to which every classified tweet is added
+     * @param queueCapacity - Maximum number of tweets waiting to be classified
+     * @param numWorkers - Number of classifier threads
+     */
+    public SentimentPipeline(JointClassifier<CharSequence> classifier, SentimentAggregate aggregate,
+                             int queueCapacity, int numWorkers) {
+        mClassifier = classifier;
+        mAggregate = aggregate;
+        mQueue = new ArrayBlockingQueue<String>(queueCapacity);
+        mWorkers = new Thread[numWorkers];
+    }
+
+    /**
+     * Method used for starting the classifier threads.
+     */
+    public synchronized void start() {
+        for (int i = 0; i < mWorkers.length; ++i) {
+            mWorkers[i] = new Thread(new Runnable() {
+                public void run() {
+                    classifyUntilStopped();
+                }
+            }, "sentiment-classifier-" + i);
+            mWorkers[i].setDaemon(true);
+            mWorkers[i].start();
+        }
+    }
+
+    /**
+     * Method used for handing a tweet to the pipeline. Never blocks.
+     * @param text - Text of the tweet
+     * @return - "True" if the tweet was queued, "False" if the queue was full and the tweet was dropped
+     */
+    public boolean offer(String text) {
+        if (mQueue.offer(text)) {
+            return true;
+        }
+        mDropped.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Method used for stopping the pipeline. Tweets already queued are classified before the
+     * classifier threads finish.
+     * @throws InterruptedException - When interrupted while waiting for the classifier threads
+     */
+    public synchronized void stop() throws InterruptedException {
+        for (int i = 0; i < mWorkers.length; ++i) {
+            mQueue.put(STOP);
+        }
+        for (int i = 0; i < mWorkers.length; ++i) {
+            mWorkers[i].join();
+        }
+    }
+
+    /**
+     * @return - the aggregate sentiment of every tweet classified so far
+     */
+    public SentimentAggregate aggregate() {
+        return mAggregate;
+    }
+
+    /**
+     * @return - the number of tweets dropped because the queue was full
+     */
+    public long dropped() {
+        return mDropped.get();
+    }
+
+    void classifyUntilStopped() {
+        try {
+            while (true) {
+                String text = mQueue.take();
+                if (text == STOP) {
+                    return;
+                }
+                try {
+                    ConditionalClassification classification = mClassifier.classify(text);
+                    mAggregate.add(PolarityBasic.positiveProbability(classification),
+                            SentimentAggregate.weight(text));
+                } catch (RuntimeException re) {
+                    System.out.println("Could not classify tweet: " + text);
+                    re.printStackTrace();
+                }
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,314 @@
+package com.company;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Class used for keeping the sentiment of each day's tweets, so backtests and reports can read it instead of
+ * classifying the archived tweets again.
+ *
+ * One entry is kept per calendar day: the number of tweets, their mean probability of being positive, the
+ * fraction classified as positive, their weighted net sentiment and total weight (see @SentimentAggregate),
+ * and a fingerprint of the model that classified them (see PolarityBasic#modelFingerprint). @update
+ * only classifies days which are missing, were classified by another model, or have had tweets archived
+ * since they were classified, and records them through a TradingStore, which keeps them in this file
+ * (FileTradingStore) or in a database.
+ *
+ * Entries are kept sorted by date in columns of primitive arrays, and written to a CSV file with the
+ * header "Date,Tweets,MeanPositive,PositiveFraction,NetSentiment,WeightSum,Model".
+ */
+public class SentimentSeriesStore {
+
+    public static final String DEFAULT_FILE = "sentimentSeries.csv";
+    static final String HEADER = "Date,Tweets,MeanPositive,PositiveFraction,NetSentiment,WeightSum,Model";
+
+    final File mFile;
+    int mSize;
+    int[] mDates = new int[16];
+    int[] mCounts = new int[16];
+    double[] mMeanPositive = new double[16];
+    double[] mPositiveFraction = new double[16];
+    double[] mNetSentiment = new double[16];
+    double[] mWeightSum = new double[16];
+    String[] mModels = new String[16];
+
+    SentimentSeriesStore(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Method used for reading the store from its file.
+     * @param file - CSV file the store is kept in
+     * @return - the store, empty if the file does not exist yet
+     * @throws IOException - When the file exists but cannot be read or parsed
+     */
+    public static SentimentSeriesStore open(File file) throws IOException {
+        SentimentSeriesStore store = new SentimentSeriesStore(file);
+        if (!file.isFile()) {
+            return store;
+        }
+        BufferedReader input = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line = input.readLine();
+            if (line == null || !line.equals(HEADER)) {
+                throw new IOException("Not a sentiment series file: " + file);
+            }
+            while ((line = input.readLine()) != null) {
+                String[] values = line.split(",", 7);
+                if (values.length < 7) {
+                    continue;
+                }
+                store.put(EpochDays.parse(values[0]), Integer.parseInt(values[1]), Double.parseDouble(values[2]),
+                        Double.parseDouble(values[3]), Double.parseDouble(values[4]),
+                        Double.parseDouble(values[5]), values[6]);
+            }
+        } catch (NumberFormatException nfe) {
+            throw new IOException("Bad value in sentiment series file: " + file, nfe);
+        } finally {
+            input.close();
+        }
+        return store;
+    }
+
+    /**
+     * @return - the number of days in the store
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @param epochDay - Date to look up
+     * @return - the position of the date's entry, or -1 if the date has no entry
+     */
+    public int indexOf(int epochDay) {
+        int i = Arrays.binarySearch(mDates, 0, mSize, epochDay);
+        return i >= 0 ? i : -1;
+    }
+
+    public int date(int i) {
+        return mDates[i];
+    }
+
+    public int count(int i) {
+        return mCounts[i];
+    }
+
+    public double meanPositive(int i) {
+        return mMeanPositive[i];
+    }
+
+    public double positiveFraction(int i) {
+        return mPositiveFraction[i];
+    }
+
+    public double netSentiment(int i) {
+        return mNetSentiment[i];
+    }
+
+    public double weightSum(int i) {
+        return mWeightSum[i];
+    }
+
+    public String model(int i) {
+        return mModels[i];
+    }
+
+    /**
+     * Method used for recording the sentiment of a day's tweets, replacing any earlier entry for the day.
+     * Call @save to keep it.
+     * @param epochDay - Date the tweets were collected
+     * @param aggregate - The day's classified tweets
+     * @param model - Fingerprint of the model that classified them
+     */
+    public void record(int epochDay, SentimentAggregate aggregate, String model) {
+        put(epochDay, (int) aggregate.count(), aggregate.meanPositiveProbability(), aggregate.positiveFraction(),
+                aggregate.netSentiment(), aggregate.weightSum(), model);
+    }
+
+    /**
+     * Method used for classifying the tweets of every archived day whose entry in a TradingStore is missing or
+     * out of date, and recording them in it in a single write. Days whose entries were classified by the same
+     * model, from the same number of tweets, are not classified again; the number of tweets in the
+     * TweetArchive is read from its index, so those days are not decompressed.
+     * @param pb - Loaded or trained classifier
+     * @param archiveDir - Directory of the TweetArchive, and of any daily text files of tweets archived in
+     *                   the older format (see Backtest#archiveFile)
+     * @param tradingStore - Store the sentiment is kept in (see TradingStore#sentimentSeries)
+     * @return - the number of days classified
+     * @throws IOException - When the archive cannot be read, or the store cannot be read or written
+     */
+    public static int update(PolarityBasic pb, File archiveDir, TradingStore tradingStore) throws IOException {
+        String model = pb.modelFingerprint();
+        SentimentSeriesStore stored = tradingStore.sentimentSeries();
+        SentimentSeriesStore classified = new SentimentSeriesStore(null);
+        TweetArchive archive = TweetArchive.open(archiveDir);
+        int[] days;
+        try {
+            days = archivedDays(archiveDir, archive);
+            for (int d = 0; d < days.length; ++d) {
+                File dayFile = Backtest.archiveFile(archiveDir, days[d]);
+                List<String> tweets = dayFile.isFile() ? PolarityBasic.readTweets(dayFile) : new ArrayList<String>();
+                int numTweets = tweets.size() + archive.count(days[d]);
+                int i = stored.indexOf(days[d]);
+                if (numTweets == 0 || (i >= 0 && stored.count(i) == numTweets && stored.model(i).equals(model))) {
+                    continue;
+                }
+                tweets.addAll(archive.texts(days[d]));
+                double[] probabilities = pb.positiveProbabilities(tweets);
+                SentimentAggregate aggregate = new SentimentAggregate(1);
+                for (int j = 0; j < probabilities.length; ++j) {
+                    aggregate.add(probabilities[j], SentimentAggregate.weight(tweets.get(j)));
+                }
+                classified.record(days[d], aggregate, model);
+            }
+        } finally {
+            archive.close();
+        }
+        tradingStore.recordSentiment(classified);
+        System.out.println("Classified the tweets of " + classified.size() + " of " + days.length
+                + " archived days");
+        return classified.size();
+    }
+
+    /**
+     * @return - the days with tweets in the archive or in a daily file, sorted
+     */
+    static int[] archivedDays(File archiveDir, TweetArchive archive) {
+        Set<Integer> days = new TreeSet<Integer>();
+        String[] names = archiveDir.list();
+        for (int n = 0; names != null && n < names.length; ++n) {
+            if (!names[n].endsWith(Backtest.TWEETS_SUFFIX)) {
+                continue;
+            }
+            try {
+                days.add(EpochDays.parse(names[n].substring(0, names[n].length() - Backtest.TWEETS_SUFFIX.length())));
+            } catch (NumberFormatException nfe) {
+                // not a daily file
+            }
+        }
+        int[] archived = archive.days();
+        for (int i = 0; i < archived.length; ++i) {
+            days.add(archived[i]);
+        }
+        int[] sorted = new int[days.size()];
+        int i = 0;
+        for (Integer day : days) {
+            sorted[i++] = day;
+        }
+        return sorted;
+    }
+
+    /**
+     * Method used for computing the net sentiment of each day in a price series. The entries of days without
+     * a bar (weekends and holidays) count towards the next trading day, weighted as their tweets were.
+     * @param prices - Daily prices; one score is computed for each day
+     * @return - the net sentiment of each day, or NaN for days without tweets
+     */
+    public double[] dailySentiment(PriceSeries prices) {
+        double[] sentiment = new double[prices.size()];
+        for (int bar = 0; bar < prices.size(); ++bar) {
+            int firstDate = bar == 0 ? prices.date(bar) : prices.date(bar - 1) + 1;
+            int i = Arrays.binarySearch(mDates, 0, mSize, firstDate);
+            if (i < 0) {
+                i = -i - 1;
+            }
+            double weightSum = 0.0;
+            double weightedNetSum = 0.0;
+            for (; i < mSize && mDates[i] <= prices.date(bar); ++i) {
+                weightSum += mWeightSum[i];
+                weightedNetSum += mWeightSum[i] * mNetSentiment[i];
+            }
+            sentiment[bar] = weightSum > 0.0 ? weightedNetSum / weightSum : Double.NaN;
+        }
+        return sentiment;
+    }
+
+    /**
+     * Method used for writing the store to its file. The file is written to a temporary name first and then
+     * renamed, so a crash never leaves a half-written store behind.
+     * @throws IOException - When the file cannot be written
+     */
+    public void save() throws IOException {
+        File tempFile = new File(mFile.getPath() + ".tmp");
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(tempFile), "UTF-8"));
+        try {
+            writer.print(HEADER + "\n");
+            for (int i = 0; i < mSize; ++i) {
+                writer.print(EpochDays.toString(mDates[i]) + "," + mCounts[i] + "," + mMeanPositive[i] + ","
+                        + mPositiveFraction[i] + "," + mNetSentiment[i] + "," + mWeightSum[i] + ","
+                        + mModels[i] + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+        if (mFile.exists() && !mFile.delete()) {
+            throw new IOException("Could not replace sentiment series: " + mFile);
+        }
+        if (!tempFile.renameTo(mFile)) {
+            throw new IOException("Could not rename " + tempFile + " to " + mFile);
+        }
+    }
+
+    /**
+     * Method used for copying every entry of another series into this one, replacing any for the same days.
+     * @param other - Series to copy
+     */
+    void putAll(SentimentSeriesStore other) {
+        for (int i = 0; i < other.mSize; ++i) {
+            put(other.mDates[i], other.mCounts[i], other.mMeanPositive[i], other.mPositiveFraction[i],
+                    other.mNetSentiment[i], other.mWeightSum[i], other.mModels[i]);
+        }
+    }
+
+    void put(int epochDay, int count, double meanPositive, double positiveFraction, double netSentiment,
+             double weightSum, String model) {
+        int i = Arrays.binarySearch(mDates, 0, mSize, epochDay);
+        if (i < 0) {
+            i = -i - 1;
+            ensureCapacity(mSize + 1);
+            int moved = mSize - i;
+            System.arraycopy(mDates, i, mDates, i + 1, moved);
+            System.arraycopy(mCounts, i, mCounts, i + 1, moved);
+            System.arraycopy(mMeanPositive, i, mMeanPositive, i + 1, moved);
+            System.arraycopy(mPositiveFraction, i, mPositiveFraction, i + 1, moved);
+            System.arraycopy(mNetSentiment, i, mNetSentiment, i + 1, moved);
+            System.arraycopy(mWeightSum, i, mWeightSum, i + 1, moved);
+            System.arraycopy(mModels, i, mModels, i + 1, moved);
+            ++mSize;
+        }
+        mDates[i] = epochDay;
+        mCounts[i] = count;
+        mMeanPositive[i] = meanPositive;
+        mPositiveFraction[i] = positiveFraction;
+        mNetSentiment[i] = netSentiment;
+        mWeightSum[i] = weightSum;
+        mModels[i] = model;
+    }
+
+    void ensureCapacity(int capacity) {
+        if (capacity <= mDates.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, mDates.length * 2);
+        mDates = Arrays.copyOf(mDates, newCapacity);
+        mCounts = Arrays.copyOf(mCounts, newCapacity);
+        mMeanPositive = Arrays.copyOf(mMeanPositive, newCapacity);
+        mPositiveFraction = Arrays.copyOf(mPositiveFraction, newCapacity);
+        mNetSentiment = Arrays.copyOf(mNetSentiment, newCapacity);
+        mWeightSum = Arrays.copyOf(mWeightSum, newCapacity);
+        mModels = Arrays.copyOf(mModels, newCapacity);
+    }
+
+}
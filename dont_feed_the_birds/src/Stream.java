@@ -7,7 +7,11 @@ import java.util.*;
 
 /**
  * Class for authenticating with Twitter and grabbing a specified number of statuses for a real-time sample.
- * The class writes all data to a text named "outputdata.txt".
+ * The class writes the text of the sample to a text file named "outputdata.txt", and, if given a
+ * @TweetArchive, keeps every status in it with its time, user, language and location.
+ *
+ * Alternatively, @executeContinuous keeps the stream open for a given time and classifies statuses as they
+ * arrive, through a SentimentPipeline, without writing them to a text file.
  *
  * Twitter keys and secrets must be changed per-user, in-line below.
  * See @execute method to edit output file location and Twitter authentication credentials.
@@ -25,21 +29,26 @@ public class Stream {
      * @throws IOException - When output file cannot be found, or data cannot be written to it.
      */
     public List<Status> execute() throws TwitterException, IOException {
+        return execute(null);
+    }
+
+    /**
+     * Method used for authenticating with Twitter, writing the sample's text to "outputdata.txt", and keeping
+     * every status of it in an archive.
+     *
+     * @param archive - Archive to append every status to, or null
+     * @return - A List of the Statuses collected from Twitter
+     * @throws TwitterException - When unable to authenticate or read data from Twitter
+     * @throws IOException - When output file cannot be found, or data cannot be written to it.
+     */
+    public List<Status> execute(final TweetArchive archive) throws TwitterException, IOException {
 
         final List<Status> statuses = new ArrayList();
         final FileWriter file = new FileWriter("outputdata.txt");
 
 
         // Authenticate with Twitter
-        ConfigurationBuilder cb = new ConfigurationBuilder();
-        cb.setDebugEnabled(true);
-        cb.setOAuthConsumerKey(KEY);
-        cb.setOAuthConsumerSecret(SECRET);
-        cb.setOAuthAccessToken(TOKEN);
-        cb.setOAuthAccessTokenSecret(TOKENSECRET);
-
-        TwitterStream twitterStream = new TwitterStreamFactory(cb.build())
-                .getInstance();
+        TwitterStream twitterStream = createTwitterStream();
 
         StatusListener listener = new StatusListener() {
 
@@ -59,8 +68,12 @@ public class Stream {
                 System.out.println("@" + status.getUser().getScreenName() + " - " + status.getText() + " -> "+
                         status.getCreatedAt());
                 try {
-                    file.write(status.getText()+"\n");
+                    // One tweet per line, as PolarityBasic#readTweets reads them
+                    file.write(status.getText().replace('\r', ' ').replace('\n', ' ') + "\n");
                     file.flush();
+                    if (archive != null) {
+                        archive.append(toRecord(status));
+                    }
                 } catch (IOException e) {
                     // TODO Auto-generated catch block
                     e.printStackTrace();
@@ -96,13 +109,8 @@ public class Stream {
         };
 
         // Filter stream by statuses Geo-located in the United States and written in English
-        FilterQuery fq = new FilterQuery();
-        fq.locations(new double[][]{new double[]{-126.562500, 30.448674},
-                new double[]{-61.171875,44.087585
-                }});
-        fq.language(new String[]{"en"});
         twitterStream.addListener(listener);
-        twitterStream.filter(fq);
+        twitterStream.filter(createFilterQuery());
 
         // Collect 100 statuses, confirm completion, shutdown TwitterStream
         try {
@@ -119,4 +127,145 @@ public class Stream {
         return statuses;
     }
 
+    /**
+     * Method used for sampling Twitter continuously, without writing anything to disk. Every status is
+     * handed to the pipeline, which classifies it and keeps a rolling sentiment aggregate. The aggregate is
+     * printed every @reportMillis, and the stream is shut down once @durationMillis has passed.
+     *
+     * @param pipeline - A started SentimentPipeline
+     * @param durationMillis - How long to keep the stream open, in milliseconds
+     * @param reportMillis - How often to print the current aggregate, in milliseconds
+     * @return - the aggregate sentiment of every status classified
+     * @throws TwitterException - When unable to authenticate or read data from Twitter
+     * @throws InterruptedException - When interrupted while waiting for the stream
+     */
+    public SentimentAggregate executeContinuous(final SentimentPipeline pipeline, long durationMillis,
+                                                long reportMillis)
+            throws TwitterException, InterruptedException {
+        return executeContinuous(pipeline, null, durationMillis, reportMillis);
+    }
+
+    /**
+     * Method used for sampling Twitter continuously, as @executeContinuous(SentimentPipeline, long, long) does,
+     * while keeping every status in an archive. The archive is flushed at every report, so at most one
+     * report's worth of statuses is lost if the session crashes.
+     *
+     * @param pipeline - A started SentimentPipeline
+     * @param archive - Archive to append every status to, or null
+     * @param durationMillis - How long to keep the stream open, in milliseconds
+     * @param reportMillis - How often to print the current aggregate, in milliseconds
+     * @return - the aggregate sentiment of every status classified
+     * @throws TwitterException - When unable to authenticate or read data from Twitter
+     * @throws InterruptedException - When interrupted while waiting for the stream
+     */
+    public SentimentAggregate executeContinuous(final SentimentPipeline pipeline, final TweetArchive archive,
+                                                long durationMillis, long reportMillis)
+            throws TwitterException, InterruptedException {
+
+        TwitterStream twitterStream = createTwitterStream();
+        twitterStream.addListener(new QuietStatusListener() {
+            public void onStatus(Status status) {
+                pipeline.offer(status.getText());
+                if (archive != null) {
+                    try {
+                        archive.append(toRecord(status));
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        });
+        twitterStream.filter(createFilterQuery());
+
+        long end = System.currentTimeMillis() + durationMillis;
+        try {
+            long remaining;
+            while ((remaining = end - System.currentTimeMillis()) > 0) {
+                Thread.sleep(Math.min(remaining, reportMillis));
+                System.out.println(pipeline.aggregate() + "  # Dropped=" + pipeline.dropped());
+                if (archive != null) {
+                    try {
+                        archive.flush();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        } finally {
+            twitterStream.shutdown();
+            pipeline.stop();
+        }
+        System.out.println("Continuous sample finished: " + pipeline.aggregate());
+
+        return pipeline.aggregate();
+    }
+
+    /**
+     * Method used for converting a status to a record of the tweet archive.
+     * @param status - Status received from Twitter
+     * @return - the status's id, time, user, language, location, retweet flag and text
+     */
+    static TweetArchive.Record toRecord(Status status) {
+        User user = status.getUser();
+        GeoLocation location = status.getGeoLocation();
+        return new TweetArchive.Record(status.getId(), status.getCreatedAt().getTime(),
+                user == null ? 0 : user.getId(), user == null ? null : user.getScreenName(), status.getLang(),
+                location == null ? Double.NaN : location.getLatitude(),
+                location == null ? Double.NaN : location.getLongitude(),
+                status.isRetweet(), status.getText());
+    }
+
+    /**
+     * Method used for authenticating with Twitter.
+     * Twitter keys and secrets must be changed per user, and specified explicitly.
+     * @return - A TwitterStream which has not yet been started
+     */
+    TwitterStream createTwitterStream() {
+        ConfigurationBuilder cb = new ConfigurationBuilder();
+        cb.setDebugEnabled(true);
+        cb.setOAuthConsumerKey(KEY);
+        cb.setOAuthConsumerSecret(SECRET);
+        cb.setOAuthAccessToken(TOKEN);
+        cb.setOAuthAccessTokenSecret(TOKENSECRET);
+
+        return new TwitterStreamFactory(cb.build()).getInstance();
+    }
+
+    /**
+     * Method used for filtering the stream to statuses Geo-located in the United States and written in English.
+     * @return - the FilterQuery used by @execute and @executeContinuous
+     */
+    FilterQuery createFilterQuery() {
+        FilterQuery fq = new FilterQuery();
+        fq.locations(new double[][]{new double[]{-126.562500, 30.448674},
+                new double[]{-61.171875,44.087585
+                }});
+        fq.language(new String[]{"en"});
+        return fq;
+    }
+
+    /**
+     * StatusListener which ignores everything except statuses and exceptions, so that long-running
+     * samples do not print a line per event.
+     */
+    abstract static class QuietStatusListener implements StatusListener {
+
+        public void onDeletionNotice(StatusDeletionNotice statusDeletionNotice) { }
+
+        public void onTrackLimitationNotice(int numberOfLimitedStatuses) {
+            System.out.println("Got track limitation notice:" + numberOfLimitedStatuses);
+        }
+
+        public void onScrubGeo(long userId, long upToStatusId) { }
+
+        public void onException(Exception ex) {
+            ex.printStackTrace();
+        }
+
+        public void onStallWarning(StallWarning sw) {
+            System.out.println(sw.getMessage());
+        }
+
+    }
+
 }
@@ -0,0 +1,300 @@
+package com.company;
+
+/**
+ * Class used for knowing which days the stock market is open, so dates can be stepped through by trading
+ * session instead of by trial requests for days that have no data.
+ *
+ * Sessions follow the NYSE: weekdays other than its holidays (New Year's Day, Martin Luther King Jr. Day,
+ * Washington's Birthday, Good Friday, Memorial Day, Juneteenth, Independence Day, Labor Day, Thanksgiving
+ * and Christmas, moved to the Friday or Monday when they fall on a weekend) and the unscheduled closures
+ * listed in @SPECIAL_CLOSURES. Half-days, when the market closes at 1 p.m., are the day before Independence
+ * Day, the day after Thanksgiving and Christmas Eve.
+ *
+ * The calendar is worked out once for a range of years and kept as a bitset with one bit per day, plus the
+ * number of sessions before each 64-day word of it, and an array of the session dates in order. A day's
+ * session number is then a lookup and a bit count, so "sessions between" and "previous session" take the
+ * same time whatever the dates, and allocate nothing.
+ */
+public class TradingCalendar {
+
+    static final int FIRST_YEAR = 1990;
+    static final int LAST_YEAR = 2099;
+
+    // Days the NYSE closed outside its regular holidays
+    static final String[] SPECIAL_CLOSURES = {
+            "1994-04-27", // President Nixon's funeral
+            "2001-09-11", "2001-09-12", "2001-09-13", "2001-09-14", // September 11 attacks
+            "2004-06-11", // President Reagan's funeral
+            "2007-01-02", // President Ford's funeral
+            "2012-10-29", "2012-10-30", // Hurricane Sandy
+            "2018-12-05", // President George H. W. Bush's funeral
+            "2025-01-09", // President Carter's funeral
+    };
+
+    static TradingCalendar sNyse;
+
+    final int mFirstDay;
+    final int mLastDay;
+    final long[] mSessions;
+    final long[] mHalfDays;
+    // Number of sessions before each word of mSessions
+    final int[] mSessionsBefore;
+    // Date of each session, in order
+    final int[] mSessionDays;
+
+    /**
+     * @return - the NYSE calendar from 1990 to 2099, worked out on first use
+     */
+    public static synchronized TradingCalendar nyse() {
+        if (sNyse == null) {
+            sNyse = new TradingCalendar(FIRST_YEAR, LAST_YEAR);
+        }
+        return sNyse;
+    }
+
+    /**
+     * @param firstYear - First year covered
+     * @param lastYear - Last year covered, inclusive
+     */
+    public TradingCalendar(int firstYear, int lastYear) {
+        mFirstDay = EpochDays.of(firstYear, 1, 1);
+        mLastDay = EpochDays.of(lastYear, 12, 31);
+        int numDays = mLastDay - mFirstDay + 1;
+        int numWords = (numDays + 63) >>> 6;
+        mSessions = new long[numWords];
+        mHalfDays = new long[numWords];
+
+        for (int day = mFirstDay; day <= mLastDay; ++day) {
+            if (EpochDays.dayOfWeek(day) <= 5) {
+                set(mSessions, day);
+            }
+        }
+        for (int year = firstYear; year <= lastYear; ++year) {
+            addHolidays(year);
+        }
+        for (int i = 0; i < SPECIAL_CLOSURES.length; ++i) {
+            clear(mSessions, EpochDays.parse(SPECIAL_CLOSURES[i]));
+        }
+
+        mSessionsBefore = new int[numWords + 1];
+        for (int w = 0; w < numWords; ++w) {
+            mSessionsBefore[w + 1] = mSessionsBefore[w] + Long.bitCount(mSessions[w]);
+        }
+        mSessionDays = new int[mSessionsBefore[numWords]];
+        int n = 0;
+        for (int day = mFirstDay; day <= mLastDay; ++day) {
+            if (isSession(day)) {
+                mSessionDays[n++] = day;
+            }
+        }
+    }
+
+    void addHolidays(int year) {
+        closeObserved(EpochDays.of(year, 1, 1), false);
+        if (year >= 1998) {
+            clear(mSessions, nthWeekday(year, 1, 1, 3));
+        }
+        clear(mSessions, nthWeekday(year, 2, 1, 3));
+        clear(mSessions, easter(year) - 2);
+        clear(mSessions, lastWeekday(year, 5, 1));
+        if (year >= 2022) {
+            closeObserved(EpochDays.of(year, 6, 19), true);
+        }
+        closeObserved(EpochDays.of(year, 7, 4), true);
+        clear(mSessions, nthWeekday(year, 9, 1, 1));
+        int thanksgiving = nthWeekday(year, 11, 4, 4);
+        clear(mSessions, thanksgiving);
+        closeObserved(EpochDays.of(year, 12, 25), true);
+
+        // Early closes, when the day before is still a session
+        int july3 = EpochDays.of(year, 7, 3);
+        if (EpochDays.dayOfWeek(july3) <= 4) {
+            setIfInRange(mHalfDays, july3);
+        }
+        setIfInRange(mHalfDays, thanksgiving + 1);
+        int christmasEve = EpochDays.of(year, 12, 24);
+        if (EpochDays.dayOfWeek(christmasEve) <= 4) {
+            setIfInRange(mHalfDays, christmasEve);
+        }
+    }
+
+    /**
+     * Method used for closing a fixed-date holiday, moved to the Monday when it falls on a Sunday, and to the
+     * Friday when it falls on a Saturday, if allowed. New Year's Day is not moved back into the old year.
+     */
+    void closeObserved(int day, boolean observeOnFriday) {
+        int dayOfWeek = EpochDays.dayOfWeek(day);
+        if (dayOfWeek == 6) {
+            if (observeOnFriday) {
+                clear(mSessions, day - 1);
+            }
+        } else if (dayOfWeek == 7) {
+            clear(mSessions, day + 1);
+        } else {
+            clear(mSessions, day);
+        }
+    }
+
+    /**
+     * @return - the date of the nth given weekday (1 = Monday) of a month
+     */
+    static int nthWeekday(int year, int month, int dayOfWeek, int n) {
+        int first = EpochDays.of(year, month, 1);
+        int offset = (dayOfWeek - EpochDays.dayOfWeek(first) + 7) % 7;
+        return first + offset + (n - 1) * 7;
+    }
+
+    /**
+     * @return - the date of the last given weekday (1 = Monday) of a month
+     */
+    static int lastWeekday(int year, int month, int dayOfWeek) {
+        int last = EpochDays.of(month == 12 ? year + 1 : year, month == 12 ? 1 : month + 1, 1) - 1;
+        return last - (EpochDays.dayOfWeek(last) - dayOfWeek + 7) % 7;
+    }
+
+    /**
+     * @return - the date of Easter Sunday in the Gregorian calendar (the anonymous Gregorian algorithm)
+     */
+    static int easter(int year) {
+        int a = year % 19;
+        int b = year / 100;
+        int c = year % 100;
+        int d = b / 4;
+        int e = b % 4;
+        int f = (b + 8) / 25;
+        int g = (b - f + 1) / 3;
+        int h = (19 * a + b - d - g + 15) % 30;
+        int i = c / 4;
+        int k = c % 4;
+        int l = (32 + 2 * e + 2 * i - h - k) % 7;
+        int m = (a + 11 * h + 22 * l) / 451;
+        int month = (h + l - 7 * m + 114) / 31;
+        int day = (h + l - 7 * m + 114) % 31 + 1;
+        return EpochDays.of(year, month, day);
+    }
+
+    void set(long[] bits, int day) {
+        int i = day - mFirstDay;
+        bits[i >>> 6] |= 1L << (i & 63);
+    }
+
+    void setIfInRange(long[] bits, int day) {
+        if (day >= mFirstDay && day <= mLastDay) {
+            set(bits, day);
+        }
+    }
+
+    void clear(long[] bits, int day) {
+        if (day >= mFirstDay && day <= mLastDay) {
+            int i = day - mFirstDay;
+            bits[i >>> 6] &= ~(1L << (i & 63));
+        }
+    }
+
+    void checkRange(int day) {
+        if (day < mFirstDay || day > mLastDay + 1) {
+            throw new IllegalArgumentException("Date outside the trading calendar: " + EpochDays.toString(day));
+        }
+    }
+
+    /**
+     * @param epochDay - Date to check
+     * @return - true if the market is open on that date
+     */
+    public boolean isSession(int epochDay) {
+        checkRange(epochDay);
+        if (epochDay > mLastDay) {
+            return false;
+        }
+        int i = epochDay - mFirstDay;
+        return (mSessions[i >>> 6] & (1L << (i & 63))) != 0;
+    }
+
+    /**
+     * @param epochDay - Date to check
+     * @return - true if the market is open on that date, but closes early
+     */
+    public boolean isHalfDay(int epochDay) {
+        checkRange(epochDay);
+        if (epochDay > mLastDay) {
+            return false;
+        }
+        int i = epochDay - mFirstDay;
+        return isSession(epochDay) && (mHalfDays[i >>> 6] & (1L << (i & 63))) != 0;
+    }
+
+    /**
+     * @param epochDay - Date, from the first day of the calendar to the day after its last
+     * @return - the number of sessions in the calendar before the date
+     */
+    public int sessionsBefore(int epochDay) {
+        checkRange(epochDay);
+        int i = epochDay - mFirstDay;
+        int word = i >>> 6;
+        if (word == mSessions.length) {
+            return mSessionsBefore[word];
+        }
+        long below = (1L << (i & 63)) - 1;
+        return mSessionsBefore[word] + Long.bitCount(mSessions[word] & below);
+    }
+
+    /**
+     * @param fromDay - First date, inclusive
+     * @param toDay - Last date, exclusive
+     * @return - the number of sessions from the first date up to the last
+     */
+    public int sessionsBetween(int fromDay, int toDay) {
+        return sessionsBefore(toDay) - sessionsBefore(fromDay);
+    }
+
+    /**
+     * @param fromDay - First date, inclusive
+     * @param toDay - Last date, exclusive
+     * @return - true if the calendar covers the whole range, so that its sessions can be counted
+     */
+    public boolean covers(int fromDay, int toDay) {
+        return fromDay >= mFirstDay && toDay <= mLastDay + 1;
+    }
+
+    /**
+     * @param epochDay - Date
+     * @return - the last session before the date, or Integer.MIN_VALUE if there is none in the calendar
+     */
+    public int previousSession(int epochDay) {
+        int before = sessionsBefore(epochDay);
+        return before == 0 ? Integer.MIN_VALUE : mSessionDays[before - 1];
+    }
+
+    /**
+     * @param epochDay - Date
+     * @return - the date itself if it is a session, otherwise the last session before it
+     */
+    public int latestSession(int epochDay) {
+        return isSession(epochDay) ? epochDay : previousSession(epochDay);
+    }
+
+    /**
+     * @param epochDay - Date
+     * @return - the first session after the date, or Integer.MAX_VALUE if there is none in the calendar
+     */
+    public int nextSession(int epochDay) {
+        int after = sessionsBefore(epochDay + 1);
+        return after == mSessionDays.length ? Integer.MAX_VALUE : mSessionDays[after];
+    }
+
+    /**
+     * @return - the number of sessions in the calendar
+     */
+    public int numSessions() {
+        return mSessionDays.length;
+    }
+
+    /**
+     * @param index - Session number, from 0 to @numSessions - 1, as given by @sessionsBefore
+     * @return - the session's date
+     */
+    public int sessionDay(int index) {
+        return mSessionDays[index];
+    }
+
+}
@@ -0,0 +1,135 @@
+package com.company;
+
+import java.io.IOException;
+
+/**
+ * Interface for the storage behind @DataOps: the running totals of each strategy, daily prices, and daily
+ * tweet sentiment.
+ *
+ * @FileTradingStore keeps everything in files (see @Ledger, @PriceHistory and @SentimentSeriesStore), and is
+ * used by default. @JdbcTradingStore keeps everything in a SQL database, such as an embedded, file-backed
+ * H2, Derby or SQLite database; see DataOps#openStore for how to choose it.
+ *
+ * Totals and positions are kept per strategy ("experiment" or "control") and ordered by time; prices and sentiment are
+ * kept per day. Every read takes a range, so reports and backtests never need to load more than they use.
+ */
+public interface TradingStore {
+
+    String EXPERIMENT = "experiment";
+    String CONTROL = "control";
+
+    /**
+     * Interface for receiving the entries of a strategy's history, one at a time, in time order.
+     */
+    interface HistoryHandler {
+        void handle(long timestamp, double total, double openingPrice, double closingPrice);
+    }
+
+    /**
+     * Method used for adding the day's totals and positions of both strategies, together: either both are
+     * stored or neither.
+     * @param experiment - The experiment strategy's new entry
+     * @param control - The control strategy's new entry
+     * @throws IOException - When the entries cannot be stored
+     */
+    void appendResults(Ledger.Entry experiment, Ledger.Entry control) throws IOException;
+
+    /**
+     * Method used for starting the experiment again: the history of both strategies is set aside, and both
+     * start from the same entry.
+     * @param start - First entry of both strategies, with the position they start from
+     * @throws IOException - When the history cannot be set aside, or the entries cannot be stored
+     */
+    void restartResults(Ledger.Entry start) throws IOException;
+
+    /**
+     * @param strategy - @EXPERIMENT or @CONTROL
+     * @return - the strategy's first entry, or null if it has none
+     * @throws IOException - When the history cannot be read
+     */
+    Ledger.Entry first(String strategy) throws IOException;
+
+    /**
+     * @param strategy - @EXPERIMENT or @CONTROL
+     * @return - the strategy's latest entry, or null if it has none
+     * @throws IOException - When the history cannot be read
+     */
+    Ledger.Entry latest(String strategy) throws IOException;
+
+    /**
+     * Method used for reading part of a strategy's history.
+     * @param strategy - @EXPERIMENT or @CONTROL
+     * @param fromTimestamp - Earliest time to read, inclusive, in milliseconds since 1970
+     * @param toTimestamp - Latest time to read, inclusive, in milliseconds since 1970
+     * @param handler - Receives each entry in the range, in time order
+     * @throws IOException - When the history cannot be read
+     */
+    void scanHistory(String strategy, long fromTimestamp, long toTimestamp, HistoryHandler handler)
+            throws IOException;
+
+    /**
+     * Method used for adding daily bars, replacing any already stored for the same symbol and dates.
+     * @param bars - Bars of a single symbol, sorted by date
+     * @throws IOException - When the bars cannot be stored
+     */
+    void putBars(PriceSeries bars) throws IOException;
+
+    /**
+     * Method used for reading a symbol's daily bars between two dates.
+     * @param symbol - Ticker symbol
+     * @param fromDay - First date, inclusive, in epoch days
+     * @param toDay - Last date, inclusive, in epoch days
+     * @return - the bars in the range, sorted by date
+     * @throws IOException - When the bars cannot be read
+     */
+    PriceSeries bars(String symbol, int fromDay, int toDay) throws IOException;
+
+    /**
+     * Method used for finding where a symbol's stored bars end, so only newer bars need to be downloaded.
+     * @param symbol - Ticker symbol
+     * @return - the date of the symbol's latest bar, in epoch days, or Integer.MIN_VALUE if it has none
+     * @throws IOException - When the bars cannot be read
+     */
+    int lastBarDate(String symbol) throws IOException;
+
+    /**
+     * Method used for storing the sentiment of a day's tweets, replacing any stored for the same day.
+     * @param epochDay - Date the tweets were collected
+     * @param aggregate - The day's classified tweets
+     * @param model - Fingerprint of the model that classified them
+     * @throws IOException - When the sentiment cannot be stored
+     */
+    void recordSentiment(int epochDay, SentimentAggregate aggregate, String model) throws IOException;
+
+    /**
+     * Method used for storing the sentiment of many days in a single write, replacing any stored for the same
+     * days, e.g. after SentimentSeriesStore#update classified them again.
+     * @param days - The days' entries; the file of the series, if any, is not read
+     * @throws IOException - When the sentiment cannot be stored
+     */
+    void recordSentiment(SentimentSeriesStore days) throws IOException;
+
+    /**
+     * Method used for reading the stored sentiment of every day, with the model that classified it, e.g. to
+     * find the days that need classifying again.
+     * @return - the stored days, in a series not kept in a file
+     * @throws IOException - When the sentiment cannot be read
+     */
+    SentimentSeriesStore sentimentSeries() throws IOException;
+
+    /**
+     * Method used for reading the net sentiment of each day in a price series, as
+     * SentimentSeriesStore#dailySentiment does.
+     * @param prices - Daily prices; one score is returned for each day
+     * @return - the net sentiment of each day, or NaN for days without tweets
+     * @throws IOException - When the sentiment cannot be read
+     */
+    double[] dailySentiment(PriceSeries prices) throws IOException;
+
+    /**
+     * Method used for releasing the files or connection held by the store.
+     * @throws IOException - When the store cannot be closed
+     */
+    void close() throws IOException;
+
+}
@@ -0,0 +1,547 @@
+package com.company;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Class used for keeping every status collected from Twitter, with its time, user, language and location, so
+ * that months of tweets can be classified again later, e.g. by a new model (see SentimentSeriesStore#update).
+ *
+ * Statuses are appended to compressed segment files, one per hour of their creation time, kept in one
+ * directory per day, e.g. "tweetArchive/2015-04-09/13.tweets.gz" for the 14th hour of the day. A segment
+ * written to again after it was closed gets another gzip member appended, which is read back as one stream.
+ * A small index ("tweets.index") records each segment's number of statuses, its earliest and latest creation
+ * times, and its size on disk, so days can be counted, and a time range read, without decompressing any
+ * segment outside it. The index is checked against the segments when the archive is opened, and segments
+ * written since it was saved, e.g. before a crash, are scanned again.
+ *
+ * A tweet's day, which names its directory, is the local date (see EpochDays#ofMillis) at the start of its
+ * hour, the same date its sentiment is recorded for while collecting (see EpochDays#today). An archive is
+ * therefore read in the time zone it was written in.
+ */
+public class TweetArchive {
+
+    public static final String INDEX_FILE = "tweets.index";
+    static final String INDEX_HEADER = "Hour,Records,FirstMillis,LastMillis,Bytes";
+    static final String SEGMENT_SUFFIX = ".tweets.gz";
+    static final long MILLIS_PER_HOUR = 60 * 60 * 1000;
+    static final int RECORD_VERSION = 1;
+    static final int BUFFER_BYTES = 64 * 1024;
+
+    /**
+     * Class used for holding one archived status.
+     */
+    public static class Record {
+        final long mId;
+        final long mCreatedAt;
+        final long mUserId;
+        final String mScreenName;
+        final String mLanguage;
+        final double mLatitude;
+        final double mLongitude;
+        final boolean mRetweet;
+        final String mText;
+
+        /**
+         * @param id - Status id
+         * @param createdAt - Creation time, in milliseconds since 1970
+         * @param userId - Id of the user who posted it
+         * @param screenName - The user's screen name, or null
+         * @param language - Language code of the status, e.g. "en", or null
+         * @param latitude - Where it was posted from, or NaN if it has no location
+         * @param longitude - Where it was posted from, or NaN if it has no location
+         * @param retweet - true if the status is a retweet
+         * @param text - Text of the status
+         */
+        public Record(long id, long createdAt, long userId, String screenName, String language, double latitude,
+                      double longitude, boolean retweet, String text) {
+            mId = id;
+            mCreatedAt = createdAt;
+            mUserId = userId;
+            mScreenName = screenName == null ? "" : screenName;
+            mLanguage = language == null ? "" : language;
+            mLatitude = latitude;
+            mLongitude = longitude;
+            mRetweet = retweet;
+            mText = text == null ? "" : text;
+        }
+
+        public long id() {
+            return mId;
+        }
+
+        public long createdAt() {
+            return mCreatedAt;
+        }
+
+        public long userId() {
+            return mUserId;
+        }
+
+        public String screenName() {
+            return mScreenName;
+        }
+
+        public String language() {
+            return mLanguage;
+        }
+
+        public double latitude() {
+            return mLatitude;
+        }
+
+        public double longitude() {
+            return mLongitude;
+        }
+
+        public boolean isRetweet() {
+            return mRetweet;
+        }
+
+        public String text() {
+            return mText;
+        }
+    }
+
+    /**
+     * Interface for receiving archived statuses, in the order they were appended within each hour, and hour
+     * by hour.
+     */
+    public interface RecordHandler {
+        void handle(Record record);
+    }
+
+    final File mDirectory;
+
+    // Index of the segments, sorted by hour
+    int mSize;
+    int[] mHours = new int[16];
+    int[] mCounts = new int[16];
+    long[] mFirstMillis = new long[16];
+    long[] mLastMillis = new long[16];
+    long[] mBytes = new long[16];
+
+    // Segment being appended to, if any
+    int mOpenHour = -1;
+    DataOutputStream mOut;
+    boolean mClosed;
+
+    TweetArchive(File directory) {
+        mDirectory = directory;
+    }
+
+    /**
+     * Method used for opening an archive, reading its index, and bringing the index up to date with any
+     * segments written since it was saved.
+     * @param directory - Directory holding the archive; created when the first status is appended
+     * @return - the archive, ready for appending and reading
+     * @throws IOException - When the index or a segment cannot be read
+     */
+    public static TweetArchive open(File directory) throws IOException {
+        TweetArchive archive = new TweetArchive(directory);
+        archive.readIndex();
+        if (archive.reconcile()) {
+            archive.saveIndex();
+        }
+        return archive;
+    }
+
+    /**
+     * Method used for adding a status to the segment of its hour.
+     * @param record - Status to keep
+     * @throws IOException - When the segment cannot be written
+     */
+    public synchronized void append(Record record) throws IOException {
+        if (mClosed) {
+            throw new IOException("Tweet archive is closed: " + mDirectory);
+        }
+        int hour = (int) Math.floorDiv(record.mCreatedAt, MILLIS_PER_HOUR);
+        if (hour != mOpenHour) {
+            closeSegment();
+            openSegment(hour);
+        }
+        mOut.writeByte(RECORD_VERSION);
+        mOut.writeLong(record.mId);
+        mOut.writeLong(record.mCreatedAt);
+        mOut.writeLong(record.mUserId);
+        mOut.writeUTF(record.mScreenName);
+        mOut.writeUTF(record.mLanguage);
+        mOut.writeDouble(record.mLatitude);
+        mOut.writeDouble(record.mLongitude);
+        mOut.writeBoolean(record.mRetweet);
+        mOut.writeUTF(record.mText);
+
+        int i = indexOf(hour);
+        mFirstMillis[i] = mCounts[i] == 0 ? record.mCreatedAt : Math.min(mFirstMillis[i], record.mCreatedAt);
+        mLastMillis[i] = mCounts[i] == 0 ? record.mCreatedAt : Math.max(mLastMillis[i], record.mCreatedAt);
+        ++mCounts[i];
+    }
+
+    /**
+     * Method used for writing the statuses appended so far through to the open segment, so they survive a
+     * crash and can be read. Compression is a little worse for each flush, so call it every few minutes
+     * rather than after every status.
+     * @throws IOException - When the segment cannot be written
+     */
+    public synchronized void flush() throws IOException {
+        if (mOut != null) {
+            mOut.flush();
+            mBytes[indexOf(mOpenHour)] = segmentFile(mOpenHour).length();
+        }
+    }
+
+    /**
+     * Method used for finishing the open segment and saving the index. Statuses cannot be appended afterwards.
+     * @throws IOException - When the segment or the index cannot be written
+     */
+    public synchronized void close() throws IOException {
+        if (!mClosed) {
+            closeSegment();
+            mClosed = true;
+        }
+    }
+
+    /**
+     * @return - the days with archived statuses, sorted
+     */
+    public synchronized int[] days() {
+        int[] days = new int[mSize];
+        int numDays = 0;
+        for (int i = 0; i < mSize; ++i) {
+            int day = dayOf(mHours[i]);
+            if (mCounts[i] > 0 && (numDays == 0 || days[numDays - 1] != day)) {
+                days[numDays++] = day;
+            }
+        }
+        return Arrays.copyOf(days, numDays);
+    }
+
+    /**
+     * @param epochDay - Date
+     * @return - the number of statuses archived for the date, counted from the index
+     */
+    public synchronized int count(int epochDay) {
+        int count = 0;
+        for (int i = firstHourOf(epochDay); i < mSize && dayOf(mHours[i]) <= epochDay; ++i) {
+            if (dayOf(mHours[i]) == epochDay) {
+                count += mCounts[i];
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param epochDay - Date
+     * @return - the text of every status archived for the date, reading only that date's segments
+     * @throws IOException - When a segment cannot be read
+     */
+    public synchronized List<String> texts(int epochDay) throws IOException {
+        final List<String> texts = new ArrayList<String>();
+        RecordHandler handler = new RecordHandler() {
+            public void handle(Record record) {
+                texts.add(record.text());
+            }
+        };
+        for (int i = firstHourOf(epochDay); i < mSize && dayOf(mHours[i]) <= epochDay; ++i) {
+            if (dayOf(mHours[i]) == epochDay && mCounts[i] > 0) {
+                readSegment(mHours[i], Long.MIN_VALUE, Long.MAX_VALUE, handler);
+            }
+        }
+        return texts;
+    }
+
+    /**
+     * Method used for reading the statuses created in a time range, decompressing only the segments whose
+     * statuses, according to the index, overlap it.
+     * @param fromMillis - Earliest creation time, inclusive, in milliseconds since 1970
+     * @param toMillis - Latest creation time, inclusive, in milliseconds since 1970
+     * @param handler - Receives each status in the range
+     * @return - the number of statuses read
+     * @throws IOException - When a segment cannot be read
+     */
+    public synchronized int scan(long fromMillis, long toMillis, RecordHandler handler) throws IOException {
+        long fromHour = Math.floorDiv(fromMillis, MILLIS_PER_HOUR);
+        int i = Arrays.binarySearch(mHours, 0, mSize, (int) Math.max(fromHour, Integer.MIN_VALUE));
+        if (i < 0) {
+            i = -i - 1;
+        }
+        int count = 0;
+        for (; i < mSize && (long) mHours[i] * MILLIS_PER_HOUR <= toMillis; ++i) {
+            if (mCounts[i] > 0 && mLastMillis[i] >= fromMillis && mFirstMillis[i] <= toMillis) {
+                count += readSegment(mHours[i], fromMillis, toMillis, handler);
+            }
+        }
+        return count;
+    }
+
+    int readSegment(int hour, long fromMillis, long toMillis, RecordHandler handler) throws IOException {
+        if (hour == mOpenHour) {
+            mOut.flush();
+        }
+        File file = segmentFile(hour);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(file), BUFFER_BYTES), BUFFER_BYTES));
+        int count = 0;
+        try {
+            int version;
+            while ((version = in.read()) != -1) {
+                if (version != RECORD_VERSION) {
+                    throw new IOException("Not a tweet archive segment, or written by another version: " + file);
+                }
+                Record record = new Record(in.readLong(), in.readLong(), in.readLong(), in.readUTF(), in.readUTF(),
+                        in.readDouble(), in.readDouble(), in.readBoolean(), in.readUTF());
+                if (record.mCreatedAt >= fromMillis && record.mCreatedAt <= toMillis) {
+                    handler.handle(record);
+                    ++count;
+                }
+            }
+        } catch (EOFException eofe) {
+            // A segment still being written, or cut short by a crash; keep what was read
+            if (hour != mOpenHour) {
+                System.out.println("Tweet archive segment ends early: " + file);
+            }
+        } catch (ZipException ze) {
+            // A segment cut short by a crash, then appended to; the statuses after the cut are lost
+            System.out.println("Tweet archive segment is damaged after " + count + " statuses: " + file);
+        } finally {
+            in.close();
+        }
+        return count;
+    }
+
+    void openSegment(int hour) throws IOException {
+        File file = segmentFile(hour);
+        File dayDirectory = file.getParentFile();
+        if (!dayDirectory.isDirectory() && !dayDirectory.mkdirs()) {
+            throw new IOException("Could not create tweet archive directory: " + dayDirectory);
+        }
+        // Sync flushing lets @flush write through statuses without finishing the segment
+        mOut = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(new FileOutputStream(file, true), BUFFER_BYTES, true), BUFFER_BYTES));
+        mOpenHour = hour;
+        if (indexOf(hour) < 0) {
+            put(hour, 0, 0, 0, 0);
+        }
+    }
+
+    void closeSegment() throws IOException {
+        if (mOut == null) {
+            return;
+        }
+        try {
+            mOut.close();
+        } finally {
+            mOut = null;
+            mBytes[indexOf(mOpenHour)] = segmentFile(mOpenHour).length();
+            mOpenHour = -1;
+        }
+        saveIndex();
+    }
+
+    File segmentFile(int hour) {
+        int day = dayOf(hour);
+        int hourOfDay = hour - startHour(day);
+        return new File(new File(mDirectory, EpochDays.toString(day)),
+                (hourOfDay < 10 ? "0" : "") + hourOfDay + SEGMENT_SUFFIX);
+    }
+
+    static int dayOf(int hour) {
+        return EpochDays.ofMillis(hour * MILLIS_PER_HOUR);
+    }
+
+    /**
+     * @param epochDay - Date
+     * @return - the first hour, in hours since 1970, whose day (see @dayOf) is the date
+     */
+    static int startHour(int epochDay) {
+        // Local dates are at most a day away from UTC dates
+        int hour = (epochDay - 1) * 24;
+        while (dayOf(hour) < epochDay) {
+            ++hour;
+        }
+        return hour;
+    }
+
+    /**
+     * @return - the position in the index of the first hour that may belong to the date
+     */
+    int firstHourOf(int epochDay) {
+        int i = Arrays.binarySearch(mHours, 0, mSize, startHour(epochDay));
+        return i < 0 ? -i - 1 : i;
+    }
+
+    int indexOf(int hour) {
+        int i = Arrays.binarySearch(mHours, 0, mSize, hour);
+        return i >= 0 ? i : -1;
+    }
+
+    void put(int hour, int count, long firstMillis, long lastMillis, long bytes) {
+        int i = Arrays.binarySearch(mHours, 0, mSize, hour);
+        if (i < 0) {
+            i = -i - 1;
+            if (mSize == mHours.length) {
+                int capacity = mSize * 2;
+                mHours = Arrays.copyOf(mHours, capacity);
+                mCounts = Arrays.copyOf(mCounts, capacity);
+                mFirstMillis = Arrays.copyOf(mFirstMillis, capacity);
+                mLastMillis = Arrays.copyOf(mLastMillis, capacity);
+                mBytes = Arrays.copyOf(mBytes, capacity);
+            }
+            int moved = mSize - i;
+            System.arraycopy(mHours, i, mHours, i + 1, moved);
+            System.arraycopy(mCounts, i, mCounts, i + 1, moved);
+            System.arraycopy(mFirstMillis, i, mFirstMillis, i + 1, moved);
+            System.arraycopy(mLastMillis, i, mLastMillis, i + 1, moved);
+            System.arraycopy(mBytes, i, mBytes, i + 1, moved);
+            ++mSize;
+        }
+        mHours[i] = hour;
+        mCounts[i] = count;
+        mFirstMillis[i] = firstMillis;
+        mLastMillis[i] = lastMillis;
+        mBytes[i] = bytes;
+    }
+
+    void readIndex() throws IOException {
+        File file = new File(mDirectory, INDEX_FILE);
+        if (!file.isFile()) {
+            return;
+        }
+        BufferedReader input = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line = input.readLine();
+            if (line == null || !line.equals(INDEX_HEADER)) {
+                throw new IOException("Not a tweet archive index: " + file);
+            }
+            while ((line = input.readLine()) != null) {
+                String[] values = line.split(",");
+                if (values.length < 5) {
+                    continue;
+                }
+                put(Integer.parseInt(values[0]), Integer.parseInt(values[1]), Long.parseLong(values[2]),
+                        Long.parseLong(values[3]), Long.parseLong(values[4]));
+            }
+        } catch (NumberFormatException nfe) {
+            throw new IOException("Bad value in tweet archive index: " + file, nfe);
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Method used for scanning the segments whose size differs from the index, and dropping the entries of
+     * segments that no longer exist.
+     * @return - true if the index changed
+     */
+    boolean reconcile() throws IOException {
+        boolean changed = false;
+        boolean[] found = new boolean[mSize];
+        List<Integer> rescan = new ArrayList<Integer>();
+        String[] dayNames = mDirectory.list();
+        for (int d = 0; dayNames != null && d < dayNames.length; ++d) {
+            int day;
+            try {
+                day = EpochDays.parse(dayNames[d]);
+            } catch (NumberFormatException nfe) {
+                continue;
+            }
+            String[] names = new File(mDirectory, dayNames[d]).list();
+            for (int n = 0; names != null && n < names.length; ++n) {
+                if (!names[n].endsWith(SEGMENT_SUFFIX) || names[n].length() != 2 + SEGMENT_SUFFIX.length()) {
+                    continue;
+                }
+                int hour;
+                try {
+                    hour = startHour(day) + Integer.parseInt(names[n].substring(0, 2));
+                } catch (NumberFormatException nfe) {
+                    continue;
+                }
+                int i = indexOf(hour);
+                if (i >= 0) {
+                    found[i] = true;
+                }
+                if (i < 0 || mBytes[i] != segmentFile(hour).length()) {
+                    rescan.add(hour);
+                }
+            }
+        }
+        for (int i = mSize - 1; i >= 0; --i) {
+            if (!found[i]) {
+                remove(i);
+                changed = true;
+            }
+        }
+        for (int r = 0; r < rescan.size(); ++r) {
+            int hour = rescan.get(r);
+            final long[] stats = {0, Long.MAX_VALUE, Long.MIN_VALUE};
+            readSegment(hour, Long.MIN_VALUE, Long.MAX_VALUE, new RecordHandler() {
+                public void handle(Record record) {
+                    ++stats[0];
+                    stats[1] = Math.min(stats[1], record.createdAt());
+                    stats[2] = Math.max(stats[2], record.createdAt());
+                }
+            });
+            put(hour, (int) stats[0], stats[0] == 0 ? 0 : stats[1], stats[0] == 0 ? 0 : stats[2],
+                    segmentFile(hour).length());
+            changed = true;
+        }
+        return changed;
+    }
+
+    void remove(int i) {
+        int moved = mSize - i - 1;
+        System.arraycopy(mHours, i + 1, mHours, i, moved);
+        System.arraycopy(mCounts, i + 1, mCounts, i, moved);
+        System.arraycopy(mFirstMillis, i + 1, mFirstMillis, i, moved);
+        System.arraycopy(mLastMillis, i + 1, mLastMillis, i, moved);
+        System.arraycopy(mBytes, i + 1, mBytes, i, moved);
+        --mSize;
+    }
+
+    /**
+     * Method used for writing the index. The file is written to a temporary name first and then renamed, so
+     * a crash never leaves a half-written index behind.
+     * @throws IOException - When the index cannot be written
+     */
+    void saveIndex() throws IOException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Could not create tweet archive directory: " + mDirectory);
+        }
+        File file = new File(mDirectory, INDEX_FILE);
+        File tempFile = new File(mDirectory, INDEX_FILE + ".tmp");
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(tempFile), "UTF-8"));
+        try {
+            writer.print(INDEX_HEADER + "\n");
+            for (int i = 0; i < mSize; ++i) {
+                writer.print(mHours[i] + "," + mCounts[i] + "," + mFirstMillis[i] + "," + mLastMillis[i] + ","
+                        + mBytes[i] + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Could not replace tweet archive index: " + file);
+        }
+        if (!tempFile.renameTo(file)) {
+            throw new IOException("Could not rename " + tempFile + " to " + file);
+        }
+    }
+
+}
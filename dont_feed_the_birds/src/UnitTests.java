@@ -1,8 +1,18 @@
 package com.company;
 
+import com.aliasi.classify.Classification;
+import com.aliasi.classify.Classified;
+import com.aliasi.classify.DynamicLMClassifier;
+import com.aliasi.classify.JointClassification;
+import com.aliasi.classify.JointClassifier;
+
+import com.aliasi.util.AbstractExternalizable;
 
 import java.io.*;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Test class, used for ensuring that:
@@ -28,6 +38,36 @@ public class UnitTests {
                 "POSITIVE sentiment: " + testInstance.posSentimentCorrectlyIdentified());
         System.out.println("\n\nLingPipe's trained classifier is accurately able to determine " +
                 "NEGATIVE sentiment: " + testInstance.negSentimentCorrectlyIdentified());
+        System.out.println("\n\nOnline training rejects unknown labels before journaling them: " +
+                testInstance.onlineTrainerRejectsUnknownCategory());
+        System.out.println("\n\nOnline training discards a journal line cut short by a crash: " +
+                testInstance.onlineTrainerDiscardsIncompleteLine());
+        System.out.println("\n\nTexts classified in a batch come back in input order, as classified singly: " +
+                testInstance.batchClassificationKeepsInputOrder());
+        System.out.println("\n\nPer-tweet sentiment is combined into an accurately weighted net sentiment: " +
+                testInstance.netSentimentWeightedAccurately());
+        System.out.println("\n\nPrice history bars are stored by date and looked up accurately: " +
+                testInstance.priceSeriesLookupsAccurate());
+        System.out.println("\n\nPrice CSV data is parsed from bytes to the same values as Double.parseDouble: " +
+                testInstance.priceCsvParsedAccurately());
+        System.out.println("\n\nThe ledger returns the latest total and discards an incomplete entry: " +
+                testInstance.ledgerKeepsLatestTotal());
+        System.out.println("\n\nA write to both ledgers cut short by a crash is finished from its journal: " +
+                testInstance.ledgerTransactionRecovers());
+        System.out.println("\n\nThe database store reads back the history, bars and sentiment written to it: " +
+                testInstance.jdbcTradingStoreRoundTrips());
+        System.out.println("\n\nSimulated strategies sell at the open, buy back whole shares, and pay their costs: " +
+                testInstance.portfolioTradesAccurately());
+        System.out.println("\n\nReturns, drawdown and hit rate are measured accurately in a single pass: " +
+                testInstance.performanceStatsAccurate());
+        System.out.println("\n\nThe crawler steps back across month, leap day and year boundaries accurately: " +
+                testInstance.crawlerSubtractsDaysAccurately());
+        System.out.println("\n\nThe trading calendar skips weekends and holidays, and counts sessions accurately: " +
+                testInstance.tradingCalendarAccurate());
+        System.out.println("\n\nArchived tweets are read back by time range, from their hourly segments: " +
+                testInstance.tweetArchiveReadsTimeRanges());
+        System.out.println("\n\nMarket data is fetched from the local quote server, retrying server errors: " +
+                testInstance.fetcherRetriesAgainstLocalServer());
     }
 
     /**
@@ -40,13 +80,12 @@ public class UnitTests {
         File posSentiment = new File("testData/posSentiment.txt");
         String exampleFilePath = posSentiment.getAbsolutePath();
 
-        // Create instance of LingPipe classifier, train it, then ensure it works on example
+        // Create instance of LingPipe classifier, load or train it, then ensure it works on example
         boolean exampleSentiment = false;
         try {
             PolarityBasic pb = new PolarityBasic(new String[]{
                     "POLARITY_DIR"});
-            pb.train();
-            pb.evaluate();
+            pb.loadOrTrain();
             exampleSentiment = pb.invest(exampleFilePath);
 
         } catch (Throwable t) {
@@ -75,12 +114,12 @@ public class UnitTests {
         String exampleFilePath = posSentiment.getAbsolutePath();
 
 
-        // Create instance of LingPipe classifier, train it, then ensure it works on example
+        // Create instance of LingPipe classifier, load or train it, then ensure it works on example
         boolean exampleSentiment = true;
         try {
             PolarityBasic pb = new PolarityBasic(new String[]{
                     "POLARITY_DIR"});
-            pb.run();
+            pb.loadOrTrain();
             exampleSentiment = pb.invest(exampleFilePath);
 
         } catch (Throwable t) {
@@ -96,68 +135,680 @@ public class UnitTests {
 
     /**
      * Method used for testing whether the investment logic and the subsequent calcuations are performed
-     * correctly when given the go-ahead to invest on any given day.
+     * correctly when given the go-ahead to invest on any given day: the experiment keeps its shares through
+     * the day, and is worth as much as the control at the close.
      * @return - boolean, "True" if the logic is functioning as expected.
      */
     public boolean investmentsPerformedAccuratelyWithPositiveSentiment() {
+        boolean testPassed = false;
+        Ledger.Entry[] results = updateOneDay(0.9);
+        if (results != null && results[0].shares() == 100 && results[0].cash() == 0.0
+                && results[0].total() == 10100.0 && results[1].total() == 10100.0) {
+            testPassed = true;
+        }
+        return testPassed;
+    }
 
-        // Create example values
-        HashMap<String, String> exampleData =  new HashMap<String, String>();
-        exampleData.put("Open", "100");
-        exampleData.put("Close", "101");
+    /**
+     * Method used for testing whether the investment logic and the subsequent calcuations are performed
+     * correctly when algorithmically told NOT to invest on any given day: the experiment sells its shares at
+     * the open and holds the cash through the day, while the control keeps its shares.
+     * @return - boolean, "True" if the logic is functioning as expected.
+     */
+    public boolean investmentsPerformedAccuratelyWithNegativeSentiment() {
+        boolean testPassed = false;
+        Ledger.Entry[] results = updateOneDay(0.1);
+        if (results != null && results[0].shares() == 0 && results[0].cash() == 10000.0
+                && results[0].total() == 10000.0 && results[1].total() == 10100.0) {
+            testPassed = true;
+        }
+        return testPassed;
+    }
 
-        double totalAssets = 10000.00;
-        boolean sentiment = true;
+    /**
+     * Method used for running the daily investment over a single day, from 100 shares held at a close of 100,
+     * to a day that opens at 100 and closes at 101, after a day of tweets with the given sentiment.
+     * @param positiveProbability - Probability of the day's single tweet being positive
+     * @return - the latest experiment and control entries, or null if the update failed
+     */
+    Ledger.Entry[] updateOneDay(double positiveProbability) {
+        Ledger.Entry[] results = null;
+        try {
+            File storeDir = File.createTempFile("unitTest", ".store");
+            storeDir.delete();
+            storeDir.mkdir();
+            TradingStore store = new FileTradingStore(storeDir);
+            try {
+                int day = EpochDays.parse("2015-04-08");
+                PriceSeries bars = new PriceSeries("SPY");
+                bars.add(day, 99.0, 100.0, 99.0, 100.0, 1000, 100.0);
+                bars.add(day + 1, 100.0, 101.0, 100.0, 101.0, 1000, 101.0);
+                store.putBars(bars);
+                SentimentAggregate aggregate = new SentimentAggregate(10);
+                aggregate.add(positiveProbability, 1);
+                store.recordSentiment(day, aggregate, "unitTest");
+                store.restartResults(new Ledger.Entry(EpochDays.toMillis(day), 10000.0, 99.0, 100.0, 100, 0.0, day));
+
+                if (DataOps.updateResults(store, "SPY", 0.0, ExecutionModel.IDEAL) == 1) {
+                    results = new Ledger.Entry[]{store.latest(TradingStore.EXPERIMENT),
+                            store.latest(TradingStore.CONTROL)};
+                }
+            } finally {
+                store.close();
+                deleteTree(storeDir);
+            }
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+        return results;
+    }
 
+    static void deleteTree(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (int i = 0; i < children.length; ++i) {
+                deleteTree(children[i]);
+            }
+        }
+        file.delete();
+    }
 
-        // Test investment function
-        double programResult = DataOps.investmentResult(exampleData,totalAssets, sentiment);
+    /**
+     * Method used for testing whether a tweet labeled with a category the classifier does not have is rejected
+     * before it reaches the journal, whether such a line, journaled by an older version, is skipped when the
+     * journal is replayed, and whether the state written with a snapshot is read back while a category has
+     * not been trained on.
+     * @return - boolean, "True" if the logic is functioning as expected.
+     */
+    public boolean onlineTrainerRejectsUnknownCategory() {
+        boolean testPassed = false;
+        try {
+            File journalFile = File.createTempFile("unitTest", ".labeled");
+            journalFile.delete();
+            File snapshotFile = new File(journalFile.getPath() + ".model");
+            File stateFile = new File(journalFile.getPath() + ".state");
+            String[] categories = {"neg", "pos"};
+
+            OnlineTrainer trainer = new OnlineTrainer(categories, "base", journalFile, snapshotFile, stateFile, 1000);
+            trainer.startFrom(DynamicLMClassifier.createNGramProcess(categories, 3), new long[2]);
+            boolean rejected = false;
+            try {
+                trainer.handle("Stocks are up today", "Pos");
+            } catch (IllegalArgumentException iae) {
+                rejected = true;
+            }
+            boolean nothingJournaled = !journalFile.exists();
+            trainer.handle("Stocks are up today", "pos");
+            trainer.close();
+            long journalLength = journalFile.length();
+
+            Writer journal = new OutputStreamWriter(new FileOutputStream(journalFile, true), "UTF-8");
+            journal.write("Pos\tAn old typo\n");
+            journal.close();
+            OnlineTrainer restarted = new OnlineTrainer(categories, "base", journalFile, snapshotFile, stateFile,
+                    1000);
+            restarted.startFrom(DynamicLMClassifier.createNGramProcess(categories, 3), new long[2]);
+            long numReplayed = restarted.replayJournal();
+
+            // The state written with the snapshot has no "neg" tweets, and is read back with an empty model
+            OnlineTrainer restored = new OnlineTrainer(categories, "base", journalFile, snapshotFile, stateFile,
+                    1000);
+            boolean stateRestored = restored.restoreState() && restored.replayJournal() == 0;
+
+            if (rejected && nothingJournaled && stateRestored
+                    && restored.numTrained() == 1 && restored.classifier() != null
+                    && trainer.fingerprint().equals("base+journal=" + journalLength)
+                    && numReplayed == 1
+                    && restarted.numTrained() == 1
+                    && restarted.classifier() != null) {
+                testPassed = true;
+            }
+            journalFile.delete();
+            snapshotFile.delete();
+            stateFile.delete();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return testPassed;
+    }
 
+    /**
+     * Method used for testing whether a last journal line without its newline, as a crash while journaling
+     * leaves it, is neither trained on nor joined to the next labeled tweet.
+     * @return - boolean, "True" if the logic is functioning as expected.
+     */
+    public boolean onlineTrainerDiscardsIncompleteLine() {
+        boolean testPassed = false;
+        try {
+            File journalFile = File.createTempFile("unitTest", ".labeled");
+            File snapshotFile = new File(journalFile.getPath() + ".model");
+            File stateFile = new File(journalFile.getPath() + ".state");
+            String[] categories = {"neg", "pos"};
+            Writer journal = new OutputStreamWriter(new FileOutputStream(journalFile), "UTF-8");
+            journal.write("pos\tStocks are up today\nneg\tStocks are do");
+            journal.close();
+
+            OnlineTrainer trainer = new OnlineTrainer(categories, "base", journalFile, snapshotFile, stateFile, 1000);
+            trainer.startFrom(DynamicLMClassifier.createNGramProcess(categories, 3), new long[2]);
+            long numReplayed = trainer.replayJournal();
+            trainer.handle("Stocks are down today", "neg");
+            trainer.close();
+
+            BufferedReader input = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile),
+                    "UTF-8"));
+            List<String> lines = new ArrayList<String>();
+            String line;
+            while ((line = input.readLine()) != null) {
+                lines.add(line);
+            }
+            input.close();
+
+            if (numReplayed == 1 && trainer.numTrained() == 2
+                    && lines.size() == 2 && lines.get(1).equals("neg\tStocks are down today")
+                    && trainer.fingerprint().equals("base+journal=" + journalFile.length())) {
+                testPassed = true;
+            }
+            journalFile.delete();
+            snapshotFile.delete();
+            stateFile.delete();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return testPassed;
+    }
+
+    /**
+     * Method used for testing whether texts classified in a batch, on every core, come back in the order they
+     * were given, each with the classification it gets on its own, and whether later batches reuse the same
+     * thread pool.
+     * @return - boolean, "True" if the logic is functioning as expected.
+     */
+    public boolean batchClassificationKeepsInputOrder() {
+        boolean testPassed = false;
+        try {
+            PolarityBasic pb = new PolarityBasic(new String[]{
+                    "POLARITY_DIR"});
+            pb.mClassifier.handle(new Classified<CharSequence>("Stocks rally to a record high",
+                    new Classification("pos")));
+            pb.mClassifier.handle(new Classified<CharSequence>("Markets crash on weak earnings",
+                    new Classification("neg")));
+            @SuppressWarnings("unchecked")
+            JointClassifier<CharSequence> compiled
+                    = (JointClassifier<CharSequence>) AbstractExternalizable.compile(pb.mClassifier);
+            pb.mCompiledClassifier = compiled;
+
+            List<String> texts = new ArrayList<String>();
+            for (int i = 0; i < 500; ++i) {
+                texts.add(i % 3 == 0 ? "Record rally number " + i : "Weak earnings, crash number " + i);
+            }
+            BatchClassifier.Result first = pb.classifyAll(texts);
+            ExecutorService pool = pb.mExecutor;
+            BatchClassifier.Result second = pb.classifyAll(texts);
+
+            boolean matches = first.size() == texts.size() && second.size() == texts.size();
+            for (int i = 0; matches && i < texts.size(); ++i) {
+                JointClassification single = compiled.classify(texts.get(i));
+                matches = first.classification(i).bestCategory().equals(single.bestCategory())
+                        && first.classification(i).jointLog2Probability(0) == single.jointLog2Probability(0)
+                        && second.classification(i).jointLog2Probability(0) == single.jointLog2Probability(0);
+            }
+            if (matches && pool != null && pb.mExecutor == pool && !pool.isShutdown()) {
+                testPassed = true;
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return testPassed;
+    }
+
+    /**
+     * Method used for testing whether per-tweet probabilities are combined correctly into a net sentiment
+     * score, with longer tweets counting for more, up to the maximum weight.
+     * @return - boolean, "True" if the logic is functioning as expected.
+     */
+    public boolean netSentimentWeightedAccurately() {
+
+        // One short, certainly positive tweet and one long, certainly negative tweet
+        SentimentAggregate aggregate = new SentimentAggregate(1);
+        aggregate.add(1.0, SentimentAggregate.weight("short and happy"));
+        aggregate.add(0.0, SentimentAggregate.weight(new String(new char[500])));
 
-        // Perform expected operation here, then compare
-        String updatedStockPriceString = exampleData.get("Close");
-        double updatedStockPrice = Double.parseDouble(updatedStockPriceString);
-        double testResult = totalAssets * updatedStockPrice;
+        // Perform expected operation here, for comparison
+        double expectedNet = (15 * 1.0 + 140 * -1.0) / (15 + 140);
 
         boolean testPassed = false;
-        if (String.valueOf(programResult).equalsIgnoreCase(String.valueOf(testResult))) {
+        if (Math.abs(aggregate.netSentiment() - expectedNet) < 1e-9
+                && aggregate.windowNetSentiment() == -1.0
+                && aggregate.positiveFraction() == 0.5) {
             testPassed = true;
         }
         return testPassed;
+    }
 
+    /**
+     * Method used for testing whether bars added out of order are sorted and merged by date, and whether
+     * dates are looked up correctly, including dates with no bar such as weekends.
+     * @return - boolean, "True" if the logic is functioning as expected.
+     */
+    public boolean priceSeriesLookupsAccurate() {
+
+        // Friday, then Monday, added newest-first as in Yahoo's CSV files
+        int friday = EpochDays.parse("2015-07-31");
+        int monday = EpochDays.parse("2015-08-03");
+        PriceSeries series = new PriceSeries("SPY");
+        series.add(monday, 210.0, 211.0, 209.0, 210.5, 1000, 210.5);
+        series.add(friday, 208.0, 209.0, 207.0, 208.5, 2000, 208.5);
+        series.sortByDate();
+
+        // A later download corrects Monday's close
+        PriceSeries update = new PriceSeries("SPY");
+        update.add(monday, 210.0, 211.0, 209.0, 210.75, 1100, 210.75);
+        series.merge(update);
+
+        int saturday = friday + 1;
+        boolean testPassed = false;
+        if (series.size() == 2
+                && series.date(0) == friday
+                && series.close(1) == 210.75
+                && series.floorIndex(saturday) == 0
+                && series.ceilingIndex(saturday) == 1
+                && series.indexOf(saturday) == -1
+                && EpochDays.dayOfWeek(monday) == 1
+                && EpochDays.toString(monday).equals("2015-08-03")) {
+            testPassed = true;
+        }
+        return testPassed;
     }
 
     /**
-     * Method used for testing whether the investment logic and the subsequent calcuations are performed
-     * correctly when algorithmically told NOT to invest on any given day.
+     * Method used for testing whether CSV data in the Yahoo Finance format is read from bytes into the same
+     * bars as parsing each value's text, with Windows line breaks, columns in another order, no "Adj Close"
+     * column, and a line cut across two reads of the buffer.
      * @return - boolean, "True" if the logic is functioning as expected.
      */
-    public boolean investmentsPerformedAccuratelyWithNegativeSentiment() {
+    public boolean priceCsvParsedAccurately() {
+        String csv = "Volume,Close,Date,Open,High,Low\r\n"
+                + "81236300,207.279999,2015-04-09,206.630005,207.449997,205.830002\r\n"
+                + "\r\n"
+                + "70778800, 0.1e3 ,2015-04-02,-0.05,100.000000000000001,1.7976931348623157\r\n";
+        boolean testPassed = false;
+        try {
+            PriceSeries series = new PriceSeries("SPY");
+            PriceCsvParser parser = new PriceCsvParser("test", PriceCsvParser.builder(series));
+            ByteBuffer buffer = ByteBuffer.wrap(csv.getBytes("UTF-8"));
+            buffer.limit(70);
+            parser.parseLines(buffer, false);
+            buffer.limit(buffer.capacity());
+            parser.parseLines(buffer, true);
+            series.sortByDate();
+
+            if (series.size() == 2
+                    && series.date(0) == EpochDays.parse("2015-04-02")
+                    && series.close(0) == 100.0
+                    && series.open(0) == -0.05
+                    && series.high(0) == Double.parseDouble("100.000000000000001")
+                    && series.low(0) == Double.parseDouble("1.7976931348623157")
+                    && series.open(1) == Double.parseDouble("206.630005")
+                    && series.close(1) == Double.parseDouble("207.279999")
+                    && series.adjClose(1) == series.close(1)
+                    && series.volume(1) == 81236300L) {
+                testPassed = true;
+            }
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+        return testPassed;
+    }
+
+    /**
+     * Method used for testing whether the ledger returns the latest total after a reopen, and discards an entry
+     * cut short, as a crash during a write would leave it.
+     * @return - boolean, "True" if the logic is functioning as expected.
+     */
+    public boolean ledgerKeepsLatestTotal() {
+        boolean testPassed = false;
+        try {
+            File ledgerFile = File.createTempFile("unitTest", ".ledger");
+            Ledger ledger = Ledger.create(ledgerFile);
+            ledger.append(1000L, 20644.0, 205.62, 206.44, 100, 0.0, EpochDays.parse("2015-04-07"));
+            ledger.append(2000L, 20783.0, 206.44, 207.83, 100, 0.0, EpochDays.parse("2015-04-08"));
+            ledger.close();
+
+            // Cut the second entry short
+            RandomAccessFile raf = new RandomAccessFile(ledgerFile, "rw");
+            raf.setLength(raf.length() - 1);
+            raf.close();
+
+            ledger = Ledger.open(ledgerFile);
+            if (ledger.size() == 1 && ledger.latest().total() == 20644.0 && ledger.map().closingPrice(0) == 206.44) {
+                testPassed = true;
+            }
+            ledger.close();
+            ledgerFile.delete();
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+        return testPassed;
+    }
 
-        // Create example values
-        HashMap<String, String> exampleData =  new HashMap<String, String>();
-        exampleData.put("Open", "100");
-        exampleData.put("Close", "101");
+    /**
+     * Method used for testing whether a write to both ledgers that stopped after the journal was written, and
+     * after only the experiment's entry was applied, is finished when a ledger is next opened: both ledgers
+     * end up with the new entry, once, and the journal is deleted.
+     * @return - boolean, "True" if the logic is functioning as expected.
+     */
+    public boolean ledgerTransactionRecovers() {
+        boolean testPassed = false;
+        try {
+            File historyDir = File.createTempFile("unitTest", ".history");
+            historyDir.delete();
+            historyDir.mkdir();
+            File experimentHistory = new File(historyDir, DataOps.EXPERIMENT_HISTORY_FILE);
+            File controlHistory = new File(historyDir, DataOps.CONTROL_HISTORY_FILE);
+            File journalFile = DataOps.journalFile(experimentHistory);
+            try {
+                Ledger experimentLedger = DataOps.openLedger(experimentHistory);
+                Ledger controlLedger = DataOps.openLedger(controlHistory);
+                int day = EpochDays.parse("2015-04-07");
+                Ledger.Entry start = new Ledger.Entry(1000L, 20644.0, 205.62, 206.44, 100, 0.0, day);
+                LedgerTransaction transaction = new LedgerTransaction(journalFile);
+                transaction.restart(experimentLedger, start);
+                transaction.restart(controlLedger, start);
+                transaction.commit();
+
+                // Journal the next day, then stop after applying only the experiment's entry
+                Ledger.Entry experiment = new Ledger.Entry(2000L, 20644.0, 206.44, 207.83, 0, 20644.0, day + 1);
+                Ledger.Entry control = new Ledger.Entry(2000L, 20783.0, 206.44, 207.83, 100, 0.0, day + 1);
+                transaction = new LedgerTransaction(journalFile);
+                transaction.append(experimentLedger, experiment);
+                transaction.append(controlLedger, control);
+                transaction.writeJournal();
+                LedgerTransaction.apply(experimentLedger, 1, experiment);
+                experimentLedger.close();
+                controlLedger.close();
+
+                experimentLedger = DataOps.openLedger(experimentHistory);
+                controlLedger = DataOps.openLedger(controlHistory);
+                if (!journalFile.exists()
+                        && experimentLedger.size() == 2 && experimentLedger.latest().cash() == 20644.0
+                        && controlLedger.size() == 2 && controlLedger.latest().total() == 20783.0
+                        && controlLedger.latest().barDate() == day + 1) {
+                    testPassed = true;
+                }
+                experimentLedger.close();
+                controlLedger.close();
+            } finally {
+                deleteTree(historyDir);
+            }
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+        return testPassed;
+    }
 
-        double totalAssets = 10000.00;
-        boolean sentiment = false;
+    /**
+     * Method used for testing whether the database store, in an in-memory H2 database, reads back the history,
+     * bars and sentiment written to it: the latest entry with its position, bars in a range of dates, a day's
+     * sentiment replaced by a later write, and the sentiment of a weekend counted towards the next trading day.
+     * @return - boolean, "True" if the logic is functioning as expected.
+     */
+    public boolean jdbcTradingStoreRoundTrips() {
+        boolean testPassed = false;
+        try {
+            TradingStore store = new JdbcTradingStore("jdbc:h2:mem:unitTest");
+            try {
+                int thursday = EpochDays.parse("2015-04-09");
+                PriceSeries bars = new PriceSeries("SPY");
+                bars.add(thursday, 206.0, 207.0, 205.0, 206.5, 1000, 206.5);
+                bars.add(thursday + 1, 206.5, 208.0, 206.0, 207.8, 1000, 207.8);
+                bars.add(thursday + 4, 207.8, 208.0, 206.0, 207.0, 1000, 207.0);
+                store.putBars(bars);
+
+                store.restartResults(new Ledger.Entry(1000L, 20650.0, 206.0, 206.5, 100, 0.0, thursday));
+                store.appendResults(new Ledger.Entry(2000L, 20780.0, 206.5, 207.8, 0, 20780.0, thursday + 1),
+                        new Ledger.Entry(2000L, 20780.0, 206.5, 207.8, 100, 0.0, thursday + 1));
+
+                // Thursday's sentiment is replaced; Saturday's counts towards Monday
+                SentimentAggregate aggregate = new SentimentAggregate(1);
+                aggregate.add(0.9, 1);
+                store.recordSentiment(thursday, aggregate, "unitTest");
+                SentimentSeriesStore days = new SentimentSeriesStore(null);
+                days.put(thursday, 1, 0.75, 1.0, 0.5, 1.0, "unitTest");
+                days.put(thursday + 2, 1, 0.6, 1.0, 0.2, 1.0, "unitTest");
+                days.put(thursday + 4, 1, 0.1, 0.0, -0.8, 1.0, "unitTest");
+                store.recordSentiment(days);
+
+                PriceSeries stored = store.bars("SPY", thursday + 1, thursday + 4);
+                double[] sentiment = store.dailySentiment(store.bars("SPY", thursday, thursday + 4));
+                Ledger.Entry latest = store.latest(TradingStore.EXPERIMENT);
+                if (stored.size() == 2 && stored.close(0) == 207.8
+                        && store.lastBarDate("SPY") == thursday + 4
+                        && store.first(TradingStore.CONTROL).total() == 20650.0
+                        && latest.shares() == 0 && latest.cash() == 20780.0 && latest.barDate() == thursday + 1
+                        && store.sentimentSeries().size() == 3
+                        && sentiment[0] == 0.5 && Double.isNaN(sentiment[1])
+                        && Math.abs(sentiment[2] + 0.3) < 1e-9) {
+                    testPassed = true;
+                }
+            } finally {
+                store.close();
+            }
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+        return testPassed;
+    }
 
-        // Test investment function
-        double programResult = DataOps.investmentResult(exampleData,totalAssets, sentiment);
+    /**
+     * Method used for testing whether a sentiment-gated strategy sells its shares at the open after negative
+     * sentiment, buys back as many whole shares as its cash allows after positive sentiment, and pays
+     * commission and slippage on both trades, and whether one trading at the close fills each decision at the
+     * next day's close, after the decision day's tweets.
+     * @return - boolean, "True" if the logic is functioning as expected.
+     */
+    public boolean portfolioTradesAccurately() {
+
+        // Four days: bought at 10, then negative, positive and neutral sentiment
+        PriceSeries series = new PriceSeries("SPY");
+        series.add(100, 10.0, 10.0, 10.0, 10.0, 1000, 10.0);
+        series.add(101, 11.0, 12.0, 11.0, 12.0, 1000, 12.0);
+        series.add(102, 12.0, 12.0, 9.0, 9.0, 1000, 9.0);
+        series.add(103, 8.0, 10.0, 8.0, 10.0, 1000, 10.0);
+        series.sortByDate();
+        double[] sentiment = {-1.0, 1.0, 0.0, 0.0};
+
+        Portfolio portfolio = new Portfolio();
+        int control = portfolio.addPassive("control");
+        int ideal = portfolio.addSentimentGated("ideal", 0.0, 1);
+        int costly = portfolio.addSentimentGated("costly", 0.0, 1, new ExecutionModel(true, 5.0, 0.0, 0.01));
+        int atClose = portfolio.addSentimentGated("atClose", 0.0, 1, new ExecutionModel(false, 0.0, 0.0, 0.0));
+        portfolio.run(series, sentiment, 0, series.size(), null);
+
+        // Ideal: 100 shares sold at 11 for 1100, 91 bought at 12 leaving 8, then sold at 8 for 736
+        // Costly: sold at 10.89 for 1084, 89 bought at 12.12 leaving 0.32, then sold at 7.92 for 700.20
+        // At close: each decision is filled at the next close, so 100 shares sold at 12 for 1200, 133 bought
+        // at 9 leaving 3, then sold at 10 for 1333
+        boolean testPassed = false;
+        if (portfolio.equity(control) == 1000.0
+                && Math.abs(portfolio.equity(ideal) - 736.0) < 1e-9
+                && portfolio.shares(ideal) == 0
+                && portfolio.trades(ideal) == 3
+                && Math.abs(portfolio.equity(costly) - 700.20) < 1e-9
+                && portfolio.daysInvested(ideal) == 1
+                && Math.abs(portfolio.equity(atClose) - 1333.0) < 1e-9
+                && portfolio.trades(atClose) == 3
+                && portfolio.daysInvested(atClose) == 2) {
+            testPassed = true;
+        }
+        return testPassed;
+    }
 
-        // Perform expected operation here, for comparison
-        String updatedStockPriceString = exampleData.get("Close");
-        double updatedStockPrice = Double.parseDouble(updatedStockPriceString);
-        double testResult = totalAssets;
+    /**
+     * Method used for testing whether a strategy's returns, largest drawdown and hit rate are measured
+     * correctly from its history of totals.
+     * @return - boolean, "True" if the logic is functioning as expected.
+     */
+    public boolean performanceStatsAccurate() {
+
+        // Up 10%, down 10%, unchanged while out of the market, then up 10% again
+        long day = 24L * 60 * 60 * 1000;
+        double[] totals = {100.0, 110.0, 99.0, 99.0, 108.9};
+        PerformanceStats stats = new PerformanceStats("experiment");
+        for (int i = 0; i < totals.length; ++i) {
+            stats.handle(i * day, totals[i], 0.0, 0.0);
+        }
 
         boolean testPassed = false;
-        if (String.valueOf(programResult).equalsIgnoreCase(String.valueOf(testResult))) {
+        if (stats.numReturns() == 4
+                && Math.abs(stats.cumulativeReturn() - 0.089) < 1e-9
+                && Math.abs(stats.maxDrawdown() - 0.1) < 1e-9
+                && stats.maxDrawdownTroughTimestamp() == 2 * day
+                && Math.abs(stats.meanReturn() - 0.025) < 1e-9
+                && Math.abs(stats.hitRate() - 2.0 / 3.0) < 1e-9) {
             testPassed = true;
         }
         return testPassed;
     }
 
-}
+    /**
+     * Method used for testing whether the crawler's previous date is a real date, given months numbered
+     * from 0 as in Yahoo Finance URLs.
+     * @return - boolean, "True" if the logic is functioning as expected.
+     */
+    public boolean crawlerSubtractsDaysAccurately() {
+        Crawler crawler = new Crawler();
+
+        // 1 March 2016 (a leap year), 1 May 2015, and 1 January 2015
+        ArrayList<String> leapDay = crawler.subtractDay("1", "2", "2016");
+        ArrayList<String> endOfApril = crawler.subtractDay("1", "4", "2015");
+        ArrayList<String> newYearsEve = crawler.subtractDay("1", "0", "2015");
+
+        boolean testPassed = false;
+        if (leapDay.get(0).equals("29") && leapDay.get(1).equals("1") && leapDay.get(2).equals("2016")
+                && endOfApril.get(0).equals("30") && endOfApril.get(1).equals("3")
+                && newYearsEve.get(0).equals("31") && newYearsEve.get(1).equals("11")
+                && newYearsEve.get(2).equals("2014")) {
+            testPassed = true;
+        }
+        return testPassed;
+    }
+
+    /**
+     * Method used for testing whether the trading calendar knows the NYSE's holidays and half-days of 2015,
+     * counts the sessions in a month and a year as the exchange does, and tells which ranges it covers.
+     * @return - boolean, "True" if the logic is functioning as expected.
+     */
+    public boolean tradingCalendarAccurate() {
+        TradingCalendar calendar = TradingCalendar.nyse();
 
+        boolean testPassed = false;
+        // Good Friday was 3 April 2015, and Independence Day fell on a Saturday, so was observed on the Friday
+        if (calendar.previousSession(EpochDays.of(2015, 4, 6)) == EpochDays.of(2015, 4, 2)
+                && !calendar.isSession(EpochDays.of(2015, 7, 3))
+                && calendar.nextSession(EpochDays.of(2015, 7, 2)) == EpochDays.of(2015, 7, 6)
+                && calendar.isHalfDay(EpochDays.of(2015, 11, 27))
+                && !calendar.isHalfDay(EpochDays.of(2015, 11, 25))
+                && calendar.sessionsBetween(EpochDays.of(2015, 1, 1), EpochDays.of(2015, 2, 1)) == 20
+                && calendar.sessionsBetween(EpochDays.of(2015, 1, 1), EpochDays.of(2016, 1, 1)) == 252
+                && calendar.covers(EpochDays.of(1990, 1, 1), EpochDays.of(2100, 1, 1))
+                && !calendar.covers(EpochDays.of(1985, 1, 2), EpochDays.of(2015, 1, 1))) {
+            testPassed = true;
+        }
+        return testPassed;
+    }
 
+    /**
+     * Method used for testing whether tweets appended to the archive across two hours are counted from the
+     * index and read back by time range, with their details, after the archive is opened again.
+     * @return - boolean, "True" if the logic is functioning as expected.
+     */
+    public boolean tweetArchiveReadsTimeRanges() {
+        boolean testPassed = false;
+        try {
+            File archiveDir = File.createTempFile("unitTest", ".tweets");
+            archiveDir.delete();
+
+            // Two tweets at 14:10 and 14:50 on the day, local time, and one at 15:05
+            int day = EpochDays.parse("2015-04-09");
+            long twoPm = (TweetArchive.startHour(day) + 14) * TweetArchive.MILLIS_PER_HOUR;
+            TweetArchive archive = TweetArchive.open(archiveDir);
+            archive.append(new TweetArchive.Record(1L, twoPm + 10 * 60000, 7L, "trader", "en", 40.71, -74.0, false,
+                    "Stocks are up today"));
+            archive.append(new TweetArchive.Record(2L, twoPm + 50 * 60000, 8L, "bear", "en", Double.NaN, Double.NaN,
+                    true, "Sell everything"));
+            archive.append(new TweetArchive.Record(3L, twoPm + 65 * 60000, 7L, "trader", null, Double.NaN,
+                    Double.NaN, false, "Back to buying"));
+            archive.close();
+
+            archive = TweetArchive.open(archiveDir);
+            final List<TweetArchive.Record> records = new ArrayList<TweetArchive.Record>();
+            int numRead = archive.scan(twoPm + 30 * 60000, twoPm + 70 * 60000, new TweetArchive.RecordHandler() {
+                public void handle(TweetArchive.Record record) {
+                    records.add(record);
+                }
+            });
+            int numDays = archive.days().length;
+            int countOfDay = archive.count(day);
+            int numTexts = archive.texts(day).size();
+            archive.close();
+
+            if (numRead == 2 && records.size() == 2
+                    && records.get(0).id() == 2L && records.get(0).isRetweet()
+                    && records.get(0).screenName().equals("bear") && Double.isNaN(records.get(0).latitude())
+                    && records.get(1).text().equals("Back to buying") && records.get(1).language().equals("")
+                    && numDays == 1 && countOfDay == 3 && numTexts == 3
+                    && new File(new File(archiveDir, "2015-04-09"), "14" + TweetArchive.SEGMENT_SUFFIX).exists()) {
+                testPassed = true;
+            }
+
+            File[] dayDirs = archiveDir.listFiles();
+            for (int d = 0; dayDirs != null && d < dayDirs.length; ++d) {
+                File[] segments = dayDirs[d].listFiles();
+                for (int i = 0; segments != null && i < segments.length; ++i) {
+                    segments[i].delete();
+                }
+                dayDirs[d].delete();
+            }
+            archiveDir.delete();
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+        return testPassed;
+    }
 
+    /**
+     * Method used for testing whether market data is downloaded from the local stand-in for Yahoo Finance,
+     * with requests that fail with a server error tried again, and missing symbols not retried.
+     * @return - boolean, "True" if the logic is functioning as expected.
+     */
+    public boolean fetcherRetriesAgainstLocalServer() {
+        boolean testPassed = false;
+        try {
+            LocalQuoteServer server = new LocalQuoteServer(new File(LocalQuoteServer.DEFAULT_DIR));
+            server.start();
+            try {
+                // Two failed requests, then success on the third of at most three attempts
+                server.failNext("SPY", 2);
+                MarketDataFetcher fetcher = new MarketDataFetcher(server.url(), 4, 1000, 1000, 3, 10);
+                PriceSeries spy = fetcher.fetch("SPY", EpochDays.parse("2015-04-01"), EpochDays.parse("2015-04-10"));
+                int requestsForSpy = server.requests();
+                PriceSeries missing = fetcher.fetch("NOSUCHSYMBOL", EpochDays.parse("2015-04-01"),
+                        EpochDays.parse("2015-04-10"));
+
+                if (requestsForSpy == 3
+                        && spy.size() == 2
+                        && spy.date(0) == EpochDays.parse("2015-04-02")
+                        && spy.close(1) == 208.90
+                        && missing.size() == 0
+                        && server.requests() == 4) {
+                    testPassed = true;
+                }
+            } finally {
+                server.stop();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return testPassed;
+    }
+}